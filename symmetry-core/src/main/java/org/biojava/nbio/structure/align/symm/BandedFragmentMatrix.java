@@ -0,0 +1,243 @@
+package org.biojava.nbio.structure.align.symm;
+
+import java.util.Arrays;
+
+/**
+ * View of a fragment matrix restricted to bands around a set of aligned
+ * blocks, for example the traces of a search at a lower resolution. The band
+ * of a block covers the diagonal of the block, extended by a width in both
+ * directions, and the fragment pairs outside all the bands read as
+ * {@link #OUTSIDE_BANDS}, so that the trace search does not use them.
+ * <p>
+ * The bands of each row are stored as sorted, disjoint column intervals. The
+ * scores are read from the underlying matrix, which is not copied, or, with
+ * {@link #copyOf(FragmentMatrix, int[], int[], int[], int)}, copied for the
+ * pairs inside the bands only, so that the memory grows with the size of the
+ * bands.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class BandedFragmentMatrix implements FragmentMatrix {
+
+	/** Score of the fragment pairs outside the bands */
+	public static final double OUTSIDE_BANDS = Double.MAX_VALUE;
+
+	private final FragmentMatrix matrix;
+	private final int rows;
+	private final int cols;
+	/** Index of the first interval of each row, and the number of intervals */
+	private final int[] rowStart;
+	/** First column of each interval */
+	private final int[] colFrom;
+	/** Column after the last of each interval */
+	private final int[] colTo;
+	/** Index of the first copied score of each interval, or null */
+	private final int[] valueStart;
+	/** Copied scores of the intervals, or null */
+	private final double[] values;
+
+	/**
+	 * Restricts a fragment matrix to the bands of the aligned blocks. Block k
+	 * aligns the fragments starts1[k] + t and starts2[k] + t, for t from 0 to
+	 * lengths[k] - 1.
+	 *
+	 * @param matrix
+	 *            the fragment matrix
+	 * @param starts1
+	 *            first fragment of each block in the first structure
+	 * @param starts2
+	 *            first fragment of each block in the second structure
+	 * @param lengths
+	 *            number of aligned fragments of each block
+	 * @param width
+	 *            number of rows added before and after each block, and of
+	 *            diagonals on each side of it
+	 */
+	public BandedFragmentMatrix(FragmentMatrix matrix, int[] starts1,
+			int[] starts2, int[] lengths, int width) {
+		this(matrix, starts1, starts2, lengths, width, false);
+	}
+
+	/**
+	 * Copies the scores of a fragment matrix inside the bands of the aligned
+	 * blocks, and does not keep a reference to the matrix. Each score is read
+	 * once, so the matrix can calculate them on demand.
+	 *
+	 * @param matrix
+	 *            the fragment matrix
+	 * @param starts1
+	 *            first fragment of each block in the first structure
+	 * @param starts2
+	 *            first fragment of each block in the second structure
+	 * @param lengths
+	 *            number of aligned fragments of each block
+	 * @param width
+	 *            number of rows added before and after each block, and of
+	 *            diagonals on each side of it
+	 * @return the fragment matrix restricted to the bands
+	 * @see #BandedFragmentMatrix(FragmentMatrix, int[], int[], int[], int)
+	 */
+	public static BandedFragmentMatrix copyOf(FragmentMatrix matrix,
+			int[] starts1, int[] starts2, int[] lengths, int width) {
+		return new BandedFragmentMatrix(matrix, starts1, starts2, lengths,
+				width, true);
+	}
+
+	private BandedFragmentMatrix(FragmentMatrix matrix, int[] starts1,
+			int[] starts2, int[] lengths, int width, boolean copy) {
+
+		if (starts1.length != starts2.length
+				|| starts1.length != lengths.length)
+			throw new IllegalArgumentException(
+					"The blocks have different numbers of starts and lengths");
+		if (width < 0)
+			throw new IllegalArgumentException("Invalid width: " + width);
+
+		this.matrix = copy ? null : matrix;
+		this.rows = matrix.getRows();
+		this.cols = matrix.getCols();
+
+		// Count the intervals of each row
+		int[] count = new int[rows + 1];
+		for (int k = 0; k < lengths.length; k++) {
+			int from = Math.max(0, starts1[k] - width);
+			int to = Math.min(rows, starts1[k] + lengths[k] + width);
+			for (int i = from; i < to; i++)
+				count[i + 1]++;
+		}
+		for (int i = 0; i < rows; i++)
+			count[i + 1] += count[i];
+
+		// Intervals of each row, as the first column in the high bits and the
+		// end in the low bits, so that they sort by the first column
+		long[] intervals = new long[count[rows]];
+		int[] next = Arrays.copyOf(count, rows);
+		for (int k = 0; k < lengths.length; k++) {
+			int from = Math.max(0, starts1[k] - width);
+			int to = Math.min(rows, starts1[k] + lengths[k] + width);
+			int offset = starts2[k] - starts1[k];
+			for (int i = from; i < to; i++) {
+				int c1 = Math.max(0, i + offset - width);
+				int c2 = Math.min(cols, i + offset + width + 1);
+				if (c1 < c2)
+					intervals[next[i]++] = ((long) c1 << 32) | c2;
+			}
+		}
+
+		// Sort and merge the overlapping intervals of each row
+		rowStart = new int[rows + 1];
+		int size = 0;
+		for (int i = 0; i < rows; i++) {
+			Arrays.sort(intervals, count[i], next[i]);
+			for (int k = count[i]; k < next[i]; k++) {
+				int c1 = (int) (intervals[k] >>> 32);
+				int c2 = (int) intervals[k];
+				if (size > rowStart[i] && c1 <= (int) intervals[size - 1]) {
+					int end = Math.max(c2, (int) intervals[size - 1]);
+					intervals[size - 1] = (intervals[size - 1] & 0xFFFFFFFF00000000L)
+							| end;
+				} else
+					intervals[size++] = intervals[k];
+			}
+			rowStart[i + 1] = size;
+		}
+		colFrom = new int[size];
+		colTo = new int[size];
+		for (int k = 0; k < size; k++) {
+			colFrom[k] = (int) (intervals[k] >>> 32);
+			colTo[k] = (int) intervals[k];
+		}
+
+		if (!copy) {
+			valueStart = null;
+			values = null;
+			return;
+		}
+		valueStart = new int[size];
+		long total = size();
+		if (total > Integer.MAX_VALUE)
+			throw new IllegalArgumentException(
+					"Too many fragment pairs in the bands: " + total);
+		values = new double[(int) total];
+		int v = 0;
+		for (int i = 0; i < rows; i++) {
+			for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+				valueStart[k] = v;
+				for (int j = colFrom[k]; j < colTo[k]; j++)
+					values[v++] = matrix.get(i, j);
+			}
+		}
+	}
+
+	/**
+	 * @return the fragment matrix restricted to the bands, or null if its
+	 *         scores were copied
+	 */
+	public FragmentMatrix getMatrix() {
+		return matrix;
+	}
+
+	/**
+	 * @param i
+	 *            fragment of the first structure
+	 * @param j
+	 *            fragment of the second structure
+	 * @return true if the fragment pair is inside a band
+	 */
+	public boolean contains(int i, int j) {
+		return find(i, j) >= 0;
+	}
+
+	/**
+	 * @return the interval of row i that contains column j, or -1
+	 */
+	private int find(int i, int j) {
+		for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+			if (j < colFrom[k])
+				return -1;
+			if (j < colTo[k])
+				return k;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of fragment pairs inside the bands
+	 */
+	public long size() {
+		long size = 0;
+		for (int k = 0; k < colFrom.length; k++)
+			size += colTo[k] - colFrom[k];
+		return size;
+	}
+
+	@Override
+	public int getRows() {
+		return rows;
+	}
+
+	@Override
+	public int getCols() {
+		return cols;
+	}
+
+	@Override
+	public double get(int i, int j) {
+		int k = find(i, j);
+		if (k < 0)
+			return OUTSIDE_BANDS;
+		if (values != null)
+			return values[valueStart[k] + j - colFrom[k]];
+		return matrix.get(i, j);
+	}
+
+	@Override
+	public long getSizeInBytes() {
+		long size = 64L + 4L * rowStart.length + 8L * colFrom.length;
+		if (values != null)
+			return size + 4L * valueStart.length + 8L * values.length;
+		return size + matrix.getSizeInBytes();
+	}
+
+}
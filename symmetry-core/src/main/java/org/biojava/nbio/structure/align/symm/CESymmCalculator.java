@@ -1,15 +1,23 @@
 package org.biojava.nbio.structure.align.symm;
 
-import javax.vecmath.Matrix4d;
-import javax.vecmath.Point3d;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.biojava.nbio.structure.Atom;
-import org.biojava.nbio.structure.Calc;
 import org.biojava.nbio.structure.align.ce.CECalculator;
 import org.biojava.nbio.structure.align.ce.CeParameters;
 import org.biojava.nbio.structure.align.model.AFPChain;
-import org.biojava.nbio.structure.align.util.RotationAxis;
-import org.biojava.nbio.structure.geometry.SuperPositions;
 
 /**
  * This is an experimental version of CECalculator that aims at improving the
@@ -21,36 +29,258 @@ import org.biojava.nbio.structure.geometry.SuperPositions;
  */
 public class CESymmCalculator extends CECalculator {
 
+	/**
+	 * Minimum rotation angle between the fragments of a trace extension, in
+	 * degrees, to avoid the trivial alignment of the structure to itself.
+	 */
 	public static final int MIN_ANGLE = 20;
+	/** {@link #MIN_ANGLE} in radians, the unit of the fragment angles */
+	private static final double MIN_ANGLE_RAD = Math.toRadians(MIN_ANGLE);
+
+	/** Number of traces between checks of the thread interrupted status */
+	private static final int INTERRUPT_CHECK_INTERVAL = 1 << 16;
+	/** Number of alternative traces kept in the first iteration */
+	private static final int BEST_TRACES_MAX = 30;
 
 	Atom origin1 = null;
 	Atom origin2 = null;
 
+	/** Angles of the fragment pairs of the last trace search */
+	private FragmentAngleCache angleCache;
+	/** Work done by the last trace search */
+	private TraceSearchStats stats;
+
+	/** Number of threads of the first iteration of the trace search */
+	private int parallelism = 1;
+
+	/** Layout of the fragment matrix read by the trace search */
+	private FragmentMatrix.Storage storage = FragmentMatrix.Storage.DENSE;
+	/** Excluded band of self-alignments, 0 for the fragment length */
+	private int diagonalBand = 0;
+
+	/** Maximum number of traces and time of the trace search */
+	private TraceBudget budget = TraceBudget.DEFAULT;
+	/** The last trace search ran out of budget */
+	private boolean truncated;
+
+	/** Residues between the atoms of the coarse search, 1 to disable it */
+	private int coarseStep = 1;
+	/** Width of the bands around the coarse traces, 0 for the default */
+	private int coarseBand = 0;
+
+	// State of the trace search
+	private FragmentMatrix fragments;
+	private double[] coords1;
+	private double[] coords2;
+	private int iterDepth;
+	private int[] traceIndex;
+	private int[] traceIterLevel;
+	private double[][] traceScore;
+	private int newBestTrace;
+	/** End of the time budget for System.nanoTime, or Long.MAX_VALUE */
+	private long deadline;
+	/** Traces of the seeds of a parallel worker, null in sequential searches */
+	private SeedTraces seedTraces;
+
 	public CESymmCalculator(CeParameters params) {
 		super(params);
 
 	}
 
+	/**
+	 * Set the number of threads used to explore the seeds of the first
+	 * iteration of the trace search, which visits the whole fragment matrix.
+	 * This is useful for single large structures, where there is no
+	 * parallelism between structures. The traces found are the same as
+	 * with a single thread.
+	 * 
+	 * @param parallelism
+	 *            number of threads, 1 for a sequential search
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("Invalid parallelism: "
+					+ parallelism);
+		this.parallelism = parallelism;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Set the memory layout of the fragment matrix during the trace search.
+	 * If the fragment matrix of the CECalculator was set, it is copied to the
+	 * layout at the start of the search and then released, so that
+	 * {@link #getMatMatrix()} is null after the search, except for the
+	 * default {@link FragmentMatrix.Storage#DENSE}, which reads it.
+	 * <p>
+	 * If it was not set with {@link #setMatMatrix(double[][])}, the layouts
+	 * other than {@link FragmentMatrix.Storage#DENSE} are calculated directly
+	 * from the distance matrices, so that the full matrix is never built.
+	 * {@link FragmentMatrix.Storage#SYMMETRIC} and
+	 * {@link FragmentMatrix.Storage#SPARSE} can only be calculated for
+	 * self-alignments.
+	 *
+	 * @param storage
+	 */
+	public void setMatrixStorage(FragmentMatrix.Storage storage) {
+		this.storage = storage;
+	}
+
+	public FragmentMatrix.Storage getMatrixStorage() {
+		return storage;
+	}
+
+	/**
+	 * Set the band around the diagonal of the fragment pairs excluded from a
+	 * self-alignment, which align the structure to itself, in the layouts
+	 * calculated from the distance matrix and in
+	 * {@link FragmentMatrix.Storage#SYMMETRIC}.
+	 * 
+	 * @param diagonalBand
+	 *            fragment pairs (i, j) with |i - j| &lt; diagonalBand are
+	 *            excluded, 0 for the fragment length
+	 */
+	public void setDiagonalBand(int diagonalBand) {
+		if (diagonalBand < 0)
+			throw new IllegalArgumentException("Invalid diagonal band: "
+					+ diagonalBand);
+		this.diagonalBand = diagonalBand;
+	}
+
+	public int getDiagonalBand() {
+		return diagonalBand > 0 ? diagonalBand : params.getWinSize();
+	}
+
+	/**
+	 * Set the budget of the trace search, as a number of traces and a
+	 * wall-clock time. When it runs out, the search stops and
+	 * {@link #isTruncated()} is true. The default is the limit of traces of
+	 * CE, {@link TraceBudget#DEFAULT}, which stops exactly like CE; other
+	 * budgets keep the best trace of the previous iteration if it is better
+	 * than the trace found so far.
+	 * 
+	 * @param budget
+	 */
+	public void setTraceBudget(TraceBudget budget) {
+		if (budget == null)
+			throw new IllegalArgumentException("The budget can not be null");
+		this.budget = budget;
+	}
+
+	public TraceBudget getTraceBudget() {
+		return budget;
+	}
+
+	/**
+	 * Set the multi-resolution search for large structures. With a step k
+	 * larger than 1, the trace search first runs on every k-th residue, with
+	 * fragments of about winSize / k residues (at least 3) and the scores of
+	 * the fragment matrix at those residues. The full resolution search then
+	 * only uses the fragment pairs in bands around the best trace and the
+	 * alternative traces of the coarse search (see
+	 * {@link #setCoarseBand(int)}), so it is much faster on long repeated
+	 * structures, but it may miss traces far from the coarse ones.
+	 * <p>
+	 * If the fragment matrix was not set with {@link #setMatMatrix(double[][])},
+	 * only the scores of the coarse residues and of the bands are calculated
+	 * from the distance matrices, so the full matrix is never built. If the
+	 * coarse search finds no trace, or the structure is too short, the full
+	 * resolution search uses the whole fragment matrix, in the layout of
+	 * {@link #setMatrixStorage(FragmentMatrix.Storage)}.
+	 * 
+	 * @param coarseStep
+	 *            residues between the atoms of the coarse search, 1 (the
+	 *            default) for a single search at full resolution
+	 */
+	public void setCoarseStep(int coarseStep) {
+		if (coarseStep < 1)
+			throw new IllegalArgumentException("Invalid coarse step: "
+					+ coarseStep);
+		this.coarseStep = coarseStep;
+	}
+
+	public int getCoarseStep() {
+		return coarseStep;
+	}
+
+	/**
+	 * Set the width of the bands around the coarse traces in the
+	 * multi-resolution search: the number of diagonals on each side of a
+	 * trace, and of rows before and after it, that are searched at full
+	 * resolution.
+	 * 
+	 * @param coarseBand
+	 *            width of the bands, 0 for the fragment length plus the
+	 *            coarse step
+	 */
+	public void setCoarseBand(int coarseBand) {
+		if (coarseBand < 0)
+			throw new IllegalArgumentException("Invalid coarse band: "
+					+ coarseBand);
+		this.coarseBand = coarseBand;
+	}
+
+	public int getCoarseBand() {
+		return coarseBand > 0 ? coarseBand : params.getWinSize() + coarseStep;
+	}
+
+	/**
+	 * Returns whether the last trace search ran out of budget, so that the
+	 * best trace may not be optimal, or explored all the traces.
+	 * 
+	 * @return true if the last search was truncated by the budget
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The search can be cancelled by interrupting the calling thread, which is
+	 * checked for every seed row and periodically during the extension of the
+	 * traces. The {@link TraceBudget} is checked at the same points: if it
+	 * runs out, the search stops as described in
+	 * {@link #setTraceBudget(TraceBudget)}.
+	 * 
+	 * @throws CancellationException
+	 *             if the thread was interrupted
+	 */
 	@Override
 	public void traceFragmentMatrix(AFPChain afpChain, Atom[] ca1, Atom[] ca2) {
 
-		// vecmath versions of points
-		// TODO Improve speed by using vecmath functions
-		Point3d[] points1 = Calc.atomsToPoints(ca1);
-		Point3d[] points2 = Calc.atomsToPoints(ca2);
-		
-		double rmsdThr = params.getRmsdThr();
+		// flat coordinates, for the superposition of fragments
+		coords1 = SuperpositionAngle.toCoordinates(ca1);
+		coords2 = SuperpositionAngle.toCoordinates(ca2);
+		int winSize = params.getWinSize();
+		truncated = false;
+		deadline = budget.getDeadline(System.nanoTime());
+		angleCache = new FragmentAngleCache(coords1, coords2, winSize);
+		stats = new TraceSearchStats();
+		if (coarseStep > 1 && mat == null) {
+			// Only the scores in the bands of the coarse traces are calculated
+			int band = ca1.length == ca2.length ? getDiagonalBand() : 0;
+			fragments = restrictToCoarseTraces(afpChain, ca1, ca2,
+					new KernelFragmentMatrix(getDist1(), getDist2(), winSize,
+							band));
+			if (fragments == null)
+				fragments = createFragmentMatrix(ca1.length, ca2.length);
+		} else {
+			fragments = createFragmentMatrix(ca1.length, ca2.length);
+			if (coarseStep > 1) {
+				FragmentMatrix banded = restrictToCoarseTraces(afpChain, ca1,
+						ca2, fragments);
+				if (banded != null)
+					fragments = banded;
+			}
+		}
 
 		double oldBestTraceScore = 10000.0;
 		bestTraceScore = 100.0;
 		nBestTrace = 0;
 		int nBestTrace0 = 0;
-		int winSize = params.getWinSize();
-		int winSizeComb1 = (winSize - 1) * (winSize - 2) / 2;
-		boolean distAll = false;
-
-		int winSizeComb2 = distAll ? winSize * winSize : winSize;
-		double rmsdThrJoin = params.getRmsdThrJoin();
 
 		double z0;
 
@@ -65,62 +295,26 @@ public class CESymmCalculator extends CECalculator {
 
 		bestTrace1 = new int[traceMaxSize];
 		bestTrace2 = new int[traceMaxSize];
-		trace1 = new int[traceMaxSize];
-		trace2 = new int[traceMaxSize];
-
-		int[] traceIndex = new int[traceMaxSize];
-		int[] traceIterLevel = new int[traceMaxSize];
+		allocateTraceBuffers(traceMaxSize);
 
 		int ise11;
 		int ise12;
 		int ise21;
 		int ise22;
 
-		int ise1;
-		int ise2;
-
-		int gapMax = params.getMaxGapSize();
-
-		int iterDepth;
-		if (gapMax > 0) {
-			iterDepth = gapMax * 2 + 1;
-		} else {
-			iterDepth = traceMaxSize;
-		}
-		double[][] traceScore = new double[traceMaxSize][iterDepth];
-
 		nTraces = 0;
-		long tracesLimit = (long) 5e7;
-		double score = -1;
-		double score0 = -1;
-		double score1 = -1;
-		double score2 = -1;
-
-		int mse1;
-		int mse2;
-		int jgap;
-		int jdir;
-		int jse1 = 0;
-		int jse2 = 0;
 
-		int bestTracesMax = 30;
-		bestTraces1 = new int[bestTracesMax][traceMaxSize];
-		bestTraces2 = new int[bestTracesMax][traceMaxSize];
-		bestTracesN = new int[bestTracesMax];
-		bestTracesScores = new double[bestTracesMax];
-		for (int it = 0; it < bestTracesMax; it++) {
+		bestTraces1 = new int[BEST_TRACES_MAX][traceMaxSize];
+		bestTraces2 = new int[BEST_TRACES_MAX][traceMaxSize];
+		bestTracesN = new int[BEST_TRACES_MAX];
+		bestTracesScores = new double[BEST_TRACES_MAX];
+		for (int it = 0; it < BEST_TRACES_MAX; it++) {
 			bestTracesN[it] = 0;
 			bestTracesScores[it] = 100;
 		}
 
 		nBestTraces = 0;
-		int newBestTrace = 0;
-
-		double traceTotalScore = 0;
-		double traceScoreMax = 0;
-		double userRMSDMax = params.getMaxOptRMSD();
-		int kse1;
-		int kse2;
+		newBestTrace = 0;
 
 		//iterLoop:
 		for (int iter = 0; iter < nIter; iter++) {
@@ -131,6 +325,11 @@ public class CESymmCalculator extends CECalculator {
 			}
 			oldBestTraceScore = bestTraceScore;
 
+			// Best trace of the previous iteration, if the budget runs out
+			int[] lastBestTrace1 = Arrays.copyOf(bestTrace1, nBestTrace);
+			int[] lastBestTrace2 = Arrays.copyOf(bestTrace2, nBestTrace);
+			double lastBestTraceScore = bestTraceScore;
+
 			if (iter == 1) {
 				z0 = zStrAlign(winSize, nBestTrace, bestTraceScore,
 						bestTrace1[nBestTrace] + winSize - bestTrace1[0]
@@ -173,246 +372,35 @@ public class CESymmCalculator extends CECalculator {
 					ise22 = nse2;
 			}
 
-			// System.out.println("ise1Loop: " + ise11 + " " + ise12 + " " +
-			// ise21 + " " + ise22);
-			//ise1Loop:
-			for (int ise1_ = ise11; ise1_ < ise12; ise1_++) {
-				ise2Loop: for (int ise2_ = ise21; ise2_ < ise22; ise2_++) {
-
-					ise1 = ise1_;
-					ise2 = ise2_;
-					if (iter > 1 && ise1 == ise11 + 1 && ise2 == ise21 + 1)
-						continue ise2Loop;
-
-					// if(ise2==ise21)
-					// System.out.println(String.format("(%d, %d)",ise1,
-					// nTraces));
-
-					if (iter == 0
-							&& (ise1 > nse1 - winSize * (nBestTrace - 1) || ise2 > nse2
-									- winSize * (nBestTrace - 1)))
-						continue ise2Loop;
-
-					if (mat[ise1][ise2] < 0.0)
-						continue ise2Loop;
-					if (mat[ise1][ise2] > rmsdThr)
-						continue ise2Loop;
-					if (mat[ise1][ise2] > userRMSDMax)
-						continue ise2Loop;
-					nTrace = 0;
-					trace1[nTrace] = ise1;
-					trace2[nTrace] = ise2;
-					traceIndex[nTrace] = 0;
-					traceIterLevel[nTrace] = 0;
-
-					score0 = mat[ise1][ise2];
-
-					nTrace++;
-					boolean isTraceUp = true;
-					int traceIndex_ = 0;
-
-					traceLoop: while (nTrace > 0) {
-
-						kse1 = trace1[nTrace - 1] + winSize;
-						kse2 = trace2[nTrace - 1] + winSize;
-
-						// System.out.println("isTraceUp " + isTraceUp + " " +
-						// nTrace + " " + kse1 + " " + kse2);
-
-						while (true) {
-							if (kse1 > nse1 - winSize - 1)
-								break;
-							if (kse2 > nse2 - winSize - 1)
-								break;
-							if (mat[kse1][kse2] >= 0.0)
-								break;
-							kse1++;
-							kse2++;
-						}
-
-						traceIndex_ = -1;
-
-						if (isTraceUp) {
-
-							int nBestExtTrace = nTrace;
-							double bestExtScore = 100.0;
-
-							// extension of the alignment path
-							// condition 4, 5
-							itLoop: for (int it = 0; it < iterDepth; it++) {
-
-								jgap = (it + 1) / 2;
-								jdir = (it + 1) % 2;
-
-								if (jdir == 0) {
-									mse1 = kse1 + jgap;
-									mse2 = kse2;
-								} else {
-									mse1 = kse1;
-									mse2 = kse2 + jgap;
-								}
-
-								if (mse1 > nse1 - winSize - 1)
-									continue itLoop;
-								if (mse2 > nse2 - winSize - 1)
-									continue itLoop;
-
-								if (mat[mse1][mse2] < 0.0)
-									continue itLoop;
-								if (mat[mse1][mse2] > rmsdThr)
-									continue itLoop;
-								if (mat[mse1][mse2] > userRMSDMax)
-									continue itLoop;
-
-								nTraces++;
-								if (nTraces > tracesLimit) {
-
-									return;
-								}
-
-								score = 0.0;
-
-								// if(!distAll) {
-								// System.out.println("getting score " + mse1 +
-								// " " + mse2 + " " + winSize + " " + jgap + " "
-								// + jdir + " " + it + " " + kse1 + " " + kse2);
-								score = getScoreFromDistanceMatrices(mse1,
-										mse2, winSize);
-								// System.out.println("got score: " + score);
-								score1 = score / (nTrace * winSize);
-
-								// } else {
-								// // all dist
-								// for(int itrace=0; itrace<nTrace; itrace++) {
-								// for(int is1=0; is1<winSize; is1++)
-								// for(int is2=0; is2<winSize; is2++)
-								// score+=Math.abs(dist1[trace1[itrace]+is1][mse1+is2]-
-								// dist2[trace2[itrace]+is1][mse2+is2]);
-								// }
-								// score1=score/(nTrace*winSize*winSize);
-								// }
-
-								// System.out.println("up: " + nTrace + " " +
-								// score + " " + score0 + " " + score1 + " " +
-								// winSize + " " + traceIndex_ + " " + it +
-								// " ");
-								if (score1 > rmsdThrJoin)
-									continue itLoop;
-								if (score1 > userRMSDMax)
-									continue itLoop;
-
-								double angle = checkAngle(mse1, mse2, points1, points2,
-										winSize);
-								if (angle < MIN_ANGLE)
-									continue itLoop;
-
-								score2 = score1;
-
-								// this just got checked, no need to check
-								// again..
-								// if(score2>rmsdThrJoin)
-								// continue itLoop;
-
-								if (nTrace > nBestExtTrace
-										|| (nTrace == nBestExtTrace && score2 < bestExtScore)) {
-									// System.out.println("setting traceindex to "
-									// + it + " " + score2);
-									bestExtScore = score2;
-									nBestExtTrace = nTrace;
-									traceIndex_ = it;
-									traceScore[nTrace - 1][traceIndex_] = score1;
-								}
-
-							}
-						}
-
-						if (traceIndex_ != -1) {
-							jgap = (traceIndex_ + 1) / 2;
-							jdir = (traceIndex_ + 1) % 2;
-							if (jdir == 0) {
-								jse1 = kse1 + jgap;
-								jse2 = kse2;
-							} else {
-								jse1 = kse1;
-								jse2 = kse2 + jgap;
-							}
-
-							if (iter == 0) {
-
-								score1 = (traceScore[nTrace - 1][traceIndex_]
-										* winSizeComb2 * nTrace + mat[jse1][jse2]
-										* winSizeComb1)
-										/ (winSizeComb2 * nTrace + winSizeComb1);
-
-								score2 = getScore2(jse1, jse2, traceScore,
-										traceIndex_, traceIndex, winSizeComb1,
-										winSizeComb2, score0, score1);
-
-								if (score2 > rmsdThrJoin)
-									traceIndex_ = -1;
-								else if (score2 > userRMSDMax)
-									traceIndex_ = -1;
-								else {
-									traceScore[nTrace - 1][traceIndex_] = score2;
-
-									traceTotalScore = score2;
-								}
-
-							} else {
-								if (traceScoreMax > rmsdThrJoin
-										&& nBestTrace >= nBestTrace0)
-									traceIndex_ = -1;
-								traceTotalScore = traceScoreMax;
-							}
-						}
-
-						// System.out.println("middle: " + nTrace + " " + score
-						// + " " + score0 + " " + score1 + "  " + score2 + " " +
-						// traceIndex_);
-
-						if (traceIndex_ == -1) {
-							// System.out.println("continue traceLoop " +
-							// nTrace);
-							// if(iterLevel==1) break;
-							nTrace--;
-							isTraceUp = false;
-							continue traceLoop;
-						} else {
-							traceIterLevel[nTrace - 1]++;
-							trace1[nTrace] = jse1;
-							trace2[nTrace] = jse2;
-							traceIndex[nTrace] = traceIndex_;
-							traceIterLevel[nTrace] = 0;
-							nTrace++;
-							isTraceUp = true;
-
-							if (nTrace > nBestTrace
-									|| (nTrace == nBestTrace && bestTraceScore > traceTotalScore)) {
-
-								for (int itrace = 0; itrace < nTrace; itrace++) {
-									bestTrace1[itrace] = trace1[itrace];
-									bestTrace2[itrace] = trace2[itrace];
-								}
-								bestTraceScore = traceTotalScore;
-								nBestTrace = nTrace;
-							}
-
-							if (iter == 0) {
-								// System.out.println("doing iter0 " +
-								// newBestTrace + " " + traceTotalScore + " " +
-								// bestTracesMax);
-								newBestTrace = doIter0(newBestTrace,
-										traceTotalScore, bestTracesMax);
-
-							}
-						}
-					}
+			stats.iterationRun();
+			boolean completed;
+			if (iter == 0 && parallelism > 1)
+				completed = traceSeedsParallel();
+			else
+				completed = traceSeeds(iter, ise11, ise12, ise21, ise22,
+						nBestTrace0);
+			if (!completed) {
+				truncated = true;
+				// CE stops with the traces of the current iteration
+				if (!budget.isDefault()
+						&& (lastBestTrace1.length > nBestTrace
+								|| (lastBestTrace1.length == nBestTrace
+										&& lastBestTraceScore < bestTraceScore))) {
+					nBestTrace = lastBestTrace1.length;
+					System.arraycopy(lastBestTrace1, 0, bestTrace1, 0,
+							nBestTrace);
+					System.arraycopy(lastBestTrace2, 0, bestTrace2, 0,
+							nBestTrace);
+					bestTraceScore = lastBestTraceScore;
 				}
+				return;
 			}
 
 			if (isPrint) {
 				System.out.println("fragment length: " + params.getWinSize());
 				System.out.println("ntraces : " + nTraces);
+				System.out.println("angle cache : " + angleCache);
+				System.out.println("search : " + stats);
 			}
 
 		}
@@ -441,49 +429,737 @@ public class CESymmCalculator extends CECalculator {
 		if (params.isShowAFPRanges()) {
 			System.out.println("fragment length: " + params.getWinSize());
 			System.out.println("ntraces : " + nTraces);
+			System.out.println("angle cache : " + angleCache);
+			System.out.println("search : " + stats);
+		}
 
+	}
+
+	/**
+	 * Copies the fragment matrix to the layout of the trace search, or
+	 * calculates it from the distance matrices if it was not set. After a
+	 * copy, the fragment matrix of the CECalculator is released, except for
+	 * the {@link FragmentMatrix.Storage#DENSE} layout, which reads it.
+	 */
+	private FragmentMatrix createFragmentMatrix(int nse1, int nse2) {
+
+		// Only the fragment pairs under both thresholds can be used
+		double threshold = Math.min(params.getRmsdThr(),
+				params.getMaxOptRMSD());
+
+		if (mat != null) {
+			FragmentMatrix copy;
+			if (storage == FragmentMatrix.Storage.SYMMETRIC)
+				copy = new SymmetricFragmentMatrix(mat, getDiagonalBand());
+			else
+				copy = storage.create(mat, threshold);
+			if (storage != FragmentMatrix.Storage.DENSE)
+				mat = null;
+			return copy;
 		}
 
+		int winSize = params.getWinSize();
+		int band = nse1 == nse2 ? getDiagonalBand() : 0;
+		switch (storage) {
+		case FLAT:
+			return FlatFragmentMatrix.compute(getDist1(), getDist2(), winSize,
+					band);
+		case FLAT_FLOAT:
+			return FloatFragmentMatrix.compute(getDist1(), getDist2(),
+					winSize, band);
+		case SYMMETRIC:
+		case SPARSE:
+			if (nse1 != nse2)
+				throw new IllegalArgumentException(
+						"Only the fragment matrix of a self-alignment can be calculated");
+			if (storage == FragmentMatrix.Storage.SYMMETRIC)
+				return SymmetricFragmentMatrix.compute(getDist1(), winSize,
+						band);
+			return SparseFragmentMatrix.compute(getDist1(), winSize, band,
+					threshold);
+		default:
+			throw new IllegalStateException(
+					"The fragment matrix has not been calculated");
+		}
 	}
 
 	/**
-	 * do a SVN of the AFPs at positions mse1, mse2. Returns the rotation angle
-	 * between the AFPs
+	 * Runs the trace search on every coarseStep-th residue and restricts the
+	 * fragment matrix to bands around the coarse traces. The scores are read
+	 * once from a {@link KernelFragmentMatrix}, which calculates them, and
+	 * copied for the bands only; any other matrix is read through the bands.
 	 * 
-	 * @param mse1
-	 * @param mse2
-	 * @param ca1
-	 * @param ca2
-	 * @param winSize
-	 * @return
+	 * @param scores
+	 *            scores of the fragment pairs at full resolution
+	 * @return the restricted fragment matrix, or null if the structures are
+	 *         too short or the coarse search found no trace
 	 */
-	private double checkAngle(int mse1, int mse2, Point3d[] ca1, Point3d[] ca2,
-			int winSize) {
+	private FragmentMatrix restrictToCoarseTraces(AFPChain afpChain,
+			Atom[] ca1, Atom[] ca2, FragmentMatrix scores) {
+
+		int step = coarseStep;
+		int winSize = params.getWinSize();
+		int coarseWinSize = Math.max(3, (winSize + step - 1) / step);
+		int nse1 = (ca1.length + step - 1) / step;
+		int nse2 = (ca2.length + step - 1) / step;
+		if (Math.min(nse1, nse2) < 3 * coarseWinSize)
+			return null;
+
+		// The fragments of the coarse search start at the same residues
+		Atom[] coarse1 = new Atom[nse1];
+		Atom[] coarse2 = new Atom[nse2];
+		for (int i = 0; i < nse1; i++)
+			coarse1[i] = ca1[i * step];
+		for (int j = 0; j < nse2; j++)
+			coarse2[j] = ca2[j * step];
+		double[][] coarseMat = new double[nse1][nse2];
+		for (int i = 0; i < nse1; i++) {
+			for (int j = 0; j < nse2; j++)
+				coarseMat[i][j] = scores.get(i * step, j * step);
+		}
+		double[][] coarseDist1 = subsample(getDist1(), step);
+		double[][] coarseDist2 = getDist2() == getDist1() ? coarseDist1
+				: subsample(getDist2(), step);
+
+		CeParameters coarseParams = new CeParameters();
+		coarseParams.setWinSize(coarseWinSize);
+		coarseParams.setRmsdThr(params.getRmsdThr());
+		coarseParams.setRmsdThrJoin(params.getRmsdThrJoin());
+		coarseParams.setMaxOptRMSD(params.getMaxOptRMSD());
+		int maxGap = params.getMaxGapSize();
+		coarseParams.setMaxGapSize(maxGap > 0 ? (maxGap + step - 1) / step
+				: maxGap);
+
+		CESymmCalculator coarse = new CESymmCalculator(coarseParams);
+		coarse.setMatMatrix(coarseMat);
+		coarse.setDist1(coarseDist1);
+		coarse.setDist2(coarseDist2);
+		coarse.setParallelism(parallelism);
+		coarse.setTraceBudget(budget);
+		coarse.traceFragmentMatrix(afpChain, coarse1, coarse2);
+		angleCache.addCounts(coarse.angleCache);
+		stats.addCounts(coarse.stats);
+		if (coarse.nBestTrace == 0)
+			return null;
+
+		// Blocks of the best trace and of the alternative traces
+		int blocks = coarse.nBestTrace;
+		for (int t = 0; t < coarse.nBestTraces; t++)
+			blocks += coarse.bestTracesN[t];
+		int[] starts1 = new int[blocks];
+		int[] starts2 = new int[blocks];
+		int[] lengths = new int[blocks];
+		int b = 0;
+		for (int k = 0; k < coarse.nBestTrace; k++, b++) {
+			starts1[b] = coarse.bestTrace1[k] * step;
+			starts2[b] = coarse.bestTrace2[k] * step;
+			lengths[b] = coarseWinSize * step;
+		}
+		for (int t = 0; t < coarse.nBestTraces; t++) {
+			for (int k = 0; k < coarse.bestTracesN[t]; k++, b++) {
+				starts1[b] = coarse.bestTraces1[t][k] * step;
+				starts2[b] = coarse.bestTraces2[t][k] * step;
+				lengths[b] = coarseWinSize * step;
+			}
+		}
+		if (scores instanceof KernelFragmentMatrix)
+			return BandedFragmentMatrix.copyOf(scores, starts1, starts2,
+					lengths, getCoarseBand());
+		return new BandedFragmentMatrix(scores, starts1, starts2, lengths,
+				getCoarseBand());
+	}
+
+	/**
+	 * @return the distances between every step-th residue
+	 */
+	private static double[][] subsample(double[][] dist, int step) {
+		int n1 = (dist.length + step - 1) / step;
+		int n2 = dist.length == 0 ? 0 : (dist[0].length + step - 1) / step;
+		double[][] coarse = new double[n1][n2];
+		for (int i = 0; i < n1; i++) {
+			for (int j = 0; j < n2; j++)
+				coarse[i][j] = dist[i * step][j * step];
+		}
+		return coarse;
+	}
+
+	/**
+	 * Extends the traces from the seeds (ise1, ise2) in the given ranges and
+	 * updates the best traces.
+	 * 
+	 * @return false if the limit of traces was reached, true otherwise
+	 */
+	private boolean traceSeeds(int iter, int ise11, int ise12, int ise21,
+			int ise22, int nBestTrace0) {
+
+		double rmsdThr = params.getRmsdThr();
+		int winSize = params.getWinSize();
+		int winSizeComb1 = (winSize - 1) * (winSize - 2) / 2;
+		boolean distAll = false;
+
+		int winSizeComb2 = distAll ? winSize * winSize : winSize;
+		double rmsdThrJoin = params.getRmsdThrJoin();
+
+		int nse1 = coords1.length / 3;
+		int nse2 = coords2.length / 3;
+
+		int ise1;
+		int ise2;
+
+		double score = -1;
+		double score0 = -1;
+		double score1 = -1;
+		double score2 = -1;
+
+		int mse1;
+		int mse2;
+		int jgap;
+		int jdir;
+		int jse1 = 0;
+		int jse2 = 0;
+
+		double traceTotalScore = 0;
+		double traceScoreMax = 0;
+		double userRMSDMax = params.getMaxOptRMSD();
+		int kse1;
+		int kse2;
+
+		// System.out.println("ise1Loop: " + ise11 + " " + ise12 + " " +
+		// ise21 + " " + ise22);
+		//ise1Loop:
+		for (int ise1_ = ise11; ise1_ < ise12; ise1_++) {
+			checkInterrupted();
+			if (isOutOfTime())
+				return false;
+			ise2Loop: for (int ise2_ = ise21; ise2_ < ise22; ise2_++) {
+
+				ise1 = ise1_;
+				ise2 = ise2_;
+				if (iter > 1 && ise1 == ise11 + 1 && ise2 == ise21 + 1)
+					continue ise2Loop;
+
+				// if(ise2==ise21)
+				// System.out.println(String.format("(%d, %d)",ise1,
+				// nTraces));
+
+				if (iter == 0
+						&& (ise1 > nse1 - winSize * (nBestTrace - 1) || ise2 > nse2
+								- winSize * (nBestTrace - 1)))
+					continue ise2Loop;
+
+				stats.seedVisited();
+				double seedScore = fragments.get(ise1, ise2);
+				if (seedScore < 0.0)
+					continue ise2Loop;
+				if (seedScore > rmsdThr || seedScore > userRMSDMax) {
+					stats.seedPruned();
+					continue ise2Loop;
+				}
+				nTrace = 0;
+				trace1[nTrace] = ise1;
+				trace2[nTrace] = ise2;
+				traceIndex[nTrace] = 0;
+				traceIterLevel[nTrace] = 0;
+
+				score0 = seedScore;
+
+				nTrace++;
+				boolean isTraceUp = true;
+				int traceIndex_ = 0;
+
+				traceLoop: while (nTrace > 0) {
+
+					kse1 = trace1[nTrace - 1] + winSize;
+					kse2 = trace2[nTrace - 1] + winSize;
+
+					// System.out.println("isTraceUp " + isTraceUp + " " +
+					// nTrace + " " + kse1 + " " + kse2);
+
+					while (true) {
+						if (kse1 > nse1 - winSize - 1)
+							break;
+						if (kse2 > nse2 - winSize - 1)
+							break;
+						if (fragments.get(kse1, kse2) >= 0.0)
+							break;
+						kse1++;
+						kse2++;
+					}
+
+					traceIndex_ = -1;
+
+					if (isTraceUp) {
+
+						int nBestExtTrace = nTrace;
+						double bestExtScore = 100.0;
+
+						// extension of the alignment path
+						// condition 4, 5
+						itLoop: for (int it = 0; it < iterDepth; it++) {
+
+							jgap = (it + 1) / 2;
+							jdir = (it + 1) % 2;
+
+							if (jdir == 0) {
+								mse1 = kse1 + jgap;
+								mse2 = kse2;
+							} else {
+								mse1 = kse1;
+								mse2 = kse2 + jgap;
+							}
+
+							if (mse1 > nse1 - winSize - 1)
+								continue itLoop;
+							if (mse2 > nse2 - winSize - 1)
+								continue itLoop;
+
+							stats.extensionAttempted();
+							double extScore = fragments.get(mse1, mse2);
+							if (extScore < 0.0)
+								continue itLoop;
+							if (extScore > rmsdThr)
+								continue itLoop;
+							if (extScore > userRMSDMax)
+								continue itLoop;
+
+							nTraces++;
+							stats.traceEvaluated();
+							if (budget.isTracesExceeded(nTraces)) {
+
+								return false;
+							}
+							if (nTraces % INTERRUPT_CHECK_INTERVAL == 0) {
+								checkInterrupted();
+								if (isOutOfTime())
+									return false;
+							}
+
+							score = 0.0;
+
+							// if(!distAll) {
+							// System.out.println("getting score " + mse1 +
+							// " " + mse2 + " " + winSize + " " + jgap + " "
+							// + jdir + " " + it + " " + kse1 + " " + kse2);
+							score = getScoreFromDistanceMatrices(mse1,
+									mse2, winSize);
+							// System.out.println("got score: " + score);
+							score1 = score / (nTrace * winSize);
+
+							// } else {
+							// // all dist
+							// for(int itrace=0; itrace<nTrace; itrace++) {
+							// for(int is1=0; is1<winSize; is1++)
+							// for(int is2=0; is2<winSize; is2++)
+							// score+=Math.abs(dist1[trace1[itrace]+is1][mse1+is2]-
+							// dist2[trace2[itrace]+is1][mse2+is2]);
+							// }
+							// score1=score/(nTrace*winSize*winSize);
+							// }
+
+							// System.out.println("up: " + nTrace + " " +
+							// score + " " + score0 + " " + score1 + " " +
+							// winSize + " " + traceIndex_ + " " + it +
+							// " ");
+							if (score1 > rmsdThrJoin)
+								continue itLoop;
+							if (score1 > userRMSDMax)
+								continue itLoop;
+
+							stats.angleChecked();
+							double angle = angleCache.getAngle(mse1, mse2);
+							if (angle < MIN_ANGLE_RAD)
+								continue itLoop;
+
+							score2 = score1;
+
+							// this just got checked, no need to check
+							// again..
+							// if(score2>rmsdThrJoin)
+							// continue itLoop;
+
+							if (nTrace > nBestExtTrace
+									|| (nTrace == nBestExtTrace && score2 < bestExtScore)) {
+								// System.out.println("setting traceindex to "
+								// + it + " " + score2);
+								bestExtScore = score2;
+								nBestExtTrace = nTrace;
+								traceIndex_ = it;
+								traceScore[nTrace - 1][traceIndex_] = score1;
+							}
+
+						}
+					}
+
+					if (traceIndex_ != -1) {
+						jgap = (traceIndex_ + 1) / 2;
+						jdir = (traceIndex_ + 1) % 2;
+						if (jdir == 0) {
+							jse1 = kse1 + jgap;
+							jse2 = kse2;
+						} else {
+							jse1 = kse1;
+							jse2 = kse2 + jgap;
+						}
+
+						if (iter == 0) {
+
+							score1 = (traceScore[nTrace - 1][traceIndex_]
+									* winSizeComb2 * nTrace
+									+ fragments.get(jse1, jse2)
+									* winSizeComb1)
+									/ (winSizeComb2 * nTrace + winSizeComb1);
+
+							score2 = getScore2(jse1, jse2, traceScore,
+									traceIndex_, traceIndex, winSizeComb1,
+									winSizeComb2, score0, score1);
+
+							if (score2 > rmsdThrJoin)
+								traceIndex_ = -1;
+							else if (score2 > userRMSDMax)
+								traceIndex_ = -1;
+							else {
+								traceScore[nTrace - 1][traceIndex_] = score2;
+
+								traceTotalScore = score2;
+							}
+
+						} else {
+							if (traceScoreMax > rmsdThrJoin
+									&& nBestTrace >= nBestTrace0)
+								traceIndex_ = -1;
+							traceTotalScore = traceScoreMax;
+						}
+					}
+
+					// System.out.println("middle: " + nTrace + " " + score
+					// + " " + score0 + " " + score1 + "  " + score2 + " " +
+					// traceIndex_);
+
+					if (traceIndex_ == -1) {
+						// System.out.println("continue traceLoop " +
+						// nTrace);
+						// if(iterLevel==1) break;
+						nTrace--;
+						isTraceUp = false;
+						continue traceLoop;
+					} else {
+						traceIterLevel[nTrace - 1]++;
+						trace1[nTrace] = jse1;
+						trace2[nTrace] = jse2;
+						traceIndex[nTrace] = traceIndex_;
+						traceIterLevel[nTrace] = 0;
+						nTrace++;
+						isTraceUp = true;
+
+						if (seedTraces != null) {
+							// Parallel seeds: keep the trace for the merge
+							seedTraces.add(trace1, trace2, nTrace,
+									traceTotalScore);
+							if (nTrace > nBestTrace)
+								nBestTrace = nTrace;
+						} else
+							updateBestTraces(iter, traceTotalScore);
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Keeps the current trace if it is the best, and among the alternative
+	 * traces in the first iteration.
+	 */
+	private void updateBestTraces(int iter, double traceTotalScore) {
+
+		if (nTrace > nBestTrace
+				|| (nTrace == nBestTrace && bestTraceScore > traceTotalScore)) {
+
+			for (int itrace = 0; itrace < nTrace; itrace++) {
+				bestTrace1[itrace] = trace1[itrace];
+				bestTrace2[itrace] = trace2[itrace];
+			}
+			bestTraceScore = traceTotalScore;
+			nBestTrace = nTrace;
+		}
+
+		if (iter == 0) {
+			// System.out.println("doing iter0 " +
+			// newBestTrace + " " + traceTotalScore + " " +
+			// bestTracesMax);
+			newBestTrace = doIter0(newBestTrace, traceTotalScore,
+					BEST_TRACES_MAX);
+
+		}
+	}
+
+	private void allocateTraceBuffers(int traceMaxSize) {
+		trace1 = new int[traceMaxSize];
+		trace2 = new int[traceMaxSize];
+		traceIndex = new int[traceMaxSize];
+		traceIterLevel = new int[traceMaxSize];
+
+		int gapMax = params.getMaxGapSize();
+		if (gapMax > 0) {
+			iterDepth = gapMax * 2 + 1;
+		} else {
+			iterDepth = traceMaxSize;
+		}
+		traceScore = new double[traceMaxSize][iterDepth];
+	}
+
+	/**
+	 * Explores the seeds of the first iteration in a fork/join pool. The
+	 * threads take the seed rows in increasing order and extend the traces
+	 * with their own buffers, and keep only the traces that the sequential
+	 * search could keep ({@link SeedTraces}). These are then replayed in the
+	 * order of the sequential search, so that the best trace is the same as
+	 * with a single thread, and the alternative traces too, unless several
+	 * traces have the same length and score as the worst of them.
+	 * <p>
+	 * Seeds too close to the end of the matrix to beat the best trace are
+	 * skipped as in the sequential search, with the longest trace found so far
+	 * in the previous rows. This is never longer than the best trace of the
+	 * sequential search at the same seed, so the threads explore all the seeds
+	 * of the sequential search, and the replay skips the others. The budget
+	 * of traces applies to all the traces extended by the threads.
+	 * 
+	 * @return false if the limit of traces was reached, true otherwise
+	 */
+	private boolean traceSeedsParallel() {
+
+		int nse1 = coords1.length / 3;
+		int nse2 = coords2.length / 3;
+		int winSize = params.getWinSize();
+		SeedRowQueue rows = new SeedRowQueue(nse1, nse2);
+
+		List<CESymmCalculator> workers = new ArrayList<CESymmCalculator>();
+		for (int t = 0; t < parallelism; t++) {
+			CESymmCalculator w = new CESymmCalculator(params);
+			w.fragments = fragments;
+			w.setDist1(getDist1());
+			w.setDist2(getDist2());
+			w.coords1 = coords1;
+			w.coords2 = coords2;
+			w.angleCache = new FragmentAngleCache(coords1, coords2, winSize);
+			w.stats = new TraceSearchStats();
+			w.allocateTraceBuffers(trace1.length);
+			w.seedTraces = new SeedTraces(BEST_TRACES_MAX);
+			w.budget = budget;
+			w.deadline = deadline;
+			w.nTraces = 0;
+			workers.add(w);
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
 		try {
-			// length of next window
-			// TODO Doesn't the -1 skip the last residue? -Spencer 2018-12-27
-			int max1 = Math.min(ca1.length - mse1 - 1, winSize);
-			int max2 = Math.min(ca2.length - mse2 - 1, winSize);
-			int maxAtoms = Math.min(max1, max2);
-
-			// Extract fragments
- 			Point3d[] cod1 = new Point3d[maxAtoms];
-			Point3d[] cod2 = new Point3d[maxAtoms];
-			for(int i=0;i<maxAtoms;i++) {
-				cod1[i] = ca1[mse1+i];
-				cod2[i] = ca2[mse2+i];
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (CESymmCalculator w : workers)
+				futures.add(pool.submit(new SeedRows(w, rows)));
+			for (Future<Void> future : futures)
+				future.get();
+		} catch (InterruptedException e) {
+			rows.stopped.set(true);
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Trace search interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+
+		List<SeedTraces.Trace> traces = new ArrayList<SeedTraces.Trace>();
+		for (CESymmCalculator w : workers) {
+			traces.addAll(w.seedTraces.getTraces());
+			angleCache.addCounts(w.angleCache);
+			stats.addCounts(w.stats);
+		}
+		Collections.sort(traces, SeedTraces.SEARCH_ORDER);
+
+		// Replay the traces of the seeds of the sequential search
+		boolean skipped = false;
+		for (int t = 0; t < traces.size(); t++) {
+			SeedTraces.Trace trace = traces.get(t);
+			if (t == 0 || trace.ise1 != traces.get(t - 1).ise1
+					|| trace.ise2 != traces.get(t - 1).ise2)
+				skipped = trace.ise1 > nse1 - winSize * (nBestTrace - 1)
+						|| trace.ise2 > nse2 - winSize * (nBestTrace - 1);
+			if (skipped)
+				continue;
+			nTrace = trace.length();
+			System.arraycopy(trace.trace1, 0, trace1, 0, nTrace);
+			System.arraycopy(trace.trace2, 0, trace2, 0, nTrace);
+			updateBestTraces(0, trace.score);
+		}
+		nTraces += rows.traces.get();
+
+		return !rows.limitReached.get();
+	}
+
+	/**
+	 * Seed rows of the first iteration, shared by the threads of a parallel
+	 * search.
+	 */
+	private static class SeedRowQueue {
+
+		final int nse1;
+		final int nse2;
+		final AtomicInteger next = new AtomicInteger();
+		/** Longest trace found up to each row, 0 if not explored yet */
+		final AtomicIntegerArray rowBest;
+		final AtomicLong traces = new AtomicLong();
+		final AtomicBoolean stopped = new AtomicBoolean();
+		final AtomicBoolean limitReached = new AtomicBoolean();
+
+		SeedRowQueue(int nse1, int nse2) {
+			this.nse1 = nse1;
+			this.nse2 = nse2;
+			this.rowBest = new AtomicIntegerArray(nse1);
+		}
+
+		/**
+		 * @return the longest trace found so far in the rows before the row
+		 */
+		int bestBefore(int row) {
+			int best = 0;
+			for (int i = 0; i < row; i++)
+				best = Math.max(best, rowBest.get(i));
+			return best;
+		}
+	}
+
+	/**
+	 * Fork/join task of one thread, that takes seed rows of the first
+	 * iteration until there are none left.
+	 */
+	private static class SeedRows extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final CESymmCalculator worker;
+		private final SeedRowQueue rows;
+
+		SeedRows(CESymmCalculator worker, SeedRowQueue rows) {
+			this.worker = worker;
+			this.rows = rows;
+		}
+
+		@Override
+		protected void compute() {
+			int ise1;
+			while (!rows.stopped.get()
+					&& (ise1 = rows.next.getAndIncrement()) < rows.nse1) {
+				worker.nBestTrace = rows.bestBefore(ise1);
+				long before = worker.nTraces;
+				boolean completed = worker.traceSeeds(0, ise1, ise1 + 1, 0,
+						rows.nse2, 0);
+				rows.rowBest.set(ise1, worker.nBestTrace);
+				long total = rows.traces.addAndGet(worker.nTraces - before);
+				if (!completed || worker.budget.isTracesExceeded(total)) {
+					rows.limitReached.set(true);
+					rows.stopped.set(true);
+					return;
+				}
 			}
+		}
+	}
+
+	/**
+	 * Returns the cache of the fragment pair angles of the last trace search,
+	 * with the number of hits and misses.
+	 * 
+	 * @return the angle cache, or null before the first trace search
+	 */
+	public FragmentAngleCache getAngleCache() {
+		return angleCache;
+	}
+
+	/**
+	 * Returns the counts of the seeds, extensions, angle checks, traces and
+	 * iterations of the last trace search.
+	 * 
+	 * @return the counters, or null before the first trace search
+	 */
+	public TraceSearchStats getSearchStats() {
+		return stats;
+	}
+
+	/**
+	 * @return the fragment matrix of the last trace search, in the layout of
+	 *         {@link #getMatrixStorage()}, or null before the first search
+	 */
+	public FragmentMatrix getFragmentMatrix() {
+		return fragments;
+	}
+
+	/**
+	 * @return the best trace of the last search, as the fragment positions in
+	 *         the first and the second structure
+	 */
+	int[][] getBestTrace() {
+		return new int[][] { Arrays.copyOf(bestTrace1, nBestTrace),
+				Arrays.copyOf(bestTrace2, nBestTrace) };
+	}
 
-			Matrix4d transform = SuperPositions.superpose(cod1, cod2);
+	/**
+	 * @return the alternative traces of the first iteration of the last
+	 *         search, each as the fragment positions in the first and the
+	 *         second structure
+	 */
+	int[][][] getBestTraces() {
+		int[][][] traces = new int[nBestTraces][][];
+		for (int t = 0; t < nBestTraces; t++)
+			traces[t] = new int[][] {
+					Arrays.copyOf(bestTraces1[t], bestTracesN[t]),
+					Arrays.copyOf(bestTraces2[t], bestTracesN[t]) };
+		return traces;
+	}
 
-			double ang = RotationAxis.getAngle(transform);
+	/**
+	 * @return true if the time budget of the search has run out
+	 */
+	private boolean isOutOfTime() {
+		return deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0;
+	}
 
-			return ang;
+	/**
+	 * Abort the calculation if the thread has been interrupted. The
+	 * interrupted status is kept, so that the caller can also detect it.
+	 * 
+	 * @throws CancellationException
+	 */
+	private static void checkInterrupted() {
+		if (Thread.currentThread().isInterrupted())
+			throw new CancellationException("Trace search interrupted");
+	}
 
-		} catch (Exception e) {
-			e.printStackTrace();
+	/**
+	 * Superimpose the AFPs at positions mse1, mse2. Returns the rotation angle
+	 * between the AFPs, in radians. No memory is allocated.
+	 * 
+	 * @param mse1
+	 * @param mse2
+	 * @param coords1
+	 *            flat coordinates of ca1
+	 * @param coords2
+	 *            flat coordinates of ca2
+	 * @param winSize
+	 * @return
+	 */
+	static double checkAngle(int mse1, int mse2, double[] coords1,
+			double[] coords2, int winSize) {
+		// length of next window
+		// TODO Doesn't the -1 skip the last residue? -Spencer 2018-12-27
+		int max1 = Math.min(coords1.length / 3 - mse1 - 1, winSize);
+		int max2 = Math.min(coords2.length / 3 - mse2 - 1, winSize);
+		int maxAtoms = Math.min(max1, max2);
+		if (maxAtoms < 1)
 			return 0d;
-		}
+
+		return SuperpositionAngle.getAngle(coords1, mse1, coords2, mse2,
+				maxAtoms);
 	}
 
 }
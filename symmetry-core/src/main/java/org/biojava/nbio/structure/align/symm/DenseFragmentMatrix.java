@@ -0,0 +1,41 @@
+package org.biojava.nbio.structure.align.symm;
+
+/**
+ * Fragment matrix stored as the array of arrays of the CECalculator. The
+ * matrix is not copied.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class DenseFragmentMatrix implements FragmentMatrix {
+
+	private final double[][] mat;
+	private final int cols;
+
+	public DenseFragmentMatrix(double[][] mat) {
+		this.mat = mat;
+		this.cols = mat.length == 0 ? 0 : mat[0].length;
+	}
+
+	@Override
+	public int getRows() {
+		return mat.length;
+	}
+
+	@Override
+	public int getCols() {
+		return cols;
+	}
+
+	@Override
+	public double get(int i, int j) {
+		return mat[i][j];
+	}
+
+	@Override
+	public long getSizeInBytes() {
+		// Array headers and references of the rows
+		return 16L + 8L * mat.length + mat.length * (16L + 8L * cols);
+	}
+
+}
@@ -0,0 +1,106 @@
+package org.biojava.nbio.structure.align.symm;
+
+/**
+ * Fragment matrix stored in a single contiguous array of doubles, row by row,
+ * so that neighbouring fragment pairs are close in memory and there is no
+ * indirection through the row arrays.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class FlatFragmentMatrix implements FragmentMatrix {
+
+	private final double[] values;
+	private final int rows;
+	private final int cols;
+
+	/**
+	 * Copies the matrix.
+	 * 
+	 * @param mat
+	 *            fragment matrix of the CECalculator
+	 */
+	public FlatFragmentMatrix(double[][] mat) {
+		this(mat.length, mat.length == 0 ? 0 : mat[0].length);
+		for (int i = 0; i < rows; i++)
+			System.arraycopy(mat[i], 0, values, i * cols, cols);
+	}
+
+	private FlatFragmentMatrix(int rows, int cols) {
+		if ((long) rows * cols > Integer.MAX_VALUE)
+			throw new IllegalArgumentException(
+					"Too many fragment pairs for a flat matrix: " + rows + "x"
+							+ cols);
+		this.rows = rows;
+		this.cols = cols;
+		values = new double[rows * cols];
+	}
+
+	/**
+	 * Calculates the fragment matrix from the distance matrices of the
+	 * structures, without building the array of arrays of the CECalculator.
+	 * The score of a fragment pair is the mean absolute difference of the
+	 * distances within the fragments, as in CE.
+	 * 
+	 * @param dist1
+	 *            distance matrix of the first structure
+	 * @param dist2
+	 *            distance matrix of the second structure
+	 * @param winSize
+	 *            fragment length
+	 * @param band
+	 *            fragment pairs (i, j) with |i - j| &lt; band are excluded,
+	 *            for self-alignments, or 0
+	 * @return the fragment matrix
+	 */
+	public static FlatFragmentMatrix compute(double[][] dist1, double[][] dist2,
+			int winSize, int band) {
+
+		int n1 = dist1.length;
+		int n2 = dist2.length;
+		int winSizeComb1 = FragmentKernel.getDistancesPerFragment(winSize);
+		FragmentKernel kernel = FragmentKernel.getInstance(winSize);
+		double[] table1 = FragmentKernel.intraFragmentDistances(dist1, winSize);
+		double[] table2 = dist2 == dist1 ? table1 : FragmentKernel
+				.intraFragmentDistances(dist2, winSize);
+		FlatFragmentMatrix matrix = new FlatFragmentMatrix(n1, n2);
+		double[] values = matrix.values;
+
+		for (int i = 0; i < n1; i++) {
+			int offset = i * n2;
+			for (int j = 0; j < n2; j++) {
+				if (Math.abs(i - j) < band || i > n1 - winSize
+						|| j > n2 - winSize) {
+					values[offset + j] = -1;
+					continue;
+				}
+				// Sum of the distance differences of the fragments
+				double d = kernel.sumAbsDiff(table1, i * winSizeComb1, table2,
+						j * winSizeComb1, winSizeComb1);
+				values[offset + j] = d / winSizeComb1;
+			}
+		}
+		return matrix;
+	}
+
+	@Override
+	public int getRows() {
+		return rows;
+	}
+
+	@Override
+	public int getCols() {
+		return cols;
+	}
+
+	@Override
+	public double get(int i, int j) {
+		return values[i * cols + j];
+	}
+
+	@Override
+	public long getSizeInBytes() {
+		return 16L + 8L * values.length;
+	}
+
+}
@@ -0,0 +1,158 @@
+package org.biojava.nbio.structure.align.symm;
+
+import java.util.Arrays;
+
+/**
+ * Memoizes the rotation angles of the superpositions of fragment pairs during
+ * the trace search of one alignment, because the same pairs are superimposed
+ * from many seed positions and in every refinement iteration.
+ * <p>
+ * The angles are stored in an open addressing hash map with primitive keys
+ * (the pair of fragment start positions) and values, which only holds the
+ * pairs actually visited. The numbers of hits and misses are counted.
+ * <p>
+ * This class is not thread safe: each trace search uses its own instance.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public final class FragmentAngleCache {
+
+	private static final int INITIAL_CAPACITY = 1 << 10;
+
+	private final double[] coords1;
+	private final double[] coords2;
+	private final int nse2;
+	private final int winSize;
+
+	/** Keys are the pair index plus one, 0 marks an empty slot */
+	private long[] keys;
+	private double[] values;
+	private int size;
+	private int shift;
+
+	private long hits;
+	private long misses;
+
+	/**
+	 * @param coords1
+	 *            flat coordinates of the first structure
+	 * @param coords2
+	 *            flat coordinates of the second structure
+	 * @param winSize
+	 *            fragment length
+	 */
+	public FragmentAngleCache(double[] coords1, double[] coords2, int winSize) {
+		this.coords1 = coords1;
+		this.coords2 = coords2;
+		this.nse2 = coords2.length / 3;
+		this.winSize = winSize;
+		allocate(INITIAL_CAPACITY);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new double[capacity];
+		shift = Long.numberOfLeadingZeros(capacity - 1);
+	}
+
+	private int slot(long key) {
+		// Fibonacci hashing, the high bits are well mixed
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+	}
+
+	/**
+	 * Returns the rotation angle of the superposition of the fragments that
+	 * start at positions mse1 and mse2, calculating it only the first time.
+	 *
+	 * @param mse1
+	 * @param mse2
+	 * @return the angle, in radians
+	 */
+	public double getAngle(int mse1, int mse2) {
+		long key = (long) mse1 * nse2 + mse2 + 1;
+		int mask = keys.length - 1;
+		int i = slot(key);
+		while (keys[i] != 0) {
+			if (keys[i] == key) {
+				hits++;
+				return values[i];
+			}
+			i = (i + 1) & mask;
+		}
+
+		misses++;
+		double angle = CESymmCalculator.checkAngle(mse1, mse2, coords1,
+				coords2, winSize);
+		keys[i] = key;
+		values[i] = angle;
+		if (++size > keys.length / 2)
+			grow();
+		return angle;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		double[] oldValues = values;
+		allocate(keys.length * 2);
+		int mask = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] == 0)
+				continue;
+			int i = slot(oldKeys[j]);
+			while (keys[i] != 0)
+				i = (i + 1) & mask;
+			keys[i] = oldKeys[j];
+			values[i] = oldValues[j];
+		}
+	}
+
+	/**
+	 * Removes all the angles and resets the counters.
+	 */
+	public void clear() {
+		Arrays.fill(keys, 0);
+		size = 0;
+		hits = 0;
+		misses = 0;
+	}
+
+	/**
+	 * Adds the hits and misses of another cache, e.g. of a parallel worker.
+	 *
+	 * @param other
+	 */
+	void addCounts(FragmentAngleCache other) {
+		hits += other.hits;
+		misses += other.misses;
+	}
+
+	/**
+	 * @return the number of angles found in the cache
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of angles calculated
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the number of fragment pairs stored
+	 */
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		long total = hits + misses;
+		return String.format("%d angles, %d hits, %d misses (%.1f%% hits)",
+				size, hits, misses, total == 0 ? 0.0 : 100.0 * hits / total);
+	}
+
+}
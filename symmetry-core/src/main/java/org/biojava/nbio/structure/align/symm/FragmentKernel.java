@@ -0,0 +1,179 @@
+package org.biojava.nbio.structure.align.symm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Floating point kernel of the fragment matrix calculation: the score of a
+ * fragment pair is the mean absolute difference of the distances within the
+ * two fragments, as in CE. The distances within each fragment are first
+ * copied to a table of contiguous rows (see
+ * {@link #intraFragmentDistances(double[][], int)}), so that the score of a
+ * pair is a sum of absolute differences of two arrays.
+ * <p>
+ * {@link #getInstance()} returns a SIMD implementation with the Vector API
+ * ({@code jdk.incubator.vector}) when it is available, i.e. on JDK 17 or
+ * later with {@code --add-modules jdk.incubator.vector}, and otherwise the
+ * scalar implementation. The SIMD implementation is in the Java 17 version
+ * of the multi-release jar. The SIMD sums are in a different order, so the
+ * scores can differ from the scalar ones in the last bits.
+ * <p>
+ * The rows of short fragments are only a few vectors long, and the tail of
+ * the rows, shorter than a vector, is added by scalar code, so
+ * {@link #getInstance(int)} only returns the SIMD implementation if a row
+ * holds at least {@link #MIN_VECTORS_PER_ROW} vectors.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public abstract class FragmentKernel {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(FragmentKernel.class);
+
+	private static final String VECTOR_KERNEL = "org.biojava.nbio.structure.align.symm.VectorFragmentKernel";
+
+	/**
+	 * Minimum number of vectors in the row of a fragment to use the SIMD
+	 * implementation. With a fragment length of 8, 21 distances, 4 lanes are
+	 * faster than the scalar code and 8 lanes are slower.
+	 */
+	public static final int MIN_VECTORS_PER_ROW = 4;
+
+	private static final FragmentKernel SCALAR = new ScalarKernel();
+	private static final FragmentKernel INSTANCE = load();
+
+	private static FragmentKernel load() {
+		try {
+			Class<?> cls = Class.forName(VECTOR_KERNEL);
+			return (FragmentKernel) cls.getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+			logger.debug("Vector API kernel not found, using scalar code", e);
+		} catch (LinkageError e) {
+			// Compiled for a newer JDK, or the incubator module is missing
+			logger.debug("Vector API not available, using scalar code", e);
+		}
+		return SCALAR;
+	}
+
+	/**
+	 * @return the fastest kernel available in this JVM
+	 */
+	public static FragmentKernel getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @param winSize
+	 *            fragment length
+	 * @return the fastest kernel available in this JVM for the rows of
+	 *         {@link #getDistancesPerFragment(int)} values: the SIMD one only
+	 *         if a row holds at least {@link #MIN_VECTORS_PER_ROW} vectors
+	 */
+	public static FragmentKernel getInstance(int winSize) {
+		int rowLength = getDistancesPerFragment(winSize);
+		if (INSTANCE.getVectorLength() * MIN_VECTORS_PER_ROW <= rowLength)
+			return INSTANCE;
+		return SCALAR;
+	}
+
+	/**
+	 * @return the scalar kernel, available in every JVM
+	 */
+	public static FragmentKernel getScalar() {
+		return SCALAR;
+	}
+
+	/**
+	 * @param winSize
+	 *            fragment length
+	 * @return the number of distances of a fragment used in its score
+	 */
+	public static int getDistancesPerFragment(int winSize) {
+		return (winSize - 1) * (winSize - 2) / 2;
+	}
+
+	/**
+	 * Copies the distances within each fragment of a structure, between atoms
+	 * separated by at least two positions, to a table with a contiguous row
+	 * per fragment.
+	 * 
+	 * @param dist
+	 *            distance matrix of the structure
+	 * @param winSize
+	 *            fragment length
+	 * @return the table, of {@link #getDistancesPerFragment(int)} values for
+	 *         each of the length - winSize + 1 fragments
+	 */
+	public static double[] intraFragmentDistances(double[][] dist, int winSize) {
+		int nFragments = Math.max(0, dist.length - winSize + 1);
+		double[] table = new double[nFragments
+				* getDistancesPerFragment(winSize)];
+		int k = 0;
+		for (int i = 0; i < nFragments; i++) {
+			for (int is1 = 0; is1 < winSize - 2; is1++) {
+				double[] row = dist[i + is1];
+				for (int is2 = is1 + 2; is2 < winSize; is2++)
+					table[k++] = row[i + is2];
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Sum of the absolute differences of two ranges of values.
+	 * 
+	 * @param a
+	 * @param aOffset
+	 *            first index of the range of a
+	 * @param b
+	 * @param bOffset
+	 *            first index of the range of b
+	 * @param length
+	 *            number of values of the ranges
+	 * @return the sum of |a[aOffset + k] - b[bOffset + k]|
+	 */
+	public abstract double sumAbsDiff(double[] a, int aOffset, double[] b,
+			int bOffset, int length);
+
+	/**
+	 * @return the number of values added at once, 1 for the scalar kernel
+	 */
+	public abstract int getVectorLength();
+
+	/**
+	 * @return a short name of the implementation
+	 */
+	public abstract String getName();
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+
+	/**
+	 * Scalar implementation, which adds the differences in order.
+	 */
+	private static final class ScalarKernel extends FragmentKernel {
+
+		@Override
+		public double sumAbsDiff(double[] a, int aOffset, double[] b,
+				int bOffset, int length) {
+			double sum = 0.0;
+			for (int k = 0; k < length; k++)
+				sum += Math.abs(a[aOffset + k] - b[bOffset + k]);
+			return sum;
+		}
+
+		@Override
+		public int getVectorLength() {
+			return 1;
+		}
+
+		@Override
+		public String getName() {
+			return "scalar";
+		}
+	}
+
+}
@@ -0,0 +1,96 @@
+package org.biojava.nbio.structure.align.symm;
+
+/**
+ * Read-only storage of the fragment matrix of CE, the distance difference
+ * scores of all the fragment pairs, which the trace search reads in its inner
+ * loops. Negative values mark the fragment pairs that are not allowed.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public interface FragmentMatrix {
+
+	/**
+	 * @return the number of fragments of the first structure
+	 */
+	int getRows();
+
+	/**
+	 * @return the number of fragments of the second structure
+	 */
+	int getCols();
+
+	/**
+	 * @param i
+	 *            fragment of the first structure
+	 * @param j
+	 *            fragment of the second structure
+	 * @return the score of the fragment pair
+	 */
+	double get(int i, int j);
+
+	/**
+	 * @return the approximate memory used by the storage, in bytes
+	 */
+	long getSizeInBytes();
+
+	/**
+	 * Memory layouts of the fragment matrix.
+	 */
+	enum Storage {
+
+		/** The array of arrays of the CECalculator, not copied */
+		DENSE {
+			@Override
+			public FragmentMatrix create(double[][] mat, double threshold) {
+				return new DenseFragmentMatrix(mat);
+			}
+		},
+		/** A contiguous array of doubles, row by row */
+		FLAT {
+			@Override
+			public FragmentMatrix create(double[][] mat, double threshold) {
+				return new FlatFragmentMatrix(mat);
+			}
+		},
+		/** A contiguous array of floats, row by row, in half the memory */
+		FLAT_FLOAT {
+			@Override
+			public FragmentMatrix create(double[][] mat, double threshold) {
+				return new FloatFragmentMatrix(mat);
+			}
+		},
+		/**
+		 * The upper triangle of the matrix of a self-alignment, in half the
+		 * memory. See {@link SymmetricFragmentMatrix}.
+		 */
+		SYMMETRIC {
+			@Override
+			public FragmentMatrix create(double[][] mat, double threshold) {
+				return new SymmetricFragmentMatrix(mat, 0);
+			}
+		},
+		/**
+		 * Only the fragment pairs under the threshold, for very large
+		 * structures. The distance matrices are still dense. See
+		 * {@link SparseFragmentMatrix}.
+		 */
+		SPARSE {
+			@Override
+			public FragmentMatrix create(double[][] mat, double threshold) {
+				return new SparseFragmentMatrix(mat, threshold);
+			}
+		};
+
+		/**
+		 * @param mat
+		 *            fragment matrix of the CECalculator
+		 * @param threshold
+		 *            maximum score of the fragment pairs used by the trace
+		 *            search; the pairs above it may be dropped
+		 * @return the fragment matrix in this layout
+		 */
+		public abstract FragmentMatrix create(double[][] mat, double threshold);
+	}
+
+}
@@ -0,0 +1,79 @@
+package org.biojava.nbio.structure.align.symm;
+
+/**
+ * Fragment matrix that calculates the score of a fragment pair from the
+ * distance matrices each time it is read, with the {@link FragmentKernel}.
+ * Only the distances within the fragments are stored, so the memory is
+ * linear in the length of the structures. It is meant to read a small subset
+ * of the pairs once, for example to copy the bands of a
+ * {@link BandedFragmentMatrix}; the trace search reads the pairs many times.
+ * <p>
+ * The scores are the same as in {@link FlatFragmentMatrix#compute}.
+ *
+ * @author Aleix Lafita
+ *
+ */
+final class KernelFragmentMatrix implements FragmentMatrix {
+
+	private final int rows;
+	private final int cols;
+	private final int winSize;
+	private final int band;
+	private final int winSizeComb1;
+	private final FragmentKernel kernel;
+	private final double[] table1;
+	private final double[] table2;
+
+	/**
+	 * @param dist1
+	 *            distance matrix of the first structure
+	 * @param dist2
+	 *            distance matrix of the second structure
+	 * @param winSize
+	 *            fragment length
+	 * @param band
+	 *            fragment pairs (i, j) with |i - j| &lt; band are excluded,
+	 *            for self-alignments, or 0
+	 */
+	KernelFragmentMatrix(double[][] dist1, double[][] dist2, int winSize,
+			int band) {
+		this.rows = dist1.length;
+		this.cols = dist2.length;
+		this.winSize = winSize;
+		this.band = band;
+		this.winSizeComb1 = FragmentKernel.getDistancesPerFragment(winSize);
+		this.kernel = FragmentKernel.getInstance(winSize);
+		this.table1 = FragmentKernel.intraFragmentDistances(dist1, winSize);
+		this.table2 = dist2 == dist1 ? table1 : FragmentKernel
+				.intraFragmentDistances(dist2, winSize);
+	}
+
+	@Override
+	public int getRows() {
+		return rows;
+	}
+
+	@Override
+	public int getCols() {
+		return cols;
+	}
+
+	@Override
+	public double get(int i, int j) {
+		if (Math.abs(i - j) < band || i > rows - winSize || j > cols - winSize)
+			return -1;
+		// Sum of the distance differences of the fragments
+		double d = kernel.sumAbsDiff(table1, i * winSizeComb1, table2, j
+				* winSizeComb1, winSizeComb1);
+		return d / winSizeComb1;
+	}
+
+	@Override
+	public long getSizeInBytes() {
+		long size = 64L + 8L * table1.length;
+		if (table2 != table1)
+			size += 8L * table2.length;
+		return size;
+	}
+
+}
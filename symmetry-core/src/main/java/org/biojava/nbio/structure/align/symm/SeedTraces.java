@@ -0,0 +1,138 @@
+package org.biojava.nbio.structure.align.symm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Traces extended from the seeds of the first iteration of the trace search
+ * by one thread of a parallel search, kept to replay them in the order of the
+ * sequential search.
+ * <p>
+ * Only the traces that can be kept by the sequential search are stored: the
+ * best traces found by the thread, in a bounded heap of the capacity of the
+ * alternative traces, and the traces longer than all the previous ones of the
+ * thread, which set the length used to skip the seeds. A trace that is worse
+ * than as many traces before it in the same thread is also worse than the
+ * alternative traces of the sequential search at that point, so it would be
+ * discarded. The memory is bounded by the capacity and the length of the
+ * longest trace, instead of the number of seeds.
+ *
+ * @author Aleix Lafita
+ *
+ */
+final class SeedTraces {
+
+	static final class Trace {
+
+		final int ise1;
+		final int ise2;
+		/** Fragment positions of the trace */
+		final int[] trace1;
+		final int[] trace2;
+		final double score;
+
+		private Trace(int[] trace1, int[] trace2, int nTrace, double score) {
+			this.ise1 = trace1[0];
+			this.ise2 = trace2[0];
+			this.trace1 = Arrays.copyOf(trace1, nTrace);
+			this.trace2 = Arrays.copyOf(trace2, nTrace);
+			this.score = score;
+		}
+
+		int length() {
+			return trace1.length;
+		}
+	}
+
+	/** Order of the sequential search: by seed, then by length */
+	static final Comparator<Trace> SEARCH_ORDER = new Comparator<Trace>() {
+		@Override
+		public int compare(Trace t1, Trace t2) {
+			if (t1.ise1 != t2.ise1)
+				return Integer.compare(t1.ise1, t2.ise1);
+			if (t1.ise2 != t2.ise2)
+				return Integer.compare(t1.ise2, t2.ise2);
+			return Integer.compare(t1.length(), t2.length());
+		}
+	};
+
+	/**
+	 * Worst trace first: shorter, then higher score, then later in the
+	 * search, which does not replace a trace of the same length and score.
+	 */
+	private static final Comparator<Trace> WORST_FIRST = new Comparator<Trace>() {
+		@Override
+		public int compare(Trace t1, Trace t2) {
+			if (t1.length() != t2.length())
+				return Integer.compare(t1.length(), t2.length());
+			if (t1.score != t2.score)
+				return Double.compare(t2.score, t1.score);
+			return SEARCH_ORDER.compare(t2, t1);
+		}
+	};
+
+	private final int capacity;
+	private final PriorityQueue<Trace> best;
+	private final List<Trace> longest = new ArrayList<Trace>();
+
+	/**
+	 * @param capacity
+	 *            number of alternative traces of the search
+	 */
+	SeedTraces(int capacity) {
+		this.capacity = capacity;
+		this.best = new PriorityQueue<Trace>(capacity, WORST_FIRST);
+	}
+
+	/**
+	 * Adds a trace extended from a seed, if it can be kept by the sequential
+	 * search. The traces have to be added in the order of the search.
+	 *
+	 * @param trace1
+	 * @param trace2
+	 * @param nTrace
+	 *            length of the trace
+	 * @param score
+	 *            score of the trace
+	 */
+	void add(int[] trace1, int[] trace2, int nTrace, double score) {
+
+		boolean isLongest = longest.isEmpty()
+				|| nTrace > longest.get(longest.size() - 1).length();
+		boolean isBest = best.size() < capacity
+				|| nTrace > best.peek().length()
+				|| (nTrace == best.peek().length() && score < best.peek().score);
+		if (!isLongest && !isBest)
+			return;
+
+		Trace trace = new Trace(trace1, trace2, nTrace, score);
+		if (isLongest)
+			longest.add(trace);
+		if (isBest) {
+			if (best.size() == capacity)
+				best.poll();
+			best.add(trace);
+		}
+	}
+
+	/**
+	 * @return the traces stored, in the order of the sequential search
+	 */
+	List<Trace> getTraces() {
+		Map<Trace, Boolean> traces = new IdentityHashMap<Trace, Boolean>();
+		for (Trace trace : best)
+			traces.put(trace, true);
+		for (Trace trace : longest)
+			traces.put(trace, true);
+		List<Trace> sorted = new ArrayList<Trace>(traces.keySet());
+		Collections.sort(sorted, SEARCH_ORDER);
+		return sorted;
+	}
+
+}
@@ -0,0 +1,209 @@
+package org.biojava.nbio.structure.align.symm;
+
+import java.util.Arrays;
+
+/**
+ * Fragment matrix that only stores the fragment pairs that the trace search
+ * can use, with a score under a threshold, and the excluded pairs (negative
+ * scores). The pairs above the threshold are not stored and read as
+ * {@link #ABOVE_THRESHOLD}. The memory of the fragment matrix grows with the
+ * number of similar fragment pairs instead of the square of the length.
+ * <p>
+ * The memory of the whole search is still quadratic: the two distance
+ * matrices are dense n<sup>2</sup> arrays of doubles, because the scores of
+ * the traces are calculated from them by the CECalculator, and the scores of
+ * the trace search take traceMaxSize times (2 maxGapSize + 1) doubles, or
+ * traceMaxSize<sup>2</sup> if the maximum gap size is not positive. The
+ * sparse matrix only removes the largest of the quadratic terms, the fragment
+ * matrix, which is also the one calculated pair by pair.
+ * <p>
+ * The rows are compressed (CSR): the columns of each row are sorted and found
+ * by binary search. The scores are stored in float precision, like the
+ * {@link FloatFragmentMatrix}.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class SparseFragmentMatrix implements FragmentMatrix {
+
+	/** Score of the fragment pairs not stored */
+	public static final double ABOVE_THRESHOLD = Double.MAX_VALUE;
+
+	private static final int INITIAL_CAPACITY = 1 << 12;
+
+	private final int rows;
+	private final int cols;
+	private final double threshold;
+	/** Index of the first entry of each row, and the number of entries */
+	private final int[] rowStart;
+	private final int[] colIndex;
+	private final float[] values;
+
+	private SparseFragmentMatrix(int rows, int cols, double threshold,
+			int[] rowStart, int[] colIndex, float[] values) {
+		this.rows = rows;
+		this.cols = cols;
+		this.threshold = threshold;
+		this.rowStart = rowStart;
+		this.colIndex = colIndex;
+		this.values = values;
+	}
+
+	/**
+	 * Copies the fragment pairs of a matrix under the threshold.
+	 * 
+	 * @param mat
+	 *            fragment matrix of the CECalculator
+	 * @param threshold
+	 *            maximum score of the stored fragment pairs
+	 */
+	public SparseFragmentMatrix(double[][] mat, double threshold) {
+		this.rows = mat.length;
+		this.cols = rows == 0 ? 0 : mat[0].length;
+		this.threshold = threshold;
+		rowStart = new int[rows + 1];
+		int size = 0;
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				if (mat[i][j] <= threshold)
+					size++;
+			}
+			rowStart[i + 1] = size;
+		}
+		colIndex = new int[size];
+		values = new float[size];
+		int k = 0;
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				if (mat[i][j] <= threshold) {
+					colIndex[k] = j;
+					values[k++] = (float) mat[i][j];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Calculates the fragment matrix of a self-alignment from the distance
+	 * matrix of the structure, without building the full matrix. The score of
+	 * a fragment pair is the mean absolute difference of the distances within
+	 * the fragments, as in CE. Each pair is calculated once, for the upper
+	 * triangle, and stored for both triangles.
+	 * 
+	 * @param dist
+	 *            distance matrix of the structure
+	 * @param winSize
+	 *            fragment length
+	 * @param band
+	 *            fragment pairs (i, j) with |i - j| &lt; band are excluded
+	 * @param threshold
+	 *            maximum score of the stored fragment pairs
+	 * @return the fragment matrix
+	 */
+	public static SparseFragmentMatrix compute(double[][] dist, int winSize,
+			int band, double threshold) {
+
+		int n = dist.length;
+		int winSizeComb1 = FragmentKernel.getDistancesPerFragment(winSize);
+		FragmentKernel kernel = FragmentKernel.getInstance(winSize);
+		double[] table = FragmentKernel.intraFragmentDistances(dist, winSize);
+
+		// Upper triangle, row by row
+		int[] upperStart = new int[n + 1];
+		int[] upperCols = new int[INITIAL_CAPACITY];
+		float[] upperValues = new float[INITIAL_CAPACITY];
+		int size = 0;
+		for (int i = 0; i < n; i++) {
+			for (int j = i; j < n; j++) {
+				double score;
+				if (j - i < band || i > n - winSize || j > n - winSize)
+					score = -1.0;
+				else {
+					// Sum of the distance differences of the fragments
+					double d = kernel.sumAbsDiff(table, i * winSizeComb1, table,
+							j * winSizeComb1, winSizeComb1);
+					score = d / winSizeComb1;
+				}
+				if (score > threshold)
+					continue;
+				if (size == upperCols.length) {
+					upperCols = Arrays.copyOf(upperCols, size * 2);
+					upperValues = Arrays.copyOf(upperValues, size * 2);
+				}
+				upperCols[size] = j;
+				upperValues[size++] = (float) score;
+			}
+			upperStart[i + 1] = size;
+		}
+
+		// Mirror the lower triangle: count the entries of each row
+		int[] rowStart = new int[n + 1];
+		for (int i = 0; i < n; i++) {
+			for (int k = upperStart[i]; k < upperStart[i + 1]; k++) {
+				int j = upperCols[k];
+				rowStart[i + 1]++;
+				if (j != i)
+					rowStart[j + 1]++;
+			}
+		}
+		for (int i = 0; i < n; i++)
+			rowStart[i + 1] += rowStart[i];
+
+		// The rows are filled in increasing order of i, so the columns of the
+		// lower triangle come sorted before the columns of the upper triangle
+		int[] next = Arrays.copyOf(rowStart, n);
+		int[] colIndex = new int[rowStart[n]];
+		float[] values = new float[rowStart[n]];
+		for (int i = 0; i < n; i++) {
+			for (int k = upperStart[i]; k < upperStart[i + 1]; k++) {
+				int j = upperCols[k];
+				colIndex[next[i]] = j;
+				values[next[i]++] = upperValues[k];
+				if (j != i) {
+					colIndex[next[j]] = i;
+					values[next[j]++] = upperValues[k];
+				}
+			}
+		}
+		return new SparseFragmentMatrix(n, n, threshold, rowStart, colIndex,
+				values);
+	}
+
+	/**
+	 * @return the maximum score of the stored fragment pairs
+	 */
+	public double getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * @return the number of fragment pairs stored
+	 */
+	public int size() {
+		return values.length;
+	}
+
+	@Override
+	public int getRows() {
+		return rows;
+	}
+
+	@Override
+	public int getCols() {
+		return cols;
+	}
+
+	@Override
+	public double get(int i, int j) {
+		int k = Arrays.binarySearch(colIndex, rowStart[i], rowStart[i + 1], j);
+		if (k < 0)
+			return ABOVE_THRESHOLD;
+		return values[k];
+	}
+
+	@Override
+	public long getSizeInBytes() {
+		return 48L + 4L * rowStart.length + 8L * values.length;
+	}
+
+}
@@ -0,0 +1,266 @@
+package org.biojava.nbio.structure.align.symm;
+
+import org.biojava.nbio.structure.Atom;
+
+/**
+ * Rotation angle of the optimal superposition of two fragments, computed with
+ * the quaternion characteristic polynomial (QCP) method of Theobald (2005)
+ * and Liu et al. (2010), as {@link org.biojava.nbio.structure.geometry.SuperPositionQCP}.
+ * <p>
+ * Only the rotation angle is calculated, from the trace of the rotation
+ * matrix, so that the inner loops of the trace search do not need to build a
+ * transformation matrix. The coordinates are flat arrays of x, y, z values
+ * (see {@link #toCoordinates(Atom[])}) and the fragments are centred on the
+ * fly, so no memory is allocated per call.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public final class SuperpositionAngle {
+
+	/** Precision of the largest eigenvalue (Newton-Raphson iterations) */
+	private static final double EVAL_PREC = 1E-11;
+	/** Minimum squared norm of a valid eigenvector */
+	private static final double EVEC_PREC = 1E-6;
+	private static final int MAX_ITERATIONS = 50;
+
+	private SuperpositionAngle() {
+	}
+
+	/**
+	 * Copies the coordinates of the atoms to a flat array, in the order x, y,
+	 * z of each atom.
+	 *
+	 * @param atoms
+	 * @return array of length 3 * atoms.length
+	 */
+	public static double[] toCoordinates(Atom[] atoms) {
+		double[] coords = new double[3 * atoms.length];
+		for (int i = 0; i < atoms.length; i++) {
+			coords[3 * i] = atoms[i].getX();
+			coords[3 * i + 1] = atoms[i].getY();
+			coords[3 * i + 2] = atoms[i].getZ();
+		}
+		return coords;
+	}
+
+	/**
+	 * Calculates the rotation angle of the optimal superposition of two
+	 * fragments of the same length. The angle is the same in both directions
+	 * of the superposition.
+	 *
+	 * @param coords1
+	 *            flat coordinates of the first structure
+	 * @param start1
+	 *            index of the first atom of the first fragment
+	 * @param coords2
+	 *            flat coordinates of the second structure
+	 * @param start2
+	 *            index of the first atom of the second fragment
+	 * @param length
+	 *            number of atoms of the fragments
+	 * @return the rotation angle, in radians, in [0, pi]
+	 */
+	public static double getAngle(double[] coords1, int start1,
+			double[] coords2, int start2, int length) {
+
+		int off1 = 3 * start1;
+		int off2 = 3 * start2;
+
+		// Centroids of the fragments
+		double cx1 = 0, cy1 = 0, cz1 = 0;
+		double cx2 = 0, cy2 = 0, cz2 = 0;
+		for (int i = 0; i < length; i++) {
+			int i1 = off1 + 3 * i;
+			int i2 = off2 + 3 * i;
+			cx1 += coords1[i1];
+			cy1 += coords1[i1 + 1];
+			cz1 += coords1[i1 + 2];
+			cx2 += coords2[i2];
+			cy2 += coords2[i2 + 1];
+			cz2 += coords2[i2 + 2];
+		}
+		double scale = 1.0 / length;
+		cx1 *= scale;
+		cy1 *= scale;
+		cz1 *= scale;
+		cx2 *= scale;
+		cy2 *= scale;
+		cz2 *= scale;
+
+		// Inner product of the centred coordinates
+		double g1 = 0, g2 = 0;
+		double Sxx = 0, Sxy = 0, Sxz = 0;
+		double Syx = 0, Syy = 0, Syz = 0;
+		double Szx = 0, Szy = 0, Szz = 0;
+		for (int i = 0; i < length; i++) {
+			int i1 = off1 + 3 * i;
+			int i2 = off2 + 3 * i;
+			double x1 = coords2[i2] - cx2;
+			double y1 = coords2[i2 + 1] - cy2;
+			double z1 = coords2[i2 + 2] - cz2;
+			double x2 = coords1[i1] - cx1;
+			double y2 = coords1[i1 + 1] - cy1;
+			double z2 = coords1[i1 + 2] - cz1;
+
+			g1 += x1 * x1 + y1 * y1 + z1 * z1;
+			g2 += x2 * x2 + y2 * y2 + z2 * z2;
+
+			Sxx += x1 * x2;
+			Sxy += x1 * y2;
+			Sxz += x1 * z2;
+			Syx += y1 * x2;
+			Syy += y1 * y2;
+			Syz += y1 * z2;
+			Szx += z1 * x2;
+			Szy += z1 * y2;
+			Szz += z1 * z2;
+		}
+		double e0 = (g1 + g2) * 0.5;
+
+		// Coefficients of the characteristic polynomial
+		double Sxx2 = Sxx * Sxx;
+		double Syy2 = Syy * Syy;
+		double Szz2 = Szz * Szz;
+		double Sxy2 = Sxy * Sxy;
+		double Syz2 = Syz * Syz;
+		double Sxz2 = Sxz * Sxz;
+		double Syx2 = Syx * Syx;
+		double Szy2 = Szy * Szy;
+		double Szx2 = Szx * Szx;
+
+		double SyzSzymSyySzz2 = 2.0 * (Syz * Szy - Syy * Szz);
+		double Sxx2Syy2Szz2Syz2Szy2 = Syy2 + Szz2 - Sxx2 + Syz2 + Szy2;
+
+		double c2 = -2.0 * (Sxx2 + Syy2 + Szz2 + Sxy2 + Syx2 + Sxz2 + Szx2
+				+ Syz2 + Szy2);
+		double c1 = 8.0 * (Sxx * Syz * Szy + Syy * Szx * Sxz + Szz * Sxy * Syx
+				- Sxx * Syy * Szz - Syz * Szx * Sxy - Szy * Syx * Sxz);
+
+		double SxzpSzx = Sxz + Szx;
+		double SyzpSzy = Syz + Szy;
+		double SxypSyx = Sxy + Syx;
+		double SyzmSzy = Syz - Szy;
+		double SxzmSzx = Sxz - Szx;
+		double SxymSyx = Sxy - Syx;
+		double SxxpSyy = Sxx + Syy;
+		double SxxmSyy = Sxx - Syy;
+		double Sxy2Sxz2Syx2Szx2 = Sxy2 + Sxz2 - Syx2 - Szx2;
+
+		double c0 = Sxy2Sxz2Syx2Szx2 * Sxy2Sxz2Syx2Szx2
+				+ (Sxx2Syy2Szz2Syz2Szy2 + SyzSzymSyySzz2)
+				* (Sxx2Syy2Szz2Syz2Szy2 - SyzSzymSyySzz2)
+				+ (-(SxzpSzx) * (SyzmSzy) + (SxymSyx) * (SxxmSyy - Szz))
+				* (-(SxzmSzx) * (SyzpSzy) + (SxymSyx) * (SxxmSyy + Szz))
+				+ (-(SxzpSzx) * (SyzpSzy) - (SxypSyx) * (SxxpSyy - Szz))
+				* (-(SxzmSzx) * (SyzmSzy) - (SxypSyx) * (SxxpSyy + Szz))
+				+ (+(SxypSyx) * (SyzpSzy) + (SxzpSzx) * (SxxmSyy + Szz))
+				* (-(SxymSyx) * (SyzmSzy) + (SxzpSzx) * (SxxpSyy + Szz))
+				+ (+(SxypSyx) * (SyzmSzy) + (SxzmSzx) * (SxxmSyy - Szz))
+				* (-(SxymSyx) * (SyzpSzy) + (SxzmSzx) * (SxxpSyy - Szz));
+
+		// Largest eigenvalue by Newton-Raphson
+		double mxEigenV = e0;
+		for (int i = 0; i < MAX_ITERATIONS; i++) {
+			double oldg = mxEigenV;
+			double x2 = mxEigenV * mxEigenV;
+			double b = (x2 + c2) * mxEigenV;
+			double a = b + c1;
+			double delta = ((a * mxEigenV + c0) / (2.0 * x2 * mxEigenV + b + a));
+			mxEigenV -= delta;
+			if (Math.abs(mxEigenV - oldg) < Math.abs(EVAL_PREC * mxEigenV))
+				break;
+		}
+
+		// Eigenvector (quaternion) of the largest eigenvalue
+		double a11 = SxxpSyy + Szz - mxEigenV;
+		double a12 = SyzmSzy;
+		double a13 = -SxzmSzx;
+		double a14 = SxymSyx;
+		double a21 = SyzmSzy;
+		double a22 = SxxmSyy - Szz - mxEigenV;
+		double a23 = SxypSyx;
+		double a24 = SxzpSzx;
+		double a31 = a13;
+		double a32 = a23;
+		double a33 = Syy - Sxx - Szz - mxEigenV;
+		double a34 = SyzpSzy;
+		double a41 = a14;
+		double a42 = a24;
+		double a43 = a34;
+		double a44 = Szz - SxxpSyy - mxEigenV;
+		double a3344_4334 = a33 * a44 - a43 * a34;
+		double a3244_4234 = a32 * a44 - a42 * a34;
+		double a3243_4233 = a32 * a43 - a42 * a33;
+		double a3143_4133 = a31 * a43 - a41 * a33;
+		double a3144_4134 = a31 * a44 - a41 * a34;
+		double a3142_4132 = a31 * a42 - a41 * a32;
+
+		double q1 = a22 * a3344_4334 - a23 * a3244_4234 + a24 * a3243_4233;
+		double q2 = -a21 * a3344_4334 + a23 * a3144_4134 - a24 * a3143_4133;
+		double q3 = a21 * a3244_4234 - a22 * a3144_4134 + a24 * a3142_4132;
+		double q4 = -a21 * a3243_4233 + a22 * a3143_4133 - a23 * a3142_4132;
+		double qsqr = q1 * q1 + q2 * q2 + q3 * q3 + q4 * q4;
+
+		// Try the other columns of the adjoint matrix if this one is
+		// degenerate
+		if (qsqr < EVEC_PREC) {
+			q1 = a12 * a3344_4334 - a13 * a3244_4234 + a14 * a3243_4233;
+			q2 = -a11 * a3344_4334 + a13 * a3144_4134 - a14 * a3143_4133;
+			q3 = a11 * a3244_4234 - a12 * a3144_4134 + a14 * a3142_4132;
+			q4 = -a11 * a3243_4233 + a12 * a3143_4133 - a13 * a3142_4132;
+			qsqr = q1 * q1 + q2 * q2 + q3 * q3 + q4 * q4;
+
+			if (qsqr < EVEC_PREC) {
+				double a1324_1423 = a13 * a24 - a14 * a23;
+				double a1224_1422 = a12 * a24 - a14 * a22;
+				double a1223_1322 = a12 * a23 - a13 * a22;
+				double a1124_1421 = a11 * a24 - a14 * a21;
+				double a1123_1321 = a11 * a23 - a13 * a21;
+				double a1122_1221 = a11 * a22 - a12 * a21;
+
+				q1 = a42 * a1324_1423 - a43 * a1224_1422 + a44 * a1223_1322;
+				q2 = -a41 * a1324_1423 + a43 * a1124_1421 - a44 * a1123_1321;
+				q3 = a41 * a1224_1422 - a42 * a1124_1421 + a44 * a1122_1221;
+				q4 = -a41 * a1223_1322 + a42 * a1123_1321 - a43 * a1122_1221;
+				qsqr = q1 * q1 + q2 * q2 + q3 * q3 + q4 * q4;
+
+				if (qsqr < EVEC_PREC) {
+					q1 = a32 * a1324_1423 - a33 * a1224_1422 + a34 * a1223_1322;
+					q2 = -a31 * a1324_1423 + a33 * a1124_1421 - a34 * a1123_1321;
+					q3 = a31 * a1224_1422 - a32 * a1124_1421 + a34 * a1122_1221;
+					q4 = -a31 * a1223_1322 + a32 * a1123_1321 - a33 * a1122_1221;
+					qsqr = q1 * q1 + q2 * q2 + q3 * q3 + q4 * q4;
+
+					if (qsqr < EVEC_PREC) {
+						// Identity rotation
+						return 0;
+					}
+				}
+			}
+		}
+
+		double normq = Math.sqrt(qsqr);
+		q1 /= normq;
+		q2 /= normq;
+		q3 /= normq;
+		q4 /= normq;
+
+		// Trace of the rotation matrix of the quaternion
+		double a2 = q1 * q1;
+		double x2 = q2 * q2;
+		double y2 = q3 * q3;
+		double z2 = q4 * q4;
+		double trace = (a2 + x2 - y2 - z2) + (a2 - x2 + y2 - z2)
+				+ (a2 - x2 - y2 + z2);
+
+		// As RotationAxis.getAngle, tolerating small numerical errors
+		double c = (trace - 1) / 2.0;
+		if (c < -1)
+			c = -1;
+		if (c > 1)
+			c = 1;
+		return Math.acos(c);
+	}
+
+}
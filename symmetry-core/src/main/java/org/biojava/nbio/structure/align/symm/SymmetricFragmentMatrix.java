@@ -0,0 +1,134 @@
+package org.biojava.nbio.structure.align.symm;
+
+/**
+ * Fragment matrix of a self-alignment, where the structure is aligned to
+ * itself and the matrix is symmetric. Only the upper triangle is stored, in a
+ * packed array row by row, and the lower triangle is read from it.
+ * <p>
+ * The fragment pairs closer to the diagonal than a band, which would align
+ * the structure to itself (identity), are not stored and read as -1. With a
+ * band of the fragment length, the fragments of a pair never overlap.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class SymmetricFragmentMatrix implements FragmentMatrix {
+
+	private final int n;
+	private final int band;
+	/** Index of the first stored value of each row */
+	private final int[] rowStart;
+	private final double[] values;
+
+	private SymmetricFragmentMatrix(int n, int band) {
+		if (band < 0)
+			throw new IllegalArgumentException("Invalid band: " + band);
+		this.n = n;
+		this.band = band;
+		rowStart = new int[n];
+		long size = 0;
+		for (int i = 0; i < n; i++) {
+			rowStart[i] = (int) size;
+			size += Math.max(0, n - i - band);
+			if (size > Integer.MAX_VALUE)
+				throw new IllegalArgumentException(
+						"Too many fragments for a packed matrix: " + n);
+		}
+		values = new double[(int) size];
+	}
+
+	/**
+	 * Copies the upper triangle of a symmetric fragment matrix.
+	 * 
+	 * @param mat
+	 *            fragment matrix of a self-alignment
+	 * @param band
+	 *            fragment pairs (i, j) with |i - j| &lt; band are excluded
+	 */
+	public SymmetricFragmentMatrix(double[][] mat, int band) {
+		this(mat.length, band);
+		for (int i = 0; i < n; i++) {
+			if (mat[i].length != n)
+				throw new IllegalArgumentException(
+						"The fragment matrix is not square");
+			int offset = rowStart[i] - i - band;
+			for (int j = i + band; j < n; j++)
+				values[offset + j] = mat[i][j];
+		}
+	}
+
+	/**
+	 * Calculates the fragment matrix of a self-alignment from the distance
+	 * matrix of the structure, only for the upper triangle outside the band.
+	 * The score of a fragment pair is the mean absolute difference of the
+	 * distances within the fragments, as in CE.
+	 * 
+	 * @param dist
+	 *            distance matrix of the structure
+	 * @param winSize
+	 *            fragment length
+	 * @param band
+	 *            fragment pairs (i, j) with |i - j| &lt; band are excluded
+	 * @return the fragment matrix
+	 */
+	public static SymmetricFragmentMatrix compute(double[][] dist,
+			int winSize, int band) {
+
+		int n = dist.length;
+		int winSizeComb1 = FragmentKernel.getDistancesPerFragment(winSize);
+		FragmentKernel kernel = FragmentKernel.getInstance(winSize);
+		double[] table = FragmentKernel.intraFragmentDistances(dist, winSize);
+		SymmetricFragmentMatrix matrix = new SymmetricFragmentMatrix(n, band);
+		double[] values = matrix.values;
+
+		for (int i = 0; i < n; i++) {
+			int offset = matrix.rowStart[i] - i - band;
+			for (int j = i + band; j < n; j++) {
+				if (i > n - winSize || j > n - winSize) {
+					values[offset + j] = -1.0;
+					continue;
+				}
+				// Sum of the distance differences of the fragments
+				double d = kernel.sumAbsDiff(table, i * winSizeComb1, table,
+						j * winSizeComb1, winSizeComb1);
+				values[offset + j] = d / winSizeComb1;
+			}
+		}
+		return matrix;
+	}
+
+	/**
+	 * @return the width of the excluded band around the diagonal
+	 */
+	public int getBand() {
+		return band;
+	}
+
+	@Override
+	public int getRows() {
+		return n;
+	}
+
+	@Override
+	public int getCols() {
+		return n;
+	}
+
+	@Override
+	public double get(int i, int j) {
+		if (i > j) {
+			int tmp = i;
+			i = j;
+			j = tmp;
+		}
+		if (j - i < band)
+			return -1.0;
+		return values[rowStart[i] + j - i - band];
+	}
+
+	@Override
+	public long getSizeInBytes() {
+		return 32L + 4L * rowStart.length + 8L * values.length;
+	}
+
+}
@@ -0,0 +1,105 @@
+package org.biojava.nbio.structure.align.symm;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Budget of the trace search of the {@link CESymmCalculator}, as a number of
+ * traces and a wall-clock time for the whole search. The traces are counted
+ * like in CE: the counter is reset only at the start of the second
+ * iteration, so the limit applies once to the first iteration, over all the
+ * seeds, and once to all the refinement iterations together.
+ * <p>
+ * When the budget runs out the search stops, so that the run time is bounded
+ * at the cost of a possibly suboptimal alignment. The {@link #DEFAULT} budget
+ * stops like CE, with the traces found so far in the current iteration. Any
+ * other budget also keeps the best trace of the previous iteration if it is
+ * better.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public final class TraceBudget {
+
+	/**
+	 * The limit of traces of CE, without a time limit. The search stops
+	 * exactly like CE when it is reached.
+	 */
+	public static final TraceBudget DEFAULT = new TraceBudget((long) 5e7, 0);
+
+	/** No limit of traces or time: the search is always exhaustive */
+	public static final TraceBudget UNLIMITED = new TraceBudget(0, 0);
+
+	private final long maxTraces;
+	private final long maxMillis;
+
+	/**
+	 * @param maxTraces
+	 *            maximum number of traces of the first iteration, and of the
+	 *            refinement iterations together, 0 for no limit
+	 * @param maxMillis
+	 *            maximum wall-clock time of the search, in milliseconds, 0
+	 *            for no limit
+	 */
+	public TraceBudget(long maxTraces, long maxMillis) {
+		if (maxTraces < 0)
+			throw new IllegalArgumentException("Invalid number of traces: "
+					+ maxTraces);
+		if (maxMillis < 0)
+			throw new IllegalArgumentException("Invalid time: " + maxMillis);
+		this.maxTraces = maxTraces;
+		this.maxMillis = maxMillis;
+	}
+
+	/**
+	 * @return the maximum number of traces of the first iteration, and of
+	 *         the refinement iterations together, 0 for no limit
+	 */
+	public long getMaxTraces() {
+		return maxTraces;
+	}
+
+	/**
+	 * @return the maximum time of the search in milliseconds, 0 for no limit
+	 */
+	public long getMaxMillis() {
+		return maxMillis;
+	}
+
+	/**
+	 * @param traces
+	 *            number of traces since the counter was reset
+	 * @return true if the number of traces exceeds the budget
+	 */
+	boolean isTracesExceeded(long traces) {
+		return maxTraces > 0 && traces > maxTraces;
+	}
+
+	/**
+	 * @param start
+	 *            start of the search, from {@link System#nanoTime()}
+	 * @return the deadline of the search for {@link System#nanoTime()}, or
+	 *         {@link Long#MAX_VALUE} without a time limit
+	 */
+	long getDeadline(long start) {
+		if (maxMillis == 0)
+			return Long.MAX_VALUE;
+		// Longer limits are not measurable by the differences of nanoTime
+		long nanos = Math.min(TimeUnit.MILLISECONDS.toNanos(maxMillis),
+				Long.MAX_VALUE / 2);
+		return start + nanos;
+	}
+
+	/**
+	 * @return true if the search stops like CE when the budget runs out
+	 */
+	boolean isDefault() {
+		return maxTraces == DEFAULT.maxTraces && maxMillis == DEFAULT.maxMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "TraceBudget [maxTraces=" + maxTraces + ", maxMillis="
+				+ maxMillis + "]";
+	}
+
+}
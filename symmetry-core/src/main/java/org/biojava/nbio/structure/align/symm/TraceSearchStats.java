@@ -0,0 +1,120 @@
+package org.biojava.nbio.structure.align.symm;
+
+/**
+ * Counters of the work done by the trace search of the
+ * {@link CESymmCalculator}, to tune the fragment length, the maximum gap and
+ * the RMSD thresholds of the parameters.
+ * <p>
+ * The counts are the totals of all the iterations of one search, including
+ * the seeds and traces explored by the threads of a parallel search. The
+ * rotation angles actually calculated, and not found in the cache, are the
+ * misses of the {@link FragmentAngleCache}.
+ * <p>
+ * This class is not thread safe: each trace search uses its own instance.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public final class TraceSearchStats {
+
+	private long seeds;
+	private long seedsPruned;
+	private long extensions;
+	private long angleChecks;
+	private long traces;
+	private int iterations;
+
+	void seedVisited() {
+		seeds++;
+	}
+
+	void seedPruned() {
+		seedsPruned++;
+	}
+
+	void extensionAttempted() {
+		extensions++;
+	}
+
+	void angleChecked() {
+		angleChecks++;
+	}
+
+	void traceEvaluated() {
+		traces++;
+	}
+
+	void iterationRun() {
+		iterations++;
+	}
+
+	/**
+	 * Adds the counts of another search, e.g. of a parallel worker. The
+	 * iterations are not added, because the workers run part of an iteration
+	 * of the search.
+	 *
+	 * @param other
+	 */
+	void addCounts(TraceSearchStats other) {
+		seeds += other.seeds;
+		seedsPruned += other.seedsPruned;
+		extensions += other.extensions;
+		angleChecks += other.angleChecks;
+		traces += other.traces;
+	}
+
+	/**
+	 * @return the number of seed fragment pairs whose score was read
+	 */
+	public long getSeeds() {
+		return seeds;
+	}
+
+	/**
+	 * @return the number of seeds discarded because their score is above the
+	 *         RMSD threshold or the maximum RMSD of the parameters
+	 */
+	public long getSeedsPruned() {
+		return seedsPruned;
+	}
+
+	/**
+	 * @return the number of fragment pairs tried to extend a trace, within
+	 *         the maximum gap
+	 */
+	public long getExtensions() {
+		return extensions;
+	}
+
+	/**
+	 * @return the number of rotation angles checked for the extensions, from
+	 *         the cache or calculated
+	 */
+	public long getAngleChecks() {
+		return angleChecks;
+	}
+
+	/**
+	 * @return the number of traces evaluated, the sum of the number of traces
+	 *         of CE of every iteration
+	 */
+	public long getTraces() {
+		return traces;
+	}
+
+	/**
+	 * @return the number of iterations of the search that were run
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	@Override
+	public String toString() {
+		return "TraceSearchStats [seeds=" + seeds + ", seedsPruned="
+				+ seedsPruned + ", extensions=" + extensions
+				+ ", angleChecks=" + angleChecks + ", traces=" + traces
+				+ ", iterations=" + iterations + "]";
+	}
+
+}
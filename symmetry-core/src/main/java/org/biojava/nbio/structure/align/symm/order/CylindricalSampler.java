@@ -0,0 +1,162 @@
+package org.biojava.nbio.structure.align.symm.order;
+
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.align.util.RotationAxis;
+
+/**
+ * Rotations of a structure around a symmetry axis, as flat arrays of
+ * coordinates, for the superposition distances of the order detectors.
+ * <p>
+ * The coordinates are converted once to cylindrical coordinates around the
+ * axis: the height along the axis and the two components in the plane normal
+ * to it, r cos(phase) and r sin(phase), of each atom. A rotation by an angle
+ * is then a phase offset, with a single cosine and sine per angle, so no
+ * atoms are cloned and the rotation errors do not accumulate between the
+ * angle steps, as with successive calls to
+ * {@link RotationAxis#rotate(Atom[], double)}. The rotations are
+ * right-handed around the direction of the axis.
+ * <p>
+ * {@link #rotate(double)} writes the rotated coordinates to a buffer that is
+ * reused by every rotation. Threads sharing a sampler must use
+ * {@link #rotate(double, double[])} with their own buffers.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public final class CylindricalSampler {
+
+	private final double[] coords;
+	private final double[] rotated;
+
+	/** Point on the axis, axis direction and the basis of its normal plane */
+	private final double px, py, pz;
+	private final double ux, uy, uz;
+	private final double e1x, e1y, e1z;
+	private final double e2x, e2y, e2z;
+
+	private final double[] height;
+	/** Components in the normal plane, r cos(phase) and r sin(phase) */
+	private final double[] cosPart;
+	private final double[] sinPart;
+	/** The axis is undefined, every rotation is the identity */
+	private final boolean identity;
+
+	/**
+	 * @param atoms
+	 *            the structure to rotate
+	 * @param axis
+	 *            the rotation axis
+	 */
+	public CylindricalSampler(Atom[] atoms, RotationAxis axis) {
+
+		int n = atoms.length;
+		coords = NearestNeighborGrid.coordinates(atoms);
+		rotated = new double[3 * n];
+		height = new double[n];
+		cosPart = new double[n];
+		sinPart = new double[n];
+
+		Atom pos = axis.getRotationPos();
+		Atom dir = axis.getRotationAxis();
+		double norm = dir == null ? 0 : Math.sqrt(dir.getX() * dir.getX()
+				+ dir.getY() * dir.getY() + dir.getZ() * dir.getZ());
+		// As RotationAxis.rotate, which does nothing without a position
+		identity = pos == null || norm == 0;
+		if (identity) {
+			px = py = pz = ux = uy = uz = 0;
+			e1x = e1y = e1z = e2x = e2y = e2z = 0;
+			return;
+		}
+
+		px = pos.getX();
+		py = pos.getY();
+		pz = pos.getZ();
+		ux = dir.getX() / norm;
+		uy = dir.getY() / norm;
+		uz = dir.getZ() / norm;
+
+		// e1: the coordinate axis most perpendicular to u, minus its
+		// projection on u
+		double ax = 0, ay = 0, az = 0;
+		if (Math.abs(ux) <= Math.abs(uy) && Math.abs(ux) <= Math.abs(uz))
+			ax = 1;
+		else if (Math.abs(uy) <= Math.abs(uz))
+			ay = 1;
+		else
+			az = 1;
+		double dot = ax * ux + ay * uy + az * uz;
+		double bx = ax - dot * ux, by = ay - dot * uy, bz = az - dot * uz;
+		double bnorm = Math.sqrt(bx * bx + by * by + bz * bz);
+		e1x = bx / bnorm;
+		e1y = by / bnorm;
+		e1z = bz / bnorm;
+		// e2 = u x e1
+		e2x = uy * e1z - uz * e1y;
+		e2y = uz * e1x - ux * e1z;
+		e2z = ux * e1y - uy * e1x;
+
+		for (int i = 0; i < n; i++) {
+			double vx = coords[3 * i] - px;
+			double vy = coords[3 * i + 1] - py;
+			double vz = coords[3 * i + 2] - pz;
+			height[i] = vx * ux + vy * uy + vz * uz;
+			cosPart[i] = vx * e1x + vy * e1y + vz * e1z;
+			sinPart[i] = vx * e2x + vy * e2y + vz * e2z;
+		}
+	}
+
+	/**
+	 * @return the number of atoms
+	 */
+	public int size() {
+		return height.length;
+	}
+
+	/**
+	 * @return the flat coordinates of the structure, x, y, z of each atom
+	 */
+	public double[] getCoordinates() {
+		return coords;
+	}
+
+	/**
+	 * Rotates the structure around the axis. The result is overwritten by the
+	 * next rotation.
+	 *
+	 * @param angle
+	 *            rotation angle, in radians
+	 * @return the flat coordinates of the rotated structure
+	 */
+	public double[] rotate(double angle) {
+		return rotate(angle, rotated);
+	}
+
+	/**
+	 * Rotates the structure around the axis into a buffer.
+	 *
+	 * @param angle
+	 *            rotation angle, in radians
+	 * @param rotated
+	 *            buffer of the same length as {@link #getCoordinates()}
+	 * @return the buffer, with the flat coordinates of the rotated structure
+	 */
+	public double[] rotate(double angle, double[] rotated) {
+		if (identity) {
+			System.arraycopy(coords, 0, rotated, 0, coords.length);
+			return rotated;
+		}
+		double c = Math.cos(angle);
+		double s = Math.sin(angle);
+		for (int i = 0; i < height.length; i++) {
+			// r cos(phase + angle) and r sin(phase + angle)
+			double a = cosPart[i] * c - sinPart[i] * s;
+			double b = cosPart[i] * s + sinPart[i] * c;
+			double h = height[i];
+			rotated[3 * i] = px + h * ux + a * e1x + b * e2x;
+			rotated[3 * i + 1] = py + h * uy + a * e1y + b * e2y;
+			rotated[3 * i + 2] = pz + h * uz + a * e1z + b * e2z;
+		}
+		return rotated;
+	}
+
+}
@@ -0,0 +1,235 @@
+package org.biojava.nbio.structure.align.symm.order;
+
+import static java.lang.Math.*;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.math3.complex.Complex;
+import org.apache.commons.math3.transform.DftNormalization;
+import org.apache.commons.math3.transform.FastFourierTransformer;
+import org.apache.commons.math3.transform.TransformType;
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.StructureException;
+import org.biojava.nbio.structure.align.model.AFPChain;
+import org.biojava.nbio.structure.align.util.RotationAxis;
+import org.biojava.nbio.structure.symmetry.internal.OrderDetector;
+import org.biojava.nbio.structure.symmetry.internal.RefinerFailedException;
+
+/**
+ * Detects the order from the spectrum of the superposition distance as the
+ * protein is rotated around the axis of symmetry.
+ * <p>
+ * The distance is sampled at uniform angles over the full circle and the
+ * amplitudes of all the harmonics are calculated with a single FFT. The
+ * amplitude of order n is the weight a of the fit
+ * f(angle) = a0 + a*sin(n*angle/2)^2 over the full circle, which is the
+ * cosine coefficient of the harmonic. It is the full-circle analogue of
+ * {@link RotationOrderDetector.RotationOrderMethod#SINGLE_HARMONIC_AMP},
+ * which fits the same function over [minAngle, pi), so the amplitudes are
+ * not the same. The order with the highest amplitude is returned.
+ * <p>
+ * The cost of the spectrum is O(S log S) for S samples, independent of the
+ * maximum order, instead of one least-squares fit per order.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class FourierOrderDetector implements OrderDetector {
+
+	/** Maximum number of samples, with at least 4 per period of the order */
+	public static final int MAX_SAMPLES = 1 << 20;
+
+	private int maxOrder;
+	private double angleIncr; // maximum angular resolution
+	private int parallelism = 1; // threads of the angle sampling
+	private ForkJoinPool pool; // pool of the parallel sampling, on first use
+
+	public FourierOrderDetector() {
+		this(8);
+	}
+
+	public FourierOrderDetector(int maxOrder) {
+		this(maxOrder, RotationOrderDetector.DEFAULT_ANGLE_INCR);
+	}
+
+	/**
+	 * @param maxOrder
+	 *            highest order considered
+	 * @param angleIncr
+	 *            maximum angle between the samples, in radians
+	 */
+	public FourierOrderDetector(int maxOrder, double angleIncr) {
+		setMaxOrder(maxOrder);
+		setAngleIncr(angleIncr);
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[maxOrder=" + maxOrder
+				+ ",samples=" + getSampleCount() + "]";
+	}
+
+	public int getMaxOrder() {
+		return maxOrder;
+	}
+
+	/**
+	 * @param maxOrder
+	 *            highest order considered, from 1 to {@link #MAX_SAMPLES} / 4
+	 */
+	public void setMaxOrder(int maxOrder) {
+		if (maxOrder < 1 || maxOrder > MAX_SAMPLES / 4)
+			throw new IllegalArgumentException("Invalid maximum order: "
+					+ maxOrder);
+		this.maxOrder = maxOrder;
+	}
+
+	public double getAngleIncr() {
+		return angleIncr;
+	}
+
+	/**
+	 * @param angleIncr
+	 *            maximum angle between the samples, in radians, positive.
+	 *            It is not reached below 2 pi / {@link #MAX_SAMPLES}.
+	 */
+	public void setAngleIncr(double angleIncr) {
+		if (!(angleIncr > 0))
+			throw new IllegalArgumentException("Invalid angle increment: "
+					+ angleIncr);
+		this.angleIncr = angleIncr;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Set the number of threads that calculate the superposition distances
+	 * of the angles. All the samplings of the detector share one pool of
+	 * threads.
+	 *
+	 * @param parallelism
+	 *            number of threads, 1 for a sequential sampling
+	 * @see RotationOrderDetector#setParallelism(int)
+	 */
+	public synchronized void setParallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("Invalid parallelism: "
+					+ parallelism);
+		if (parallelism != this.parallelism)
+			pool = null;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @return the pool of the parallel samplings of the detector, or null for
+	 *         a sequential sampling
+	 */
+	synchronized ForkJoinPool getPool() {
+		if (parallelism <= 1)
+			return null;
+		if (pool == null)
+			pool = RotationOrderDetector.createPool(parallelism);
+		return pool;
+	}
+
+	/**
+	 * The number of samples over the full circle: the smallest power of two
+	 * (required by the FFT) with at most {@link #getAngleIncr()} between the
+	 * samples and at least 4 samples per period of the maximum order, up to
+	 * {@link #MAX_SAMPLES}.
+	 *
+	 * @return the number of sampled angles
+	 */
+	public int getSampleCount() {
+		double min = max(ceil(2 * PI / angleIncr), 4 * maxOrder);
+		if (min >= MAX_SAMPLES)
+			return MAX_SAMPLES;
+		int samples = 4;
+		while (samples < min)
+			samples <<= 1;
+		return samples;
+	}
+
+	@Override
+	public int calculateOrder(AFPChain afpChain, Atom[] ca)
+			throws RefinerFailedException {
+		try {
+			RotationAxis axis = new RotationAxis(afpChain);
+
+			// Use C1 order if the axis is undefined
+			if (!axis.isDefined())
+				return 1;
+
+			double[] amps = getAmplitudes(ca, axis);
+
+			// Find order with maximum amplitude
+			int best = 0;
+			for (int i = 1; i < amps.length; i++) {
+				if (amps[i] > amps[best])
+					best = i;
+			}
+			return best + 1;
+
+		} catch (StructureException e) {
+			throw new RefinerFailedException(e);
+		}
+	}
+
+	/**
+	 * For each order from 1 to maxOrder, calculate the amplitude of the
+	 * harmonic of the superposition distance as ca is rotated around the
+	 * axis.
+	 *
+	 * @param ca
+	 * @param axis
+	 * @return An array of length maxOrder containing the amplitude of each
+	 *         order
+	 * @throws StructureException
+	 *             For errors applying the rotation
+	 */
+	public double[] getAmplitudes(Atom[] ca, RotationAxis axis)
+			throws StructureException {
+		int samples = getSampleCount();
+		double[] angles = new double[samples];
+		for (int step = 0; step < samples; step++)
+			angles[step] = 2 * PI * step / samples;
+		double[] distances = RotationOrderDetector.getSuperpositionDistances(
+				ca, axis, angles, getPool());
+		return getAmplitudes(distances, maxOrder);
+	}
+
+	/**
+	 * Calculates the amplitude a of each order n, for the fit
+	 * f(angle) = a0 + a*sin(n*angle/2)^2 to distances sampled at uniform
+	 * angles over the full circle. As sin(n*angle/2)^2 = (1 - cos(n*angle))/2,
+	 * a is -2 times the cosine coefficient of harmonic n, so it is positive
+	 * when the distance is low at the rotations by multiples of 2*pi/n.
+	 *
+	 * @param distances
+	 *            samples of the full circle, a power of two of them
+	 * @param maxOrder
+	 *            highest order, below half the number of samples
+	 * @return An array of length maxOrder containing the amplitude of each
+	 *         order
+	 */
+	public static double[] getAmplitudes(double[] distances, int maxOrder) {
+		int samples = distances.length;
+		if (maxOrder >= samples / 2)
+			throw new IllegalArgumentException("Order " + maxOrder
+					+ " is not resolved by " + samples + " samples");
+
+		FastFourierTransformer fft = new FastFourierTransformer(
+				DftNormalization.STANDARD);
+		Complex[] spectrum = fft.transform(distances, TransformType.FORWARD);
+
+		double[] amps = new double[maxOrder];
+		for (int order = 1; order <= maxOrder; order++) {
+			// Cosine coefficient: 2/S * sum(f * cos(n*angle))
+			amps[order - 1] = -4 * spectrum[order].getReal() / samples;
+		}
+		return amps;
+	}
+
+}
@@ -57,7 +57,7 @@ public class HybridOrderDetector extends RotationOrderDetector implements OrderD
 		try {
 			RotationAxis axis = new RotationAxis(afpChain);
 			double[] angles = getAngles();
-			double[] distances = getSuperpositionDistances(ca,axis, angles);
+			double[] distances = getSuperpositionDistances(ca,axis, angles, getPool());
 			ScoreCache scores = new ScoreCache(angles,distances);
 
 			List<Integer> compatible = compatibleOrders(afpChain, ca);
@@ -0,0 +1,242 @@
+package org.biojava.nbio.structure.align.symm.order;
+
+import org.biojava.nbio.structure.Atom;
+
+/**
+ * Uniform grid over the coordinates of a set of atoms, to find the closest
+ * atom to a point without comparing it to all the atoms.
+ * <p>
+ * The cells around the point are visited in shells of increasing distance,
+ * until no atom in the next shell can be closer than the closest atom found.
+ * The squared distances are calculated as
+ * {@link org.biojava.nbio.structure.Calc#getDistanceFast(Atom, Atom)}, so the
+ * result is the same as the search over all the atoms.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public final class NearestNeighborGrid {
+
+	/** Minimum edge of the cells, in Angstroms */
+	public static final double MIN_CELL_SIZE = 4.0;
+	/** Maximum number of cells per atom, for sparse structures */
+	private static final int MAX_CELLS_PER_ATOM = 8;
+	/** Tolerance of the distance bound of a shell, for rounding errors */
+	private static final double SLACK = 1e-6;
+
+	private final double cellSize;
+	private final double minX, minY, minZ;
+	private final int nx, ny, nz;
+	/** Index of the first atom of each cell, and the number of atoms */
+	private final int[] cellStart;
+	/** Coordinates of the atoms, sorted by cell */
+	private final double[] xs, ys, zs;
+
+	/**
+	 * Builds the grid of the atoms. The cells are cubes of
+	 * {@link #MIN_CELL_SIZE}, or larger for sparse structures, so that the
+	 * number of cells stays proportional to the number of atoms.
+	 *
+	 * @param atoms
+	 *            the atoms, at least one
+	 */
+	public NearestNeighborGrid(Atom[] atoms) {
+		this(coordinates(atoms));
+	}
+
+	/**
+	 * Builds the grid of the atoms, from flat coordinates.
+	 *
+	 * @param coords
+	 *            x, y, z of each atom, at least one
+	 * @see #NearestNeighborGrid(Atom[])
+	 */
+	public NearestNeighborGrid(double[] coords) {
+
+		int n = coords.length / 3;
+		if (n == 0)
+			throw new IllegalArgumentException("No atoms in the grid");
+
+		double x0 = coords[0], y0 = coords[1], z0 = coords[2];
+		double x1 = x0, y1 = y0, z1 = z0;
+		for (int i = 0; i < n; i++) {
+			x0 = Math.min(x0, coords[3 * i]);
+			y0 = Math.min(y0, coords[3 * i + 1]);
+			z0 = Math.min(z0, coords[3 * i + 2]);
+			x1 = Math.max(x1, coords[3 * i]);
+			y1 = Math.max(y1, coords[3 * i + 1]);
+			z1 = Math.max(z1, coords[3 * i + 2]);
+		}
+		minX = x0;
+		minY = y0;
+		minZ = z0;
+
+		double volume = Math.max(x1 - x0, MIN_CELL_SIZE)
+				* Math.max(y1 - y0, MIN_CELL_SIZE)
+				* Math.max(z1 - z0, MIN_CELL_SIZE);
+		cellSize = Math.max(MIN_CELL_SIZE, Math.cbrt(volume
+				/ (MAX_CELLS_PER_ATOM * n)));
+		nx = (int) ((x1 - x0) / cellSize) + 1;
+		ny = (int) ((y1 - y0) / cellSize) + 1;
+		nz = (int) ((z1 - z0) / cellSize) + 1;
+
+		// Sort the atoms by cell (counting sort)
+		int[] cells = new int[n];
+		cellStart = new int[nx * ny * nz + 1];
+		for (int i = 0; i < n; i++) {
+			cells[i] = cellIndex(cell(coords[3 * i], minX, nx),
+					cell(coords[3 * i + 1], minY, ny),
+					cell(coords[3 * i + 2], minZ, nz));
+			cellStart[cells[i] + 1]++;
+		}
+		for (int c = 0; c < nx * ny * nz; c++)
+			cellStart[c + 1] += cellStart[c];
+		int[] next = new int[nx * ny * nz];
+		System.arraycopy(cellStart, 0, next, 0, next.length);
+		xs = new double[n];
+		ys = new double[n];
+		zs = new double[n];
+		for (int i = 0; i < n; i++) {
+			int k = next[cells[i]]++;
+			xs[k] = coords[3 * i];
+			ys[k] = coords[3 * i + 1];
+			zs[k] = coords[3 * i + 2];
+		}
+	}
+
+	/**
+	 * Copies the coordinates of the atoms to a flat array, in the order x, y,
+	 * z of each atom.
+	 *
+	 * @param atoms
+	 * @return array of length 3 * atoms.length
+	 */
+	static double[] coordinates(Atom[] atoms) {
+		double[] coords = new double[3 * atoms.length];
+		for (int i = 0; i < atoms.length; i++) {
+			coords[3 * i] = atoms[i].getX();
+			coords[3 * i + 1] = atoms[i].getY();
+			coords[3 * i + 2] = atoms[i].getZ();
+		}
+		return coords;
+	}
+
+	/**
+	 * @return the cell of a coordinate, which may be outside the grid
+	 */
+	private int cell(double x, double min, int n) {
+		int c = (int) Math.floor((x - min) / cellSize);
+		// Rounding at the upper boundary of the grid
+		if (c == n && x - min <= n * cellSize)
+			c = n - 1;
+		return c;
+	}
+
+	private int cellIndex(int cx, int cy, int cz) {
+		return (cx * ny + cy) * nz + cz;
+	}
+
+	/**
+	 * Returns the squared distance from a point to the closest atom.
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return the squared distance to the closest atom
+	 */
+	public double getMinDistanceSq(double x, double y, double z) {
+		return getMinDistanceSq(x, y, z, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Returns the squared distance from a point to the closest atom, or the
+	 * cut-off if there is no atom closer than it. The cut-off limits the
+	 * number of cells visited for points far from the atoms.
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param maxDistanceSq
+	 *            squared cut-off distance
+	 * @return the squared distance to the closest atom, at most the cut-off
+	 */
+	public double getMinDistanceSq(double x, double y, double z,
+			double maxDistanceSq) {
+
+		int cx = (int) Math.floor((x - minX) / cellSize);
+		int cy = (int) Math.floor((y - minY) / cellSize);
+		int cz = (int) Math.floor((z - minZ) / cellSize);
+
+		// Shells of cells before the grid are empty
+		int first = Math.max(0, Math.max(distanceToRange(cx, nx),
+				Math.max(distanceToRange(cy, ny), distanceToRange(cz, nz))));
+		int last = Math.max(Math.max(Math.max(cx, nx - 1 - cx),
+				Math.max(cy, ny - 1 - cy)), Math.max(cz, nz - 1 - cz));
+
+		double best = maxDistanceSq;
+		for (int r = first; r <= last; r++) {
+			// The cells of shell r are at least (r - 1) cells away
+			double bound = (r - 1) * cellSize - SLACK;
+			if (bound > 0 && bound * bound > best)
+				break;
+			best = searchShell(x, y, z, cx, cy, cz, r, best);
+		}
+		return best;
+	}
+
+	/**
+	 * @return the number of cells from a cell to the range [0, n)
+	 */
+	private static int distanceToRange(int c, int n) {
+		if (c < 0)
+			return -c;
+		if (c >= n)
+			return c - n + 1;
+		return 0;
+	}
+
+	/**
+	 * Compares the point to the atoms of the cells at Chebyshev distance r
+	 * from the cell of the point.
+	 */
+	private double searchShell(double x, double y, double z, int cx, int cy,
+			int cz, int r, double best) {
+
+		int x0 = Math.max(0, cx - r), x1 = Math.min(nx - 1, cx + r);
+		int y0 = Math.max(0, cy - r), y1 = Math.min(ny - 1, cy + r);
+		for (int i = x0; i <= x1; i++) {
+			boolean faceX = Math.abs(i - cx) == r;
+			for (int j = y0; j <= y1; j++) {
+				if (faceX || Math.abs(j - cy) == r) {
+					// Whole column of cells in the shell
+					for (int k = Math.max(0, cz - r); k <= Math.min(nz - 1,
+							cz + r); k++)
+						best = searchCell(x, y, z, cellIndex(i, j, k), best);
+				} else {
+					// Only the top and bottom cells of the column
+					if (cz - r >= 0 && cz - r < nz)
+						best = searchCell(x, y, z, cellIndex(i, j, cz - r),
+								best);
+					if (cz + r >= 0 && cz + r < nz)
+						best = searchCell(x, y, z, cellIndex(i, j, cz + r),
+								best);
+				}
+			}
+		}
+		return best;
+	}
+
+	private double searchCell(double x, double y, double z, int cell,
+			double best) {
+		for (int a = cellStart[cell]; a < cellStart[cell + 1]; a++) {
+			double dx = x - xs[a];
+			double dy = y - ys[a];
+			double dz = z - zs[a];
+			double dist = dx * dx + dy * dy + dz * dz;
+			if (dist < best)
+				best = dist;
+		}
+		return best;
+	}
+
+}
@@ -1,5 +1,7 @@
 package org.biojava.nbio.structure.align.symm.order;
 
+import java.util.concurrent.ForkJoinPool;
+
 import org.apache.commons.math3.analysis.interpolation.LoessInterpolator;
 import org.apache.commons.math3.util.Pair;
 import org.biojava.nbio.structure.Atom;
@@ -23,6 +25,8 @@ public class PeakCountingOrderDetector implements OrderDetector {
 	private double bandwidth = 0.1;
 	private int robustnessIterations = LoessInterpolator.DEFAULT_ROBUSTNESS_ITERS;
 	private double loessAccuracy = LoessInterpolator.DEFAULT_ACCURACY;
+	private int parallelism = 1;
+	private ForkJoinPool pool; // pool of the parallel sampling, on first use
 
 	public PeakCountingOrderDetector(int maxOrder) {
 		super();
@@ -36,7 +40,7 @@ public class PeakCountingOrderDetector implements OrderDetector {
 
 			RotationAxis axis = new RotationAxis(afpChain);
 			logger.info("Calculating rotation samples");
-			Pair<double[],double[]> pair = RotationOrderDetector.sampleRotations(ca, axis, degreeSampling);
+			Pair<double[],double[]> pair = RotationOrderDetector.sampleRotations(ca, axis, degreeSampling, getPool());
 			logger.info("Smoothing with LOESS");
 			LoessInterpolator loess = new LoessInterpolator(bandwidth, robustnessIterations, loessAccuracy);
 
@@ -116,6 +120,31 @@ public class PeakCountingOrderDetector implements OrderDetector {
 		this.loessAccuracy = loessAccuracy;
 	}
 
+	/**
+	 * Number of threads that sample the rotations.
+	 * @param parallelism
+	 * @see RotationOrderDetector#setParallelism(int)
+	 */
+	public synchronized void setParallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("Invalid parallelism: "+parallelism);
+		if (parallelism != this.parallelism)
+			pool = null;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @return the pool of the parallel samplings of the detector, or null for
+	 * a sequential sampling
+	 */
+	private synchronized ForkJoinPool getPool() {
+		if (parallelism <= 1)
+			return null;
+		if (pool == null)
+			pool = RotationOrderDetector.createPool(parallelism);
+		return pool;
+	}
+
 	@Override
 	public String toString() {
 		return "PeakCountingOrderDetector [maxOrder=" + maxOrder
@@ -1,12 +1,15 @@
 package org.biojava.nbio.structure.align.symm.order;
 
 import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.math3.util.Pair;
 import org.biojava.nbio.structure.Atom;
-import org.biojava.nbio.structure.Calc;
 import org.biojava.nbio.structure.StructureException;
-import org.biojava.nbio.structure.StructureTools;
 import org.biojava.nbio.structure.align.model.AFPChain;
 import org.biojava.nbio.structure.align.util.RotationAxis;
 import org.biojava.nbio.structure.jama.Matrix;
@@ -87,8 +90,13 @@ public class RotationOrderDetector implements OrderDetector {
 	public static final double DEFAULT_ANGLE_INCR = Math.toRadians(5);
 	private double angleIncr = DEFAULT_ANGLE_INCR; // angular resolution
 
+	/** Maximum number of angles computed by a task of a parallel sampling */
+	private static final int ANGLES_PER_TASK = 4;
+
 	private RotationOrderMethod method;
 	private double minAngle;
+	private int parallelism = 1; // threads of the angle sampling
+	private ForkJoinPool pool; // pool of the parallel sampling, on first use
 	public RotationOrderDetector() {
 		this(8);
 	}
@@ -135,6 +143,50 @@ public class RotationOrderDetector implements OrderDetector {
 		this.angleIncr = angleIncr;
 	}
 
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Set the number of threads that calculate the superposition distances
+	 * of the angles, which are independent. This is useful for single
+	 * structures on many cores, where there is no parallelism between
+	 * structures. The distances are the same as with a single thread.
+	 * All the samplings of the detector share one pool of threads.
+	 * @param parallelism number of threads, 1 for a sequential sampling
+	 */
+	public synchronized void setParallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("Invalid parallelism: "+parallelism);
+		if (parallelism != this.parallelism)
+			pool = null;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @return the pool of the parallel samplings of the detector, or null for
+	 * a sequential sampling
+	 */
+	synchronized ForkJoinPool getPool() {
+		if (parallelism <= 1)
+			return null;
+		if (pool == null)
+			pool = createPool(parallelism);
+		return pool;
+	}
+
+	/**
+	 * Pool of threads for the parallel sampling of the angles: the common
+	 * pool if it has the same parallelism, or a new pool. The threads of a
+	 * pool end when it is idle, so it does not need to be shut down.
+	 * @param parallelism number of threads, more than 1
+	 */
+	static ForkJoinPool createPool(int parallelism) {
+		if (ForkJoinPool.getCommonPoolParallelism() == parallelism)
+			return ForkJoinPool.commonPool();
+		return new ForkJoinPool(parallelism);
+	}
+
 	@Override
 	public int calculateOrder(AFPChain afpChain, Atom[] ca) throws RefinerFailedException {
 		//TODO only use aligned residues, rather than the whole ca
@@ -189,70 +241,120 @@ public class RotationOrderDetector implements OrderDetector {
 	/**
 	 * Returns an array of {@link #superpositionDistance(Atom[], Atom[]) superposition distances} of rotations of {@code ca}.
 	 * The {@code n}th element in the array corresponds to a rotation by {@code degreesIncrement * n} degrees.
+	 * The rotations are calculated by a {@link CylindricalSampler}.
 	 */
 	public static Pair<double[],double[]> sampleRotations(Atom[] ca, RotationAxis axis, double degreesIncrement) throws StructureException {
+		return sampleRotations(ca, axis, degreesIncrement, 1);
+	}
+
+	/**
+	 * As {@link #sampleRotations(Atom[], RotationAxis, double)}, with the
+	 * angles distributed among a number of threads.
+	 * @param parallelism number of threads, 1 for a sequential sampling
+	 */
+	public static Pair<double[],double[]> sampleRotations(Atom[] ca, RotationAxis axis, double degreesIncrement, int parallelism) throws StructureException {
+		if (parallelism <= 1)
+			return sampleRotations(ca, axis, degreesIncrement, (ForkJoinPool) null);
+		ForkJoinPool pool = createPool(parallelism);
+		try {
+			return sampleRotations(ca, axis, degreesIncrement, pool);
+		} finally {
+			if (pool != ForkJoinPool.commonPool())
+				pool.shutdown();
+		}
+	}
+
+	/**
+	 * As {@link #sampleRotations(Atom[], RotationAxis, double)}, with the
+	 * angles distributed among the threads of a pool.
+	 * @param pool pool of the threads, null for a sequential sampling
+	 */
+	static Pair<double[],double[]> sampleRotations(Atom[] ca, RotationAxis axis, double degreesIncrement, ForkJoinPool pool) throws StructureException {
 		final double angleIncr = Math.toRadians(degreesIncrement);
 		final int steps = (int)floor(2*PI/angleIncr);
 
 		double[] angles = new double[steps];
-		double[] distances = new double[steps];
-
-		Atom[] ca2 = StructureTools.cloneAtomArray(ca);
-		double angle = 0;
-
 		for (int step=0; step<steps;step++) {
-			angles[step] = angle;
-			double dist = superpositionDistance(ca, ca2);
-			distances[step] = dist;
-			// Rotate for next step
-			axis.rotate(ca2, angleIncr);
-			angle += angleIncr;
+			angles[step] = angleIncr*step;
 		}
+		double[] distances = getSuperpositionDistances(ca, axis, angles, pool);
 
 		return new Pair<double[], double[]>(angles, distances);
 
 	}
 
+	/**
+	 * Abort the rotation sampling if the thread has been interrupted, which
+	 * is how a time limit on the analysis is enforced.
+	 * The interrupted status is kept.
+	 * @throws CancellationException if the thread was interrupted
+	 */
+	private static void checkInterrupted() {
+		if (Thread.currentThread().isInterrupted())
+			throw new CancellationException("Rotation sampling interrupted");
+	}
+
 	/**
 	 * Provide a rough alignment-free metric for the similarity between two
 	 * superimposed structures.
 	 *
 	 * The average distance from each atom to the closest atom in the other
-	 * is used.
+	 * is used. The closest atoms are found with a {@link NearestNeighborGrid}
+	 * of each structure.
 	 * @param ca1 first structure
 	 * @param ca2 second structure
 	 * @return the average distance to the closest atom
 	 * @throws StructureException if an error occurs finding distances between atoms
 	 */
 	public static double superpositionDistance(Atom[] ca1, Atom[] ca2) throws StructureException {
+		double[] coords1 = NearestNeighborGrid.coordinates(ca1);
+		double[] coords2 = NearestNeighborGrid.coordinates(ca2);
+		return superpositionDistance(grid(coords1), coords1, coords2);
+	}
+
+	/**
+	 * @return the grid of the atoms, or null if there are none
+	 */
+	private static NearestNeighborGrid grid(double[] coords) {
+		return coords.length == 0 ? null : new NearestNeighborGrid(coords);
+	}
 
-		// Store the closest distance yet found
-		double[] bestDist1 = new double[ca1.length];
-		double[] bestDist2 = new double[ca2.length];
+	/**
+	 * Superposition distance of flat coordinates, with the grid of the first
+	 * structure, which is built once when the second structure is rotated
+	 * around it.
+	 */
+	private static double superpositionDistance(NearestNeighborGrid grid1, double[] coords1, double[] coords2) {
+		int n1 = coords1.length/3;
+		int n2 = coords2.length/3;
+
+		// Closest distance to the other structure, infinite if it is empty
+		double[] bestDist1 = new double[n1];
+		double[] bestDist2 = new double[n2];
 		Arrays.fill(bestDist1, Double.POSITIVE_INFINITY);
 		Arrays.fill(bestDist2, Double.POSITIVE_INFINITY);
 
-		for(int i=0;i<ca1.length;i++) {
-			for(int j=0;j<ca2.length;j++) {
-				double dist = Calc.getDistanceFast(ca1[i], ca2[j]);
-				if( dist < bestDist1[i]) {
-					bestDist1[i] = dist;
-				}
-				if( dist < bestDist2[j]) {
-					bestDist2[j] = dist;
-				}
+		NearestNeighborGrid grid2 = grid(coords2);
+		if(grid2 != null) {
+			for(int i=0;i<n1;i++) {
+				bestDist1[i] = grid2.getMinDistanceSq(coords1[3*i], coords1[3*i+1], coords1[3*i+2]);
+			}
+		}
+		if(grid1 != null) {
+			for(int j=0;j<n2;j++) {
+				bestDist2[j] = grid1.getMinDistanceSq(coords2[3*j], coords2[3*j+1], coords2[3*j+2]);
 			}
 		}
 
 		double total = 0;
-		for(int i=0;i<ca1.length;i++) {
+		for(int i=0;i<n1;i++) {
 			total += sqrt(bestDist1[i]);
 		}
-		for(int j=0;j<ca2.length;j++) {
+		for(int j=0;j<n2;j++) {
 			total += sqrt(bestDist2[j]);
 		}
 
-		double dist = total/(ca1.length+ca2.length);
+		double dist = total/(n1+n2);
 		return dist;
 	}
 
@@ -269,25 +371,93 @@ public class RotationOrderDetector implements OrderDetector {
 		return angles;
 	}
 	protected static double[] getSuperpositionDistances(Atom[] ca, RotationAxis axis, double[] angles) throws StructureException {
+		return getSuperpositionDistances(ca, axis, angles, null);
+	}
+
+	/**
+	 * Superposition distances of the rotations of {@code ca} by each angle.
+	 * Each rotation is calculated from the original coordinates, so the
+	 * angles can be distributed among the threads of a fork/join pool.
+	 * @param pool pool of the threads, null for a sequential sampling
+	 * @throws CancellationException if the thread was interrupted
+	 */
+	protected static double[] getSuperpositionDistances(Atom[] ca, RotationAxis axis, double[] angles, ForkJoinPool pool) throws StructureException {
 		int steps = angles.length;
 
 		double[] distances = new double[steps];
 		if(steps < 1) return distances;
 
-		Atom[] ca2 = StructureTools.cloneAtomArray(ca);
+		CylindricalSampler sampler = new CylindricalSampler(ca, axis);
+		double[] coords = sampler.getCoordinates();
+		NearestNeighborGrid grid = grid(coords);
 
-		// step 0
-		if(angles[0] > 0) {
-			axis.rotate(ca2, angles[0]);
-		}
-		distances[0] = superpositionDistance(ca, ca2);
-		for (int step=1; step<steps;step++) {
-			axis.rotate(ca2, angles[step]-angles[step-1]);
-			distances[step] = superpositionDistance(ca, ca2);
+		if (pool == null || steps <= ANGLES_PER_TASK) {
+			for (int step=0; step<steps;step++) {
+				checkInterrupted();
+				distances[step] = superpositionDistance(grid, coords, sampler.rotate(angles[step]));
+			}
+			return distances;
 		}
 
+		AngleRange task = new AngleRange(sampler, grid, angles, distances, 0, steps, new AtomicBoolean());
+		try {
+			pool.submit(task).get();
+		} catch (InterruptedException e) {
+			task.stopped.set(true);
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Rotation sampling interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
 		return distances;
 	}
+
+	/**
+	 * Fork/join task of the superposition distances of a range of angles,
+	 * split in halves until it is small enough for one thread.
+	 */
+	private static class AngleRange extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final CylindricalSampler sampler;
+		private final NearestNeighborGrid grid;
+		private final double[] angles;
+		private final double[] distances;
+		private final int from;
+		private final int to;
+		/** Set when the calling thread is interrupted */
+		final AtomicBoolean stopped;
+
+		AngleRange(CylindricalSampler sampler, NearestNeighborGrid grid, double[] angles, double[] distances, int from, int to, AtomicBoolean stopped) {
+			this.sampler = sampler;
+			this.grid = grid;
+			this.angles = angles;
+			this.distances = distances;
+			this.from = from;
+			this.to = to;
+			this.stopped = stopped;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > ANGLES_PER_TASK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new AngleRange(sampler, grid, angles, distances, from, middle, stopped),
+						new AngleRange(sampler, grid, angles, distances, middle, to, stopped));
+				return;
+			}
+			double[] coords = sampler.getCoordinates();
+			double[] rotated = new double[coords.length];
+			for (int step=from; step<to; step++) {
+				if (stopped.get())
+					return;
+				distances[step] = superpositionDistance(grid, coords, sampler.rotate(angles[step], rotated));
+			}
+		}
+	}
 	/**
 	 * Fit a method-dependent function f(theta,order) to the superposition
 	 * distance as atoms ca are rotated around an axis.
@@ -355,7 +525,7 @@ public class RotationOrderDetector implements OrderDetector {
 	 */
 	private double getSSEForFit(Atom[] ca, RotationAxis axis, int[] orders) throws StructureException {
 		double[] angles = getAngles();
-		double[] distances = getSuperpositionDistances(ca,axis, angles);
+		double[] distances = getSuperpositionDistances(ca,axis, angles, getPool());
 		return getSSEForFit(angles,distances,orders);
 	}
 	protected double getSSEForFit(double[] angles,double[] distances, int[] orders) throws StructureException {
@@ -398,7 +568,7 @@ public class RotationOrderDetector implements OrderDetector {
 	 */
 	private double[] getWeightsForFit(Atom[] ca, RotationAxis axis, int[] orders) throws StructureException {
 		double[] angles = getAngles();
-		double[] distances = getSuperpositionDistances(ca,axis, angles);
+		double[] distances = getSuperpositionDistances(ca,axis, angles, getPool());
 		return getWeightsForFit(angles, distances, orders);
 	}
 	protected double[] getWeightsForFit(double[] angles, double[] distances, int[] orders) throws StructureException {
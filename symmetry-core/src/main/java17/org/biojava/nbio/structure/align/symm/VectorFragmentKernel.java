@@ -0,0 +1,49 @@
+package org.biojava.nbio.structure.align.symm;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD implementation of the {@link FragmentKernel} with the Vector API, in
+ * the preferred vector size of the CPU (e.g. 4 doubles with AVX2 and 8 with
+ * AVX-512). It is compiled only on JDK 17 or later, to the Java 17 version
+ * of the multi-release jar, and loaded by {@link FragmentKernel#getInstance()}
+ * when the module {@code jdk.incubator.vector} is available.
+ *
+ * @author Aleix Lafita
+ *
+ */
+final class VectorFragmentKernel extends FragmentKernel {
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	@Override
+	public double sumAbsDiff(double[] a, int aOffset, double[] b,
+			int bOffset, int length) {
+		DoubleVector sum = DoubleVector.zero(SPECIES);
+		int k = 0;
+		int upperBound = SPECIES.loopBound(length);
+		for (; k < upperBound; k += SPECIES.length()) {
+			DoubleVector va = DoubleVector.fromArray(SPECIES, a, aOffset + k);
+			DoubleVector vb = DoubleVector.fromArray(SPECIES, b, bOffset + k);
+			sum = sum.add(va.sub(vb).abs());
+		}
+		double total = sum.reduceLanes(VectorOperators.ADD);
+		// Tail of the range, shorter than a vector
+		for (; k < length; k++)
+			total += Math.abs(a[aOffset + k] - b[bOffset + k]);
+		return total;
+	}
+
+	@Override
+	public int getVectorLength() {
+		return SPECIES.length();
+	}
+
+	@Override
+	public String getName() {
+		return "vector-" + SPECIES.length() + "x64";
+	}
+
+}
@@ -0,0 +1,84 @@
+package org.biojava.nbio.structure.align.symm;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test the bands of the {@link BandedFragmentMatrix} against the definition
+ * of the band of each block.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class BandedFragmentMatrixTest {
+
+	private static boolean inBand(int i, int j, int start1, int start2,
+			int length, int width) {
+		return i >= start1 - width && i < start1 + length + width
+				&& Math.abs(j - i - (start2 - start1)) <= width;
+	}
+
+	@Test
+	public void testRandomBlocks() {
+		Random rnd = new Random(0);
+		int rows = 120;
+		int cols = 90;
+		double[][] mat = new double[rows][cols];
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++)
+				mat[i][j] = rnd.nextDouble();
+		}
+		FragmentMatrix dense = new DenseFragmentMatrix(mat);
+
+		int blocks = 12;
+		int width = 3;
+		int[] starts1 = new int[blocks];
+		int[] starts2 = new int[blocks];
+		int[] lengths = new int[blocks];
+		for (int k = 0; k < blocks; k++) {
+			starts1[k] = rnd.nextInt(rows);
+			starts2[k] = rnd.nextInt(cols);
+			lengths[k] = 1 + rnd.nextInt(20);
+		}
+		BandedFragmentMatrix banded = new BandedFragmentMatrix(dense, starts1,
+				starts2, lengths, width);
+
+		long size = 0;
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				boolean expected = false;
+				for (int k = 0; k < blocks; k++)
+					expected |= inBand(i, j, starts1[k], starts2[k],
+							lengths[k], width);
+				assertEquals(expected, banded.contains(i, j));
+				assertEquals(expected ? mat[i][j]
+						: BandedFragmentMatrix.OUTSIDE_BANDS, banded.get(i, j),
+						0);
+				if (expected)
+					size++;
+			}
+		}
+		assertEquals(size, banded.size());
+
+		BandedFragmentMatrix copy = BandedFragmentMatrix.copyOf(dense,
+				starts1, starts2, lengths, width);
+		assertEquals(size, copy.size());
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++)
+				assertEquals(banded.get(i, j), copy.get(i, j), 0);
+		}
+	}
+
+	@Test
+	public void testNoBlocks() {
+		FragmentMatrix dense = new DenseFragmentMatrix(new double[10][10]);
+		BandedFragmentMatrix banded = new BandedFragmentMatrix(dense,
+				new int[0], new int[0], new int[0], 2);
+		assertEquals(0, banded.size());
+		assertEquals(BandedFragmentMatrix.OUTSIDE_BANDS, banded.get(5, 5), 0);
+	}
+
+}
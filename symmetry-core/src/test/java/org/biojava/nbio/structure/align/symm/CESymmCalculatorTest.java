@@ -0,0 +1,132 @@
+package org.biojava.nbio.structure.align.symm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.align.ce.CeParameters;
+import org.biojava.nbio.structure.align.model.AFPChain;
+import org.junit.Test;
+
+/**
+ * Test the traces of the {@link CESymmCalculator} search options against
+ * the sequential search, on a synthetic repeated structure.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class CESymmCalculatorTest {
+
+	private static final int WIN_SIZE = 8;
+
+	private static CESymmCalculator calculator(Atom[] ca, double[][] dist) {
+		CESymmCalculator calculator = new CESymmCalculator(new CeParameters());
+		calculator.setMatMatrix(FragmentMatrixBenchmark.fragmentMatrix(dist,
+				WIN_SIZE));
+		calculator.setDist1(dist);
+		calculator.setDist2(dist);
+		return calculator;
+	}
+
+	/**
+	 * @return the alternative traces, in a comparable form
+	 */
+	private static Set<String> bestTraces(CESymmCalculator calculator) {
+		Set<String> traces = new TreeSet<String>();
+		for (int[][] trace : calculator.getBestTraces())
+			traces.add(Arrays.toString(trace[0]) + Arrays.toString(trace[1]));
+		return traces;
+	}
+
+	@Test
+	public void testParallelTraces() {
+		Atom[] ca = FragmentMatrixBenchmark.repeatedStructure(240,
+				new Random(0));
+		double[][] dist = FragmentMatrixBenchmark.distanceMatrix(ca);
+
+		CESymmCalculator sequential = calculator(ca, dist);
+		sequential.traceFragmentMatrix(new AFPChain("CE-Symm"), ca, ca);
+		int[][] expected = sequential.getBestTrace();
+		assertTrue(expected[0].length > 1);
+
+		for (int parallelism = 2; parallelism <= 4; parallelism++) {
+			CESymmCalculator parallel = calculator(ca, dist);
+			parallel.setParallelism(parallelism);
+			parallel.traceFragmentMatrix(new AFPChain("CE-Symm"), ca, ca);
+			int[][] best = parallel.getBestTrace();
+			assertArrayEquals(expected[0], best[0]);
+			assertArrayEquals(expected[1], best[1]);
+			assertEquals(bestTraces(sequential), bestTraces(parallel));
+		}
+	}
+
+	@Test
+	public void testFlatLayouts() {
+		Atom[] ca = FragmentMatrixBenchmark.repeatedStructure(180,
+				new Random(1));
+		double[][] dist = FragmentMatrixBenchmark.distanceMatrix(ca);
+
+		CESymmCalculator dense = calculator(ca, dist);
+		dense.traceFragmentMatrix(new AFPChain("CE-Symm"), ca, ca);
+		int[][] expected = dense.getBestTrace();
+
+		// Copied from the fragment matrix, which is then released
+		CESymmCalculator copied = calculator(ca, dist);
+		copied.setMatrixStorage(FragmentMatrix.Storage.FLAT);
+		copied.traceFragmentMatrix(new AFPChain("CE-Symm"), ca, ca);
+		assertNull(copied.getMatMatrix());
+		assertArrayEquals(expected[0], copied.getBestTrace()[0]);
+		assertArrayEquals(expected[1], copied.getBestTrace()[1]);
+
+		// Calculated from the distance matrix, with the same excluded band
+		CESymmCalculator computed = new CESymmCalculator(new CeParameters());
+		computed.setDist1(dist);
+		computed.setDist2(dist);
+		computed.setMatrixStorage(FragmentMatrix.Storage.FLAT);
+		computed.setDiagonalBand(2 * WIN_SIZE);
+		computed.traceFragmentMatrix(new AFPChain("CE-Symm"), ca, ca);
+		assertNull(computed.getMatMatrix());
+		assertArrayEquals(expected[0], computed.getBestTrace()[0]);
+		assertArrayEquals(expected[1], computed.getBestTrace()[1]);
+	}
+
+	@Test
+	public void testCoarseTraces() {
+		Atom[] ca = FragmentMatrixBenchmark.repeatedStructure(240,
+				new Random(0));
+		double[][] dist = FragmentMatrixBenchmark.distanceMatrix(ca);
+
+		CESymmCalculator full = new CESymmCalculator(new CeParameters());
+		full.setDist1(dist);
+		full.setDist2(dist);
+		full.setMatrixStorage(FragmentMatrix.Storage.FLAT);
+		full.traceFragmentMatrix(new AFPChain("CE-Symm"), ca, ca);
+		int[][] expected = full.getBestTrace();
+
+		// Only the bands of the coarse traces are calculated
+		CESymmCalculator coarse = new CESymmCalculator(new CeParameters());
+		coarse.setDist1(dist);
+		coarse.setDist2(dist);
+		coarse.setCoarseStep(2);
+		coarse.traceFragmentMatrix(new AFPChain("CE-Symm"), ca, ca);
+		assertTrue(coarse.getFragmentMatrix() instanceof BandedFragmentMatrix);
+		BandedFragmentMatrix bands = (BandedFragmentMatrix) coarse
+				.getFragmentMatrix();
+		assertNull(bands.getMatrix());
+		assertTrue(bands.size() < ca.length * ca.length / 2);
+
+		// The full resolution search refines the coarse trace
+		int[][] best = coarse.getBestTrace();
+		assertTrue(best[0].length > 1);
+		assertArrayEquals(expected[0], best[0]);
+		assertArrayEquals(expected[1], best[1]);
+	}
+
+}
@@ -0,0 +1,102 @@
+package org.biojava.nbio.structure.align.symm;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test the fragment matrices of {@link FlatFragmentMatrix},
+ * {@link FloatFragmentMatrix} and {@link KernelFragmentMatrix} calculated
+ * from the distance matrices against the fragment matrix of CE.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class FlatFragmentMatrixTest {
+
+	private static final int WIN_SIZE = 8;
+
+	/**
+	 * Distance matrix of a random walk with CA-CA distances.
+	 */
+	private static double[][] randomDistances(int n, Random rnd) {
+		double[][] coords = new double[n][3];
+		for (int i = 1; i < n; i++) {
+			double x = rnd.nextGaussian();
+			double y = rnd.nextGaussian();
+			double z = rnd.nextGaussian();
+			double norm = Math.sqrt(x * x + y * y + z * z) / 3.8;
+			coords[i][0] = coords[i - 1][0] + x / norm;
+			coords[i][1] = coords[i - 1][1] + y / norm;
+			coords[i][2] = coords[i - 1][2] + z / norm;
+		}
+		double[][] dist = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				double dx = coords[i][0] - coords[j][0];
+				double dy = coords[i][1] - coords[j][1];
+				double dz = coords[i][2] - coords[j][2];
+				dist[i][j] = Math.sqrt(dx * dx + dy * dy + dz * dz);
+			}
+		}
+		return dist;
+	}
+
+	/**
+	 * Score of a fragment pair, as calculated by CE.
+	 */
+	private static double score(double[][] dist1, double[][] dist2, int i,
+			int j) {
+		if (i > dist1.length - WIN_SIZE || j > dist2.length - WIN_SIZE)
+			return -1.0;
+		double winSizeComb1 = (WIN_SIZE - 1) * (WIN_SIZE - 2) / 2;
+		double d = 0.0;
+		for (int is1 = 0; is1 < WIN_SIZE - 2; is1++) {
+			for (int is2 = is1 + 2; is2 < WIN_SIZE; is2++)
+				d += Math.abs(dist1[i + is1][i + is2] - dist2[j + is1][j + is2]);
+		}
+		return d / winSizeComb1;
+	}
+
+	@Test
+	public void testCompute() {
+		Random rnd = new Random(0);
+		double[][] dist1 = randomDistances(100, rnd);
+		double[][] dist2 = randomDistances(70, rnd);
+		FragmentMatrix flat = FlatFragmentMatrix.compute(dist1, dist2,
+				WIN_SIZE, 0);
+		FragmentMatrix single = FloatFragmentMatrix.compute(dist1, dist2,
+				WIN_SIZE, 0);
+		FragmentMatrix onDemand = new KernelFragmentMatrix(dist1, dist2,
+				WIN_SIZE, 0);
+
+		assertEquals(100, flat.getRows());
+		assertEquals(70, flat.getCols());
+		for (int i = 0; i < dist1.length; i++) {
+			for (int j = 0; j < dist2.length; j++) {
+				double expected = score(dist1, dist2, i, j);
+				assertEquals(expected, flat.get(i, j), 1e-12);
+				assertEquals((float) expected, single.get(i, j), 1e-6);
+				assertEquals(flat.get(i, j), onDemand.get(i, j), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testSelfAlignmentBand() {
+		double[][] dist = randomDistances(60, new Random(1));
+		int band = WIN_SIZE;
+		FragmentMatrix flat = FlatFragmentMatrix.compute(dist, dist, WIN_SIZE,
+				band);
+		for (int i = 0; i < dist.length; i++) {
+			for (int j = 0; j < dist.length; j++) {
+				double expected = Math.abs(i - j) < band ? -1.0 : score(dist,
+						dist, i, j);
+				assertEquals(expected, flat.get(i, j), 1e-12);
+			}
+		}
+	}
+
+}
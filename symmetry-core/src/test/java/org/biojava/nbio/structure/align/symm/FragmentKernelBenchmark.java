@@ -0,0 +1,91 @@
+package org.biojava.nbio.structure.align.symm;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.biojava.nbio.structure.Atom;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the scalar and the Vector API {@link FragmentKernel} in the
+ * calculation of the fragment scores of a self-alignment.
+ * <p>
+ * The forked JVMs inherit the options of the JVM that runs the main method,
+ * so it has to be started with {@code --add-modules jdk.incubator.vector} on
+ * JDK 17 or later, otherwise both kernels are scalar. To compare AVX2 and
+ * AVX-512 on the same host, add {@code -XX:UseAVX=2} or {@code -XX:UseAVX=3}.
+ *
+ * @author Aleix Lafita
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FragmentKernelBenchmark {
+
+	@Param({ "1000" })
+	public int length;
+
+	@Param({ "8", "16" })
+	public int winSize;
+
+	@Param({ "scalar", "default" })
+	public String kernel;
+
+	private FragmentKernel fragmentKernel;
+	private double[] table;
+	private int nDist;
+	private int nFragments;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Atom[] ca = FragmentMatrixBenchmark.repeatedStructure(length,
+				new Random(0));
+		double[][] dist = FragmentMatrixBenchmark.distanceMatrix(ca);
+		fragmentKernel = kernel.equals("scalar") ? FragmentKernel.getScalar()
+				: FragmentKernel.getInstance();
+		table = FragmentKernel.intraFragmentDistances(dist, winSize);
+		nDist = FragmentKernel.getDistancesPerFragment(winSize);
+		nFragments = table.length / nDist;
+		System.out.println("Kernel: " + fragmentKernel);
+	}
+
+	/**
+	 * Scores of all the fragment pairs of the upper triangle.
+	 */
+	@Benchmark
+	public double scores() {
+		double sum = 0;
+		for (int i = 0; i < nFragments; i++) {
+			for (int j = i + 1; j < nFragments; j++)
+				sum += fragmentKernel.sumAbsDiff(table, i * nDist, table, j
+						* nDist, nDist);
+		}
+		return sum;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder().include(
+				FragmentKernelBenchmark.class.getSimpleName()).build();
+		new Runner(options).run();
+	}
+
+}
@@ -0,0 +1,73 @@
+package org.biojava.nbio.structure.align.symm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test the {@link FragmentKernel} of the JVM against the scalar kernel.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class FragmentKernelTest {
+
+	@Test
+	public void testSumAbsDiff() {
+		Random rnd = new Random(0);
+		double[] a = new double[200];
+		double[] b = new double[200];
+		for (int i = 0; i < a.length; i++) {
+			a[i] = rnd.nextDouble() * 20;
+			b[i] = rnd.nextDouble() * 20;
+		}
+		FragmentKernel kernel = FragmentKernel.getInstance();
+		FragmentKernel scalar = FragmentKernel.getScalar();
+		// All the tails of the vector lengths
+		for (int length = 0; length <= 40; length++) {
+			for (int offset = 0; offset < 10; offset++) {
+				double expected = scalar.sumAbsDiff(a, offset, b, 2 * offset,
+						length);
+				assertEquals(expected, kernel.sumAbsDiff(a, offset, b,
+						2 * offset, length), 1e-12 * (1 + expected));
+			}
+		}
+	}
+
+	@Test
+	public void testInstanceRowLength() {
+		FragmentKernel scalar = FragmentKernel.getScalar();
+		for (int winSize = 3; winSize <= 20; winSize++) {
+			FragmentKernel kernel = FragmentKernel.getInstance(winSize);
+			int rowLength = FragmentKernel.getDistancesPerFragment(winSize);
+			assertTrue(kernel == scalar || kernel.getVectorLength()
+					* FragmentKernel.MIN_VECTORS_PER_ROW <= rowLength);
+		}
+		assertSame(scalar, FragmentKernel.getInstance(3));
+	}
+
+	@Test
+	public void testIntraFragmentDistances() {
+		int n = 12;
+		int winSize = 5;
+		double[][] dist = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++)
+				dist[i][j] = 100 * i + j;
+		}
+		double[] table = FragmentKernel.intraFragmentDistances(dist, winSize);
+		int nDist = FragmentKernel.getDistancesPerFragment(winSize);
+		assertEquals(6, nDist);
+		assertEquals((n - winSize + 1) * nDist, table.length);
+
+		// Pairs (0,2) (0,3) (0,4) (1,3) (1,4) (2,4) of the fragment at 3
+		double[] expected = { 305, 306, 307, 406, 407, 507 };
+		for (int k = 0; k < nDist; k++)
+			assertEquals(expected[k], table[3 * nDist + k], 0);
+	}
+
+}
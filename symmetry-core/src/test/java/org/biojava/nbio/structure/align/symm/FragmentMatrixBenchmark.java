@@ -0,0 +1,185 @@
+package org.biojava.nbio.structure.align.symm;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.AtomImpl;
+import org.biojava.nbio.structure.align.ce.CeParameters;
+import org.biojava.nbio.structure.align.model.AFPChain;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the layouts of the {@link FragmentMatrix} in the trace search of
+ * the {@link CESymmCalculator}, on a synthetic repeated structure.
+ * <p>
+ * The memory of each layout is the allocation per operation of the
+ * {@link #create()} benchmark, reported by the GC profiler (gc.alloc.rate.norm).
+ * Run it from the test classpath with the main method, or with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.biojava.nbio.structure.align.symm.FragmentMatrixBenchmark}.
+ *
+ * @author Aleix Lafita
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+public class FragmentMatrixBenchmark {
+
+	private static final int WIN_SIZE = 8;
+	private static final double RMSD_THR = new CeParameters().getRmsdThr();
+
+	@Param({ "500", "1500" })
+	public int length;
+
+	@Param({ "DENSE", "FLAT", "FLAT_FLOAT", "SYMMETRIC", "SPARSE" })
+	public FragmentMatrix.Storage storage;
+
+	private Atom[] ca;
+	private double[][] dist;
+	private double[][] mat;
+	private FragmentMatrix fragments;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		ca = repeatedStructure(length, new Random(0));
+		dist = distanceMatrix(ca);
+		mat = fragmentMatrix(dist, WIN_SIZE);
+		fragments = storage.create(mat, RMSD_THR);
+	}
+
+	/**
+	 * Atoms of a chain that winds three times around a circle, with noise.
+	 */
+	static Atom[] repeatedStructure(int length, Random rnd) {
+		Atom[] ca = new Atom[length];
+		for (int i = 0; i < length; i++) {
+			double t = i * 2 * Math.PI / (length / 3.0);
+			double u = Math.toRadians(i * 100.0);
+			Atom atom = new AtomImpl();
+			atom.setX(20 * Math.cos(t) + 2.3 * Math.cos(u) + rnd.nextGaussian()
+					* 0.5);
+			atom.setY(20 * Math.sin(t) + 2.3 * Math.sin(u) + rnd.nextGaussian()
+					* 0.5);
+			atom.setZ(1.5 * Math.sin(u * 0.3) + rnd.nextGaussian() * 0.5);
+			ca[i] = atom;
+		}
+		return ca;
+	}
+
+	static double[][] distanceMatrix(Atom[] ca) {
+		double[][] dist = new double[ca.length][ca.length];
+		for (int i = 0; i < ca.length; i++) {
+			for (int j = 0; j < ca.length; j++) {
+				double dx = ca[i].getX() - ca[j].getX();
+				double dy = ca[i].getY() - ca[j].getY();
+				double dz = ca[i].getZ() - ca[j].getZ();
+				dist[i][j] = Math.sqrt(dx * dx + dy * dy + dz * dz);
+			}
+		}
+		return dist;
+	}
+
+	/**
+	 * Fragment matrix of a self-alignment as in CE, without the fragment
+	 * pairs close to the diagonal.
+	 */
+	static double[][] fragmentMatrix(double[][] dist, int winSize) {
+		int n = dist.length;
+		double winSizeComb1 = (winSize - 1) * (winSize - 2) / 2.0;
+		double[][] mat = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				if (Math.abs(i - j) < 2 * winSize || i > n - winSize
+						|| j > n - winSize) {
+					mat[i][j] = -1;
+					continue;
+				}
+				double score = 0;
+				for (int a = 0; a < winSize; a++) {
+					for (int b = a + 2; b < winSize; b++)
+						score += Math.abs(dist[i + a][i + b] - dist[j + a][j + b]);
+				}
+				mat[i][j] = score / winSizeComb1;
+			}
+		}
+		return mat;
+	}
+
+	/**
+	 * Copy of the fragment matrix to the layout.
+	 */
+	@Benchmark
+	public FragmentMatrix create() {
+		return storage.create(mat, RMSD_THR);
+	}
+
+	/**
+	 * Reads of the trace search: every seed below the threshold and the gapped
+	 * extensions after it.
+	 */
+	@Benchmark
+	public void scan(Blackhole bh) {
+		int rows = fragments.getRows();
+		int cols = fragments.getCols();
+		double sum = 0;
+		for (int i = 0; i < rows - WIN_SIZE; i++) {
+			for (int j = 0; j < cols - WIN_SIZE; j++) {
+				double seed = fragments.get(i, j);
+				if (seed < 0 || seed > 3.0)
+					continue;
+				int k1 = i + WIN_SIZE;
+				int k2 = j + WIN_SIZE;
+				for (int gap = 0; gap < 30 && k1 + gap < rows
+						&& k2 + gap < cols; gap++) {
+					sum += fragments.get(k1 + gap, k2);
+					sum += fragments.get(k1, k2 + gap);
+				}
+			}
+		}
+		bh.consume(sum);
+	}
+
+	/**
+	 * Complete trace search of the self-alignment.
+	 */
+	@Benchmark
+	public CESymmCalculator trace() {
+		CESymmCalculator calculator = new CESymmCalculator(new CeParameters());
+		calculator.setMatrixStorage(storage);
+		calculator.setMatMatrix(mat);
+		calculator.setDist1(dist);
+		calculator.setDist2(dist);
+		calculator.traceFragmentMatrix(new AFPChain("CE-Symm"), ca, ca);
+		return calculator;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(FragmentMatrixBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class).build();
+		new Runner(options).run();
+	}
+
+}
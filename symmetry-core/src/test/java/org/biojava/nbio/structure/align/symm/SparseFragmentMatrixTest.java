@@ -0,0 +1,87 @@
+package org.biojava.nbio.structure.align.symm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test the {@link SparseFragmentMatrix} against the full fragment matrix.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class SparseFragmentMatrixTest {
+
+	private static final double THRESHOLD = 0.5;
+
+	/**
+	 * Random scores, with some excluded fragment pairs.
+	 */
+	private static double[][] randomMatrix(int rows, int cols, Random rnd) {
+		double[][] mat = new double[rows][cols];
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++)
+				mat[i][j] = rnd.nextInt(10) == 0 ? -1.0 : rnd.nextDouble();
+		}
+		return mat;
+	}
+
+	private static double expected(double score) {
+		return score > THRESHOLD ? SparseFragmentMatrix.ABOVE_THRESHOLD
+				: (float) score;
+	}
+
+	@Test
+	public void testCopy() {
+		double[][] mat = randomMatrix(50, 70, new Random(0));
+		SparseFragmentMatrix sparse = new SparseFragmentMatrix(mat, THRESHOLD);
+		assertEquals(50, sparse.getRows());
+		assertEquals(70, sparse.getCols());
+
+		int stored = 0;
+		for (int i = 0; i < 50; i++) {
+			for (int j = 0; j < 70; j++) {
+				assertEquals(expected(mat[i][j]), sparse.get(i, j), 0);
+				if (mat[i][j] <= THRESHOLD)
+					stored++;
+			}
+		}
+		assertEquals(stored, sparse.size());
+	}
+
+	@Test
+	public void testCompute() {
+		Random rnd = new Random(1);
+		int n = 100;
+		int winSize = 6;
+		int band = 4;
+		// Distances of random points, symmetric
+		double[][] dist = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = i + 1; j < n; j++) {
+				dist[i][j] = 3.8 + rnd.nextDouble() * 2;
+				dist[j][i] = dist[i][j];
+			}
+		}
+
+		SymmetricFragmentMatrix full = SymmetricFragmentMatrix.compute(dist,
+				winSize, band);
+		SparseFragmentMatrix sparse = SparseFragmentMatrix.compute(dist,
+				winSize, band, THRESHOLD);
+		int stored = 0;
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				double score = full.get(i, j);
+				assertEquals(expected(score), sparse.get(i, j), 0);
+				if (score <= THRESHOLD)
+					stored++;
+			}
+		}
+		assertEquals(stored, sparse.size());
+		assertTrue(sparse.size() < n * n);
+	}
+
+}
@@ -0,0 +1,100 @@
+package org.biojava.nbio.structure.align.symm;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import javax.vecmath.Matrix4d;
+import javax.vecmath.Point3d;
+
+import org.biojava.nbio.structure.align.util.RotationAxis;
+import org.biojava.nbio.structure.geometry.SuperPositions;
+import org.junit.Test;
+
+/**
+ * Test the rotation angle of {@link SuperpositionAngle} against the
+ * superposition of BioJava.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class SuperpositionAngleTest {
+
+	private static final double DELTA = 1e-9;
+
+	/**
+	 * Angle of the superposition of the fragments with the vecmath
+	 * implementation, as in the original CESymmCalculator.
+	 */
+	private static double referenceAngle(double[] coords1, int start1,
+			double[] coords2, int start2, int length) {
+		Point3d[] cod1 = new Point3d[length];
+		Point3d[] cod2 = new Point3d[length];
+		for (int i = 0; i < length; i++) {
+			int i1 = 3 * (start1 + i);
+			int i2 = 3 * (start2 + i);
+			cod1[i] = new Point3d(coords1[i1], coords1[i1 + 1],
+					coords1[i1 + 2]);
+			cod2[i] = new Point3d(coords2[i2], coords2[i2 + 1],
+					coords2[i2 + 2]);
+		}
+		Matrix4d transform = SuperPositions.superpose(cod1, cod2);
+		return RotationAxis.getAngle(transform);
+	}
+
+	@Test
+	public void testRandomFragments() {
+		Random rnd = new Random(0);
+		int winSize = 8;
+		double[] coords = new double[3 * 200];
+		// Random walk with CA-CA distances, like a protein chain
+		for (int i = 3; i < coords.length; i += 3) {
+			double x = rnd.nextGaussian();
+			double y = rnd.nextGaussian();
+			double z = rnd.nextGaussian();
+			double norm = Math.sqrt(x * x + y * y + z * z) / 3.8;
+			coords[i] = coords[i - 3] + x / norm;
+			coords[i + 1] = coords[i - 2] + y / norm;
+			coords[i + 2] = coords[i - 1] + z / norm;
+		}
+
+		for (int n = 0; n < 1000; n++) {
+			int start1 = rnd.nextInt(200 - winSize);
+			int start2 = rnd.nextInt(200 - winSize);
+			double expected = referenceAngle(coords, start1, coords, start2,
+					winSize);
+			double angle = SuperpositionAngle.getAngle(coords, start1, coords,
+					start2, winSize);
+			assertEquals(expected, angle, DELTA);
+		}
+	}
+
+	@Test
+	public void testKnownRotation() {
+		Random rnd = new Random(1);
+		int length = 10;
+		double[] coords1 = new double[3 * length];
+		for (int i = 0; i < coords1.length; i++)
+			coords1[i] = rnd.nextGaussian() * 5;
+
+		// Rotation of 120 degrees around the z axis, and a translation
+		double angle = Math.toRadians(120);
+		double cos = Math.cos(angle);
+		double sin = Math.sin(angle);
+		double[] coords2 = new double[3 * length];
+		for (int i = 0; i < coords1.length; i += 3) {
+			coords2[i] = cos * coords1[i] - sin * coords1[i + 1] + 10;
+			coords2[i + 1] = sin * coords1[i] + cos * coords1[i + 1] - 3;
+			coords2[i + 2] = coords1[i + 2] + 1;
+		}
+
+		assertEquals(angle, SuperpositionAngle.getAngle(coords1, 0, coords2, 0,
+				length), DELTA);
+		assertEquals(angle, SuperpositionAngle.getAngle(coords2, 0, coords1, 0,
+				length), DELTA);
+		// acos is not precise close to 1
+		assertEquals(0, SuperpositionAngle.getAngle(coords1, 0, coords1, 0,
+				length), 1e-6);
+	}
+
+}
@@ -0,0 +1,104 @@
+package org.biojava.nbio.structure.align.symm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test the packed upper triangle of {@link SymmetricFragmentMatrix} against
+ * the full fragment matrix.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class SymmetricFragmentMatrixTest {
+
+	private static final int WIN_SIZE = 8;
+
+	/**
+	 * Distance matrix of a random walk with CA-CA distances.
+	 */
+	private static double[][] randomDistances(int n, Random rnd) {
+		double[][] coords = new double[n][3];
+		for (int i = 1; i < n; i++) {
+			double x = rnd.nextGaussian();
+			double y = rnd.nextGaussian();
+			double z = rnd.nextGaussian();
+			double norm = Math.sqrt(x * x + y * y + z * z) / 3.8;
+			coords[i][0] = coords[i - 1][0] + x / norm;
+			coords[i][1] = coords[i - 1][1] + y / norm;
+			coords[i][2] = coords[i - 1][2] + z / norm;
+		}
+		double[][] dist = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				double dx = coords[i][0] - coords[j][0];
+				double dy = coords[i][1] - coords[j][1];
+				double dz = coords[i][2] - coords[j][2];
+				dist[i][j] = Math.sqrt(dx * dx + dy * dy + dz * dz);
+			}
+		}
+		return dist;
+	}
+
+	/**
+	 * Full fragment matrix, as calculated by CE.
+	 */
+	private static double[][] fullMatrix(double[][] dist) {
+		int n = dist.length;
+		double winSizeComb1 = (WIN_SIZE - 1) * (WIN_SIZE - 2) / 2;
+		double[][] mat = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				mat[i][j] = -1.0;
+				if (i > n - WIN_SIZE || j > n - WIN_SIZE)
+					continue;
+				double d = 0.0;
+				for (int is1 = 0; is1 < WIN_SIZE - 2; is1++) {
+					for (int is2 = is1 + 2; is2 < WIN_SIZE; is2++)
+						d += Math.abs(dist[i + is1][i + is2]
+								- dist[j + is1][j + is2]);
+				}
+				mat[i][j] = d / winSizeComb1;
+			}
+		}
+		return mat;
+	}
+
+	@Test
+	public void testCompute() {
+		double[][] dist = randomDistances(120, new Random(0));
+		double[][] mat = fullMatrix(dist);
+		int band = WIN_SIZE;
+		FragmentMatrix computed = SymmetricFragmentMatrix.compute(dist,
+				WIN_SIZE, band);
+		FragmentMatrix copied = new SymmetricFragmentMatrix(mat, band);
+
+		assertEquals(120, computed.getRows());
+		assertEquals(120, computed.getCols());
+		for (int i = 0; i < mat.length; i++) {
+			for (int j = 0; j < mat.length; j++) {
+				double expected = Math.abs(i - j) < band ? -1.0 : mat[i][j];
+				assertEquals(expected, computed.get(i, j), 1e-12);
+				assertEquals(expected, copied.get(i, j), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testSize() {
+		double[][] mat = fullMatrix(randomDistances(200, new Random(1)));
+		long dense = new DenseFragmentMatrix(mat).getSizeInBytes();
+		long symmetric = new SymmetricFragmentMatrix(mat, 0).getSizeInBytes();
+		assertTrue(symmetric < 0.6 * dense);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNotSquare() {
+		new SymmetricFragmentMatrix(new double[3][4], 0);
+	}
+
+}
@@ -0,0 +1,75 @@
+package org.biojava.nbio.structure.align.symm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.align.ce.CeParameters;
+import org.biojava.nbio.structure.align.model.AFPChain;
+import org.junit.Test;
+
+/**
+ * Test that a {@link TraceBudget} truncates the trace search of the
+ * {@link CESymmCalculator}, and that the default budget does not change the
+ * traces of a search that does not reach it.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class TraceBudgetTest {
+
+	private static final int WIN_SIZE = 8;
+
+	private static CESymmCalculator trace(TraceBudget budget) {
+		Atom[] ca = FragmentMatrixBenchmark.repeatedStructure(200,
+				new Random(0));
+		double[][] dist = FragmentMatrixBenchmark.distanceMatrix(ca);
+		CESymmCalculator calculator = new CESymmCalculator(new CeParameters());
+		calculator.setTraceBudget(budget);
+		calculator.setMatMatrix(FragmentMatrixBenchmark.fragmentMatrix(dist,
+				WIN_SIZE));
+		calculator.setDist1(dist);
+		calculator.setDist2(dist);
+		calculator.traceFragmentMatrix(new AFPChain("CE-Symm"), ca, ca);
+		return calculator;
+	}
+
+	@Test
+	public void testTruncated() {
+		CESymmCalculator calculator = trace(new TraceBudget(100, 0));
+		assertTrue(calculator.isTruncated());
+		assertTrue(calculator.getSearchStats().getTraces() <= 101);
+	}
+
+	@Test
+	public void testDefault() {
+		CESymmCalculator unlimited = trace(TraceBudget.UNLIMITED);
+		CESymmCalculator limited = trace(TraceBudget.DEFAULT);
+		assertFalse(unlimited.isTruncated());
+		assertFalse(limited.isTruncated());
+
+		int[][] expected = unlimited.getBestTrace();
+		assertArrayEquals(expected[0], limited.getBestTrace()[0]);
+		assertArrayEquals(expected[1], limited.getBestTrace()[1]);
+		int[][][] traces = unlimited.getBestTraces();
+		assertEquals(traces.length, limited.getBestTraces().length);
+		for (int t = 0; t < traces.length; t++) {
+			assertArrayEquals(traces[t][0], limited.getBestTraces()[t][0]);
+			assertArrayEquals(traces[t][1], limited.getBestTraces()[t][1]);
+		}
+	}
+
+	@Test
+	public void testDeadline() {
+		long start = System.nanoTime();
+		TraceBudget budget = new TraceBudget(0, Long.MAX_VALUE);
+		assertTrue(budget.getDeadline(start) - start > 0);
+		assertEquals(start + 2000000L,
+				new TraceBudget(0, 2).getDeadline(start));
+	}
+
+}
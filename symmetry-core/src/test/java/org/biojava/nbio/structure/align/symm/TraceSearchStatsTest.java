@@ -0,0 +1,61 @@
+package org.biojava.nbio.structure.align.symm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.align.ce.CeParameters;
+import org.biojava.nbio.structure.align.model.AFPChain;
+import org.junit.Test;
+
+/**
+ * Test the counters of the {@link TraceSearchStats} of the trace search.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class TraceSearchStatsTest {
+
+	private static final int WIN_SIZE = 8;
+
+	private static CESymmCalculator trace(int parallelism) {
+		Atom[] ca = FragmentMatrixBenchmark.repeatedStructure(200,
+				new Random(0));
+		double[][] dist = FragmentMatrixBenchmark.distanceMatrix(ca);
+		CESymmCalculator calculator = new CESymmCalculator(new CeParameters());
+		calculator.setParallelism(parallelism);
+		calculator.setMatMatrix(FragmentMatrixBenchmark.fragmentMatrix(dist,
+				WIN_SIZE));
+		calculator.setDist1(dist);
+		calculator.setDist2(dist);
+		calculator.traceFragmentMatrix(new AFPChain("CE-Symm"), ca, ca);
+		return calculator;
+	}
+
+	private static void assertConsistent(CESymmCalculator calculator) {
+		TraceSearchStats stats = calculator.getSearchStats();
+		FragmentAngleCache cache = calculator.getAngleCache();
+
+		assertTrue(stats.getIterations() > 0);
+		assertTrue(stats.getSeeds() > 0);
+		assertTrue(stats.getSeedsPruned() < stats.getSeeds());
+		assertTrue(stats.getTraces() > 0);
+		assertTrue(stats.getTraces() <= stats.getExtensions());
+		assertTrue(stats.getAngleChecks() <= stats.getTraces());
+		assertEquals(cache.getHits() + cache.getMisses(),
+				stats.getAngleChecks());
+	}
+
+	@Test
+	public void testSequential() {
+		assertConsistent(trace(1));
+	}
+
+	@Test
+	public void testParallel() {
+		assertConsistent(trace(4));
+	}
+
+}
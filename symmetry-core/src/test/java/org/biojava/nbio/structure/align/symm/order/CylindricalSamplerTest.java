@@ -0,0 +1,92 @@
+package org.biojava.nbio.structure.align.symm.order;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.AtomImpl;
+import org.biojava.nbio.structure.align.util.RotationAxis;
+import org.junit.Test;
+
+/**
+ * Test the rotations of the {@link CylindricalSampler} against rotation
+ * matrices.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class CylindricalSamplerTest {
+
+	private static final double DELTA = 1e-9;
+
+	private static Atom atom(double x, double y, double z) {
+		Atom atom = new AtomImpl();
+		atom.setX(x);
+		atom.setY(y);
+		atom.setZ(z);
+		return atom;
+	}
+
+	private static Atom[] randomAtoms(int n, Random rnd) {
+		Atom[] atoms = new Atom[n];
+		for (int i = 0; i < n; i++)
+			atoms[i] = atom(rnd.nextGaussian() * 20, rnd.nextGaussian() * 20,
+					rnd.nextGaussian() * 20);
+		return atoms;
+	}
+
+	@Test
+	public void testAxisZ() {
+		Atom[] atoms = randomAtoms(50, new Random(0));
+		// Axis parallel to z through (1, 2, 0)
+		RotationAxis axis = new RotationAxis(atom(0, 0, 1), atom(1, 2, 0),
+				Math.PI / 2);
+		CylindricalSampler sampler = new CylindricalSampler(atoms, axis);
+
+		for (double angle : new double[] { 0, 0.3, Math.PI / 2, 2.5, -1 }) {
+			double cos = Math.cos(angle);
+			double sin = Math.sin(angle);
+			double[] rotated = sampler.rotate(angle);
+			for (int i = 0; i < atoms.length; i++) {
+				double x = atoms[i].getX() - 1;
+				double y = atoms[i].getY() - 2;
+				assertEquals(cos * x - sin * y + 1, rotated[3 * i], DELTA);
+				assertEquals(sin * x + cos * y + 2, rotated[3 * i + 1], DELTA);
+				assertEquals(atoms[i].getZ(), rotated[3 * i + 2], DELTA);
+			}
+		}
+	}
+
+	@Test
+	public void testDistancesKept() {
+		Random rnd = new Random(1);
+		Atom[] atoms = randomAtoms(30, rnd);
+		RotationAxis axis = new RotationAxis(atom(0.3, -0.5, 0.8), atom(4, -1,
+				7), 1.0);
+		CylindricalSampler sampler = new CylindricalSampler(atoms, axis);
+		double[] coords = sampler.getCoordinates();
+
+		// A full turn is the identity
+		double[] rotated = sampler.rotate(2 * Math.PI);
+		for (int i = 0; i < coords.length; i++)
+			assertEquals(coords[i], rotated[i], DELTA);
+
+		// Rigid rotation: the distances between the atoms are the same
+		rotated = sampler.rotate(rnd.nextDouble() * 2 * Math.PI);
+		for (int i = 0; i < atoms.length; i++) {
+			for (int j = 0; j < atoms.length; j++) {
+				assertEquals(distance(coords, i, j), distance(rotated, i, j),
+						DELTA);
+			}
+		}
+	}
+
+	private static double distance(double[] coords, int i, int j) {
+		double dx = coords[3 * i] - coords[3 * j];
+		double dy = coords[3 * i + 1] - coords[3 * j + 1];
+		double dz = coords[3 * i + 2] - coords[3 * j + 2];
+		return Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+
+}
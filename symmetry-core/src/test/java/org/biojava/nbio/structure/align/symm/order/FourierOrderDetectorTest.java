@@ -0,0 +1,154 @@
+package org.biojava.nbio.structure.align.symm.order;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.AtomImpl;
+import org.biojava.nbio.structure.StructureException;
+import org.biojava.nbio.structure.align.symm.order.RotationOrderDetector.RotationOrderMethod;
+import org.biojava.nbio.structure.align.util.RotationAxis;
+import org.junit.Test;
+
+/**
+ * Test the amplitudes of the {@link FourierOrderDetector} against the
+ * least-squares fits of the {@link RotationOrderDetector}.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class FourierOrderDetectorTest {
+
+	private static Atom atom(double x, double y, double z) {
+		Atom atom = new AtomImpl();
+		atom.setX(x);
+		atom.setY(y);
+		atom.setZ(z);
+		return atom;
+	}
+
+	/**
+	 * Copies of a random unit rotated by multiples of 2*pi/order around z.
+	 */
+	private static Atom[] cyclicAtoms(int order, int n, Random rnd) {
+		Atom[] atoms = new Atom[order * n];
+		for (int i = 0; i < n; i++) {
+			double x = 10 + rnd.nextGaussian() * 4;
+			double y = rnd.nextGaussian() * 4;
+			double z = rnd.nextGaussian() * 4;
+			for (int k = 0; k < order; k++) {
+				double cos = Math.cos(2 * Math.PI * k / order);
+				double sin = Math.sin(2 * Math.PI * k / order);
+				atoms[k * n + i] = atom(cos * x - sin * y, sin * x + cos * y, z);
+			}
+		}
+		return atoms;
+	}
+
+	@Test
+	public void testLeastSquares() throws StructureException {
+		int samples = 64;
+		double[] angles = new double[samples];
+		double[] distances = new double[samples];
+		Random rnd = new Random(0);
+		for (int s = 0; s < samples; s++) {
+			angles[s] = 2 * Math.PI * s / samples;
+			distances[s] = 3 + rnd.nextDouble();
+		}
+
+		double[] amps = FourierOrderDetector.getAmplitudes(distances, 8);
+		RotationOrderDetector detector = new RotationOrderDetector(8,
+				RotationOrderMethod.SINGLE_HARMONIC_AMP);
+		for (int order = 1; order <= 8; order++) {
+			double[] weights = detector.getWeightsForFit(angles, distances,
+					new int[] { 0, order });
+			assertEquals(weights[1], amps[order - 1], 1e-9);
+		}
+	}
+
+	@Test
+	public void testHarmonics() {
+		int samples = 128;
+		double[] distances = new double[samples];
+		for (int s = 0; s < samples; s++) {
+			double angle = 2 * Math.PI * s / samples;
+			double sin3 = Math.sin(3 * angle / 2);
+			double sin5 = Math.sin(5 * angle / 2);
+			distances[s] = 2 + 1.5 * sin3 * sin3 + 0.4 * sin5 * sin5;
+		}
+		double[] amps = FourierOrderDetector.getAmplitudes(distances, 10);
+		for (int order = 1; order <= 10; order++) {
+			double expected = order == 3 ? 1.5 : order == 5 ? 0.4 : 0;
+			assertEquals(expected, amps[order - 1], 1e-12);
+		}
+	}
+
+	@Test
+	public void testCyclicStructures() throws StructureException {
+		Random rnd = new Random(1);
+		RotationAxis axis = new RotationAxis(atom(0, 0, 1), atom(0, 0, 0),
+				Math.PI);
+		FourierOrderDetector detector = new FourierOrderDetector(8);
+		for (int order = 2; order <= 7; order++) {
+			Atom[] atoms = cyclicAtoms(order, 40, rnd);
+			double[] amps = detector.getAmplitudes(atoms, axis);
+			int best = 0;
+			for (int i = 1; i < amps.length; i++) {
+				if (amps[i] > amps[best])
+					best = i;
+			}
+			assertEquals(order, best + 1);
+		}
+	}
+
+	@Test
+	public void testParallelDistances() throws StructureException {
+		Atom[] atoms = cyclicAtoms(5, 40, new Random(2));
+		RotationAxis axis = new RotationAxis(atom(0, 0, 1), atom(0, 0, 0),
+				Math.PI);
+		double[] angles = new double[100];
+		for (int step = 0; step < angles.length; step++)
+			angles[step] = 2 * Math.PI * step / angles.length;
+		double[] expected = RotationOrderDetector.getSuperpositionDistances(
+				atoms, axis, angles);
+
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try {
+			assertArrayEquals(expected, RotationOrderDetector
+					.getSuperpositionDistances(atoms, axis, angles, pool), 0);
+		} finally {
+			pool.shutdown();
+		}
+
+		// The detector reuses its pool between the samplings
+		FourierOrderDetector detector = new FourierOrderDetector(8);
+		double[] sequential = detector.getAmplitudes(atoms, axis);
+		detector.setParallelism(3);
+		ForkJoinPool shared = detector.getPool();
+		assertArrayEquals(sequential, detector.getAmplitudes(atoms, axis), 0);
+		assertSame(shared, detector.getPool());
+	}
+
+	@Test
+	public void testSampleCount() {
+		assertEquals(128, new FourierOrderDetector(8).getSampleCount());
+		assertEquals(512, new FourierOrderDetector(100).getSampleCount());
+		assertEquals(FourierOrderDetector.MAX_SAMPLES,
+				new FourierOrderDetector(8, 1e-12).getSampleCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidAngleIncr() {
+		new FourierOrderDetector(8, 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidMaxOrder() {
+		new FourierOrderDetector(8).setMaxOrder(0);
+	}
+
+}
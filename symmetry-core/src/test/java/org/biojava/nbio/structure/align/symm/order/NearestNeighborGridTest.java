@@ -0,0 +1,101 @@
+package org.biojava.nbio.structure.align.symm.order;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.AtomImpl;
+import org.biojava.nbio.structure.Calc;
+import org.junit.Test;
+
+/**
+ * Test the closest atoms of the {@link NearestNeighborGrid} against the search
+ * over all the atoms.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class NearestNeighborGridTest {
+
+	private static Atom atom(double x, double y, double z) {
+		Atom atom = new AtomImpl();
+		atom.setX(x);
+		atom.setY(y);
+		atom.setZ(z);
+		return atom;
+	}
+
+	/**
+	 * Random walk with CA-CA distances, like a protein chain.
+	 */
+	private static Atom[] randomChain(int n, Random rnd) {
+		Atom[] atoms = new Atom[n];
+		atoms[0] = atom(0, 0, 0);
+		for (int i = 1; i < n; i++) {
+			double x = rnd.nextGaussian();
+			double y = rnd.nextGaussian();
+			double z = rnd.nextGaussian();
+			double norm = Math.sqrt(x * x + y * y + z * z) / 3.8;
+			atoms[i] = atom(atoms[i - 1].getX() + x / norm, atoms[i - 1].getY()
+					+ y / norm, atoms[i - 1].getZ() + z / norm);
+		}
+		return atoms;
+	}
+
+	private static double bruteForce(Atom[] atoms, Atom point) {
+		double best = Double.POSITIVE_INFINITY;
+		for (Atom atom : atoms)
+			best = Math.min(best, Calc.getDistanceFast(point, atom));
+		return best;
+	}
+
+	@Test
+	public void testRandomPoints() {
+		Random rnd = new Random(0);
+		Atom[] atoms = randomChain(500, rnd);
+		NearestNeighborGrid grid = new NearestNeighborGrid(atoms);
+
+		// Points inside and far outside the grid
+		for (int n = 0; n < 2000; n++) {
+			Atom point = atom(rnd.nextGaussian() * 60, rnd.nextGaussian() * 60,
+					rnd.nextGaussian() * 60);
+			assertEquals(bruteForce(atoms, point), grid.getMinDistanceSq(
+					point.getX(), point.getY(), point.getZ()), 0);
+		}
+		// The atoms themselves
+		for (Atom atom : atoms)
+			assertEquals(0, grid.getMinDistanceSq(atom.getX(), atom.getY(),
+					atom.getZ()), 0);
+	}
+
+	@Test
+	public void testCutoff() {
+		Random rnd = new Random(1);
+		Atom[] atoms = randomChain(200, rnd);
+		NearestNeighborGrid grid = new NearestNeighborGrid(atoms);
+		double cutoff = 5.0 * 5.0;
+
+		for (int n = 0; n < 1000; n++) {
+			Atom point = atom(rnd.nextGaussian() * 40, rnd.nextGaussian() * 40,
+					rnd.nextGaussian() * 40);
+			double expected = Math.min(cutoff, bruteForce(atoms, point));
+			assertEquals(expected, grid.getMinDistanceSq(point.getX(),
+					point.getY(), point.getZ(), cutoff), 0);
+		}
+	}
+
+	@Test
+	public void testFlatStructure() {
+		// All the atoms in a plane, and a single atom
+		Atom[] atoms = new Atom[50];
+		for (int i = 0; i < atoms.length; i++)
+			atoms[i] = atom(i * 3.8, 0, 0);
+		NearestNeighborGrid grid = new NearestNeighborGrid(atoms);
+		assertEquals(4.0, grid.getMinDistanceSq(10 * 3.8, 2, 0), 1e-12);
+
+		grid = new NearestNeighborGrid(new Atom[] { atom(1, 2, 3) });
+		assertEquals(14.0, grid.getMinDistanceSq(0, 0, 0), 0);
+	}
+
+}
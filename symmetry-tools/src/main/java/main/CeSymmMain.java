@@ -1,14 +1,13 @@
 package main;
 
-import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Scanner;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -40,15 +39,23 @@ import org.biojava.nbio.structure.symmetry.internal.CESymmParameters.SymmetryTyp
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import workers.BoundedExecutor;
+import workers.CompletionJournal;
+import workers.JobWatchdog;
+import workers.StructureSizeEstimator;
+import workers.CeSymmResultCache;
 import workers.CeSymmWorker;
+import workers.StructureLoader;
 import writers.CeSymmAxesWriter;
 import writers.CeSymmFastaWriter;
 import writers.CeSymmFatcatWriter;
 import writers.CeSymmSimpleWriter;
 import writers.CeSymmStatsWriter;
+import writers.CeSymmJobTimesWriter;
 import writers.CeSymmTsvWriter;
 import writers.CeSymmWriter;
 import writers.CeSymmXMLWriter;
+import writers.ReorderBuffer;
 
 /**
  * Main executable for running CE-Symm. Run with -h for usage help, or without
@@ -63,6 +70,18 @@ public class CeSymmMain {
 	private static final Logger logger = LoggerFactory
 			.getLogger(CeSymmMain.class);
 
+	/** Number of queued jobs per thread when reading the input lazily */
+	private static final int JOBS_PER_THREAD = 2;
+	/** Default size of the --ordered reorder buffer per thread */
+	private static final int ORDER_BUFFER_PER_THREAD = 16;
+	/**
+	 * Options that write files of a batch run, which have no meaning in the
+	 * service mode: each request chooses its output format
+	 */
+	private static final String[] SERVER_EXCLUDED_OPTIONS = { "simple",
+			"stats", "tsv", "xml", "fatcat", "fasta", "axes", "timings",
+			"journal", "resume" };
+
 	public static void main(String[] args) throws InterruptedException {
 		// Begin argument parsing
 		final String usage = "[OPTIONS] [structures...]";
@@ -104,20 +123,49 @@ public class CeSymmMain {
 			return;
 		}
 
-		// input structures
-		List<String> names;
-		if (cli.hasOption("input")) {
-			// read from file
+		// Service mode, listening for requests on a local port
+		int serverPort = 0;
+		if (cli.hasOption("server")) {
+			String strVal = cli.getOptionValue("server");
+			try {
+				serverPort = Integer.parseInt(strVal);
+			} catch (NumberFormatException e) {
+				serverPort = -1;
+			}
+			if (serverPort < 1 || serverPort > 65535) {
+				logger.error("Invalid server port: " + strVal);
+				System.exit(1);
+				return;
+			}
+			// The results go to the connections, never to files
+			for (String name : SERVER_EXCLUDED_OPTIONS) {
+				if (cli.hasOption(name)) {
+					logger.error("Error: --" + name
+							+ " can not be used with --server");
+					System.exit(1);
+					return;
+				}
+			}
+		}
+
+		// input structures, read lazily from the input file
+		Iterator<String> names;
+		StructureNameReader reader = null;
+		if (serverPort > 0) {
+			// structures are given in the requests
+			names = Collections.<String> emptyIterator();
+		} else if (cli.hasOption("input")) {
+			// read from file and append cli arguments
 			try {
-				names = parseInputStructures(cli.getOptionValue("input"));
+				reader = new StructureNameReader(cli.getOptionValue("input"),
+						Arrays.asList(args));
 			} catch (FileNotFoundException e) {
 				logger.error("Error: File not found: "
 						+ cli.getOptionValue("input"));
 				System.exit(1);
 				return;
 			}
-			// append cli arguments
-			names.addAll(Arrays.asList(args));
+			names = reader;
 		} else {
 			if (args.length == 0) {
 				// No structures given; prompt user with GUI
@@ -125,13 +173,25 @@ public class CeSymmMain {
 				return;
 			} else {
 				// take names from the command line arguments
-				names = Arrays.asList(args);
+				names = Arrays.asList(args).iterator();
+			}
+		}
+
+		// Only analyze the structures of one shard of the input
+		if (cli.hasOption("shard")) {
+			try {
+				Shard shard = Shard.parse(cli.getOptionValue("shard"));
+				names = shard.filter(names);
+			} catch (IllegalArgumentException e) {
+				logger.error("Error: " + e.getMessage());
+				System.exit(1);
+				return;
 			}
 		}
 
 		// Show jmol?
 		// Default to false with --input or with >=10 structures
-		boolean displayAlignment = !cli.hasOption("input") && names.size() < 10;
+		boolean displayAlignment = !cli.hasOption("input") && args.length < 10;
 		if (cli.hasOption("noshow3d")) {
 			displayAlignment = false;
 		}
@@ -146,6 +206,20 @@ public class CeSymmMain {
 			pdbFilePath = FileDownloadUtils.expandUserHome(pdbFilePath);
 		}
 
+		// Persistent store of results
+		CeSymmResultCache resultCache = null;
+		if (cli.hasOption("resultcache")) {
+			String dirname = cli.getOptionValue("resultcache");
+			dirname = FileDownloadUtils.expandUserHome(dirname);
+			try {
+				resultCache = new CeSymmResultCache(dirname);
+			} catch (IOException e) {
+				logger.error("Error: " + e.getMessage());
+				System.exit(1);
+				return;
+			}
+		}
+
 		// SCOP version
 		if (cli.hasOption("scopversion")) {
 			String scopVersion = cli.getOptionValue("scopversion");
@@ -162,6 +236,141 @@ public class CeSymmMain {
 			ctx.updateLoggers();  // This causes all Loggers to refetch information from their LoggerConfig.
 		}
 
+		// Checkpointing: journal of completed structures and resume
+		String journalFile = null;
+		if (cli.hasOption("journal")) {
+			journalFile = cli.getOptionValue("journal");
+			journalFile = FileDownloadUtils.expandUserHome(journalFile);
+		}
+		boolean resume = cli.hasOption("resume");
+		if (resume && journalFile == null) {
+			logger.error("Error: --resume requires --journal");
+			System.exit(1);
+			return;
+		}
+		Set<String> completed = Collections.emptySet();
+		CompletionJournal journal = null;
+		if (journalFile != null) {
+			try {
+				if (resume) {
+					completed = CompletionJournal.readCompleted(journalFile);
+					logger.info("Resuming: skipping " + completed.size()
+							+ " completed structures");
+				}
+				journal = new CompletionJournal(journalFile, resume);
+			} catch (IOException e) {
+				logger.error("Error: Could not open journal " + journalFile
+						+ ": " + e.getMessage());
+				System.exit(1);
+				return;
+			}
+		}
+
+		// Scheduling order
+		String sizeIndex = null;
+		if (cli.hasOption("sizeindex")) {
+			sizeIndex = cli.getOptionValue("sizeindex");
+			sizeIndex = FileDownloadUtils.expandUserHome(sizeIndex);
+		}
+		boolean largestFirst = cli.hasOption("largestfirst") || sizeIndex != null;
+
+		// Multithreading
+
+		Integer threads = Runtime.getRuntime().availableProcessors();
+		if (cli.hasOption("threads")) {
+			threads = new Integer(cli.getOptionValue("threads"));
+			if (threads < 1) {
+				threads = 1;
+			}
+		}
+		// Structure loading threads (0: load in the compute threads)
+		int loaderThreads = 0;
+		if (cli.hasOption("loaderthreads")) {
+			String strVal = cli.getOptionValue("loaderthreads");
+			try {
+				loaderThreads = Integer.parseInt(strVal);
+				if (loaderThreads < 0) {
+					logger.error("Invalid loaderthreads: " + strVal);
+					System.exit(1);
+				}
+			} catch (NumberFormatException e) {
+				logger.error("Invalid loaderthreads: " + strVal);
+				System.exit(1);
+			}
+		}
+
+		// Output in input order, with a bounded reorder buffer (0: unordered)
+		int orderBuffer = 0;
+		if (cli.hasOption("ordered")) {
+			orderBuffer = ORDER_BUFFER_PER_THREAD * threads;
+			String strVal = cli.getOptionValue("ordered");
+			if (strVal != null) {
+				try {
+					orderBuffer = Integer.parseInt(strVal);
+					if (orderBuffer < 1) {
+						logger.error("Invalid ordered: " + strVal);
+						System.exit(1);
+					}
+				} catch (NumberFormatException e) {
+					logger.error("Invalid ordered: " + strVal);
+					System.exit(1);
+				}
+			}
+		}
+
+		// Time limit per structure (0: no limit)
+		long timeout = 0;
+		if (cli.hasOption("timeout")) {
+			String strVal = cli.getOptionValue("timeout");
+			try {
+				timeout = Math.round(Double.parseDouble(strVal) * 1000);
+				if (timeout < 0) {
+					logger.error("Invalid timeout: " + strVal);
+					System.exit(1);
+				}
+			} catch (NumberFormatException e) {
+				logger.error("Invalid timeout: " + strVal);
+				System.exit(1);
+			}
+		}
+
+		CESymmParameters params;
+		try {
+			params = parseParameters(cli);
+		} catch (ParseException e) {
+			logger.error(e.getMessage());
+			System.exit(1);
+			return;
+		}
+
+		// Done parsing arguments
+
+		// Configure atomcache
+		UserConfiguration cacheConfig = new UserConfiguration();
+		if (pdbFilePath != null && !pdbFilePath.isEmpty()) {
+			cacheConfig.setPdbFilePath(pdbFilePath);
+			cacheConfig.setCacheFilePath(pdbFilePath);
+		}
+		AtomCache cache = new AtomCache(cacheConfig);
+		cache.setObsoleteBehavior(ObsoleteBehavior.FETCH_OBSOLETE);
+
+		if (serverPort > 0) {
+			CeSymmServer server = new CeSymmServer(serverPort, cache,
+					new BoundedExecutor(threads, JOBS_PER_THREAD * threads));
+			server.setResultCache(resultCache);
+			server.setAllowFiles(cli.hasOption("serverfiles"));
+			if (timeout > 0)
+				server.setWatchdog(new JobWatchdog(timeout));
+			try {
+				server.serve();
+			} catch (IOException e) {
+				logger.error("Error: Could not start server on port "
+						+ serverPort + ": " + e.getMessage());
+				System.exit(1);
+			}
+			return;
+		}
+
 		// Output formats
 		List<CeSymmWriter> writers = new ArrayList<CeSymmWriter>();
 
@@ -171,7 +380,7 @@ public class CeSymmMain {
 			if(filename == null || filename.isEmpty())
 				filename = "-"; // standard out
 			try {
-				writers.add(new CeSymmSimpleWriter(filename));
+				writers.add(new CeSymmSimpleWriter(filename, resume));
 			} catch (IOException e) {
 				logger.error("Error: Ignoring file " + filename + ".");
 				logger.error(e.getMessage());
@@ -183,7 +392,7 @@ public class CeSymmMain {
 			if(filename == null || filename.isEmpty())
 				filename = "-"; // standard out
 			try {
-				writers.add(new CeSymmStatsWriter(filename));
+				writers.add(new CeSymmStatsWriter(filename, resume));
 			} catch (IOException e) {
 				logger.error("Error: Ignoring file " + filename + ".");
 				logger.error(e.getMessage());
@@ -195,7 +404,7 @@ public class CeSymmMain {
 			if(filename == null || filename.isEmpty())
 				filename = "-"; // standard out
 			try {
-				writers.add(new CeSymmTsvWriter(filename));
+				writers.add(new CeSymmTsvWriter(filename, resume));
 			} catch (IOException e) {
 				logger.error("Error: Ignoring file " + filename + ".");
 				logger.error(e.getMessage());
@@ -207,7 +416,7 @@ public class CeSymmMain {
 			if(filename == null || filename.isEmpty())
 				filename = "-"; // standard out
 			try {
-				writers.add(new CeSymmXMLWriter(filename));
+				writers.add(new CeSymmXMLWriter(filename, resume));
 			} catch (IOException e) {
 				logger.error("Error: Ignoring file " + filename + ".");
 				logger.error(e.getMessage());
@@ -220,7 +429,7 @@ public class CeSymmMain {
 			if(filename == null || filename.isEmpty())
 				filename = "-"; // standard out
 			try {
-				writers.add(new CeSymmFatcatWriter(filename));
+				writers.add(new CeSymmFatcatWriter(filename, resume));
 			} catch (IOException e) {
 				logger.error("Error: Ignoring file " + filename + ".");
 				logger.error(e.getMessage());
@@ -232,7 +441,7 @@ public class CeSymmMain {
 			if(filename == null || filename.isEmpty())
 				filename = "-"; // standard out
 			try {
-				writers.add(new CeSymmFastaWriter(filename));
+				writers.add(new CeSymmFastaWriter(filename, resume));
 			} catch (IOException e) {
 				logger.error("Error: Ignoring file " + filename + ".");
 				logger.error(e.getMessage());
@@ -244,7 +453,7 @@ public class CeSymmMain {
 			if(filename == null || filename.isEmpty())
 				filename = "-"; // standard out
 			try {
-				writers.add(new CeSymmAxesWriter(filename));
+				writers.add(new CeSymmAxesWriter(filename, resume));
 			} catch (IOException e) {
 				logger.error("Error: Ignoring file " + filename + ".");
 				logger.error(e.getMessage());
@@ -260,16 +469,130 @@ public class CeSymmMain {
 			}
 		}
 
+		// Wall-clock times of the jobs
+		CeSymmJobTimesWriter timingsWriter = null;
+		if (cli.hasOption("timings")) {
+			String filename = cli.getOptionValue("timings");
+			if(filename == null || filename.isEmpty())
+				filename = "-"; // standard out
+			try {
+				timingsWriter = new CeSymmJobTimesWriter(filename, resume);
+			} catch (IOException e) {
+				logger.error("Error: Ignoring file " + filename + ".");
+				logger.error(e.getMessage());
+			}
+		}
 
-		// Multithreading
+		// Schedule the largest structures first, to shorten the tail of the
+		// batch. This requires all the names in memory.
+		if (largestFirst) {
+			List<String> pending = new ArrayList<String>();
+			while (names.hasNext()) {
+				String name = names.next();
+				if (!completed.contains(new StructureName(name).getIdentifier()))
+					pending.add(name);
+			}
+			if (reader != null) {
+				reader.close();
+				reader = null;
+			}
+			StructureSizeEstimator estimator = new StructureSizeEstimator(cache);
+			if (sizeIndex != null) {
+				try {
+					estimator.readIndex(sizeIndex);
+				} catch (FileNotFoundException e) {
+					logger.error("Error: File not found: " + sizeIndex);
+					System.exit(1);
+					return;
+				}
+			}
+			names = estimator.sortLargestFirst(pending, threads).iterator();
+		}
 
-		Integer threads = Runtime.getRuntime().availableProcessors();
-		if (cli.hasOption("threads")) {
-			threads = new Integer(cli.getOptionValue("threads"));
-			if (threads < 1) {
-				threads = 1;
+		// Write the headers of the files, unless resuming into them
+		for (CeSymmWriter writer : writers) {
+			if (writer.isAppending())
+				continue;
+			try {
+				writer.writeHeader();
+			} catch (IOException e) {
+				logger.error("Could not write header to file.", e);
 			}
 		}
+		if (timingsWriter != null && !timingsWriter.isAppending())
+			timingsWriter.writeHeader();
+		long startTime = System.nanoTime();
+
+		// Start the workers in a fixed threaded pool, with a bounded number of
+		// jobs in flight so that the input is consumed as the workers progress
+		BoundedExecutor executor = new BoundedExecutor(threads,
+				JOBS_PER_THREAD * threads);
+		// Optionally, prefetch the structures in a separate loader pool, which
+		// hands them to the compute pool as soon as there is room
+		BoundedExecutor loaders = null;
+		if (loaderThreads > 0)
+			loaders = new BoundedExecutor(loaderThreads, loaderThreads);
+		JobWatchdog watchdog = null;
+		if (timeout > 0)
+			watchdog = new JobWatchdog(timeout);
+		ReorderBuffer reorder = null;
+		if (orderBuffer > 0)
+			reorder = new ReorderBuffer(orderBuffer);
+		int jobs = 0;
+		while (names.hasNext()) {
+			StructureIdentifier id = new StructureName(names.next());
+			if (completed.contains(id.getIdentifier()))
+				continue;
+			CeSymmWorker worker = new CeSymmWorker(id, params, cache, writers,
+					displayAlignment);
+			worker.setResultCache(resultCache);
+			worker.setJournal(journal);
+			worker.setWatchdog(watchdog);
+			worker.setTimingsWriter(timingsWriter);
+			if (reorder != null)
+				worker.setReorderBuffer(reorder, reorder.nextSequence());
+			if (loaders != null)
+				loaders.execute(new StructureLoader(worker, executor));
+			else
+				executor.execute(worker);
+			jobs++;
+		}
+		if (reader != null)
+			reader.close();
+		if (loaders != null)
+			loaders.shutdownAndAwait();
+		executor.shutdownAndAwait();
+		if (watchdog != null)
+			watchdog.shutdown();
+
+		long elapsed = (System.nanoTime() - startTime) / 1000000;
+		long meanRT = (long) (elapsed / (float) jobs);
+		logger.info("Total runtime: " + elapsed + ", mean runtime: " + meanRT);
+
+		// Close any writers of output
+		for (CeSymmWriter writer : writers)
+			writer.close();
+		if (timingsWriter != null)
+			timingsWriter.close();
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				logger.error("Could not close journal " + journalFile, e);
+			}
+		}
+	}
+
+	/**
+	 * Parses the CE-Symm parameters from the command line.
+	 * 
+	 * @param cli
+	 * @return the parameters
+	 * @throws ParseException
+	 *             if a parameter has an invalid value
+	 */
+	static CESymmParameters parseParameters(CommandLine cli)
+			throws ParseException {
 
 		CESymmParameters params = new CESymmParameters();
 
@@ -278,13 +601,11 @@ public class CeSymmMain {
 			try {
 				int gap = Integer.parseInt(gapStr);
 				if (gap < 1) {
-					logger.error("Invalid maxgapsize: " + gap);
-					System.exit(1);
+					throw new ParseException("Invalid maxgapsize: " + gap);
 				}
 				params.setMaxGapSize(gap);
 			} catch (NumberFormatException e) {
-				logger.error("Invalid maxgapsize: " + gapStr);
-				System.exit(1);
+				throw new ParseException("Invalid maxgapsize: " + gapStr);
 			}
 		}
 		if (cli.hasOption("scoringstrategy")) {
@@ -295,9 +616,8 @@ public class CeSymmMain {
 				params.setScoringStrategy(strat);
 			} catch (IllegalArgumentException e) {
 				// give up
-				logger.error("Illegal scoringstrategy. Requires on of "
+				throw new ParseException("Illegal scoringstrategy. Requires on of "
 						+ CliTools.getEnumValuesAsString(ScoringStrategy.class));
-				System.exit(1);
 			}
 		}
 		if (cli.hasOption("winsize")) {
@@ -305,13 +625,11 @@ public class CeSymmMain {
 			try {
 				int win = Integer.parseInt(winStr);
 				if (win < 1) {
-					logger.error("Invalid winsize: " + winStr);
-					System.exit(1);
+					throw new ParseException("Invalid winsize: " + winStr);
 				}
 				params.setWinSize(win);
 			} catch (NumberFormatException e) {
-				logger.error("Invalid winsize: " + winStr);
-				System.exit(1);
+				throw new ParseException("Invalid winsize: " + winStr);
 			}
 
 		}
@@ -320,13 +638,11 @@ public class CeSymmMain {
 			try {
 				double val = Double.parseDouble(strVal);
 				if (val < 0) {
-					logger.error("Invalid maxrmsd: " + strVal);
-					System.exit(1);
+					throw new ParseException("Invalid maxrmsd: " + strVal);
 				}
 				params.setMaxOptRMSD(val);
 			} catch (NumberFormatException e) {
-				logger.error("Invalid maxrmsd: " + strVal);
-				System.exit(1);
+				throw new ParseException("Invalid maxrmsd: " + strVal);
 			}
 
 		}
@@ -339,13 +655,11 @@ public class CeSymmMain {
 			try {
 				double val = Double.parseDouble(strVal);
 				if (val < 0) {
-					logger.error("Invalid gapopen: " + strVal);
-					System.exit(1);
+					throw new ParseException("Invalid gapopen: " + strVal);
 				}
 				params.setGapOpen(val);
 			} catch (NumberFormatException e) {
-				logger.error("Invalid gapopen: " + strVal);
-				System.exit(1);
+				throw new ParseException("Invalid gapopen: " + strVal);
 			}
 
 		}
@@ -354,13 +668,11 @@ public class CeSymmMain {
 			try {
 				double val = Double.parseDouble(strVal);
 				if (val < 0) {
-					logger.error("Invalid gapextension: " + strVal);
-					System.exit(1);
+					throw new ParseException("Invalid gapextension: " + strVal);
 				}
 				params.setGapExtension(val);
 			} catch (NumberFormatException e) {
-				logger.error("Invalid gapextension: " + strVal);
-				System.exit(1);
+				throw new ParseException("Invalid gapextension: " + strVal);
 			}
 		}
 		if (cli.hasOption("ordermethod")) {
@@ -371,9 +683,8 @@ public class CeSymmMain {
 				params.setOrderDetectorMethod(val);
 			} catch (IllegalArgumentException e) {
 				// give up
-				logger.error("Illegal ordermethod. Requires on of {}",
-						CliTools.getEnumValuesAsString(OrderDetectorMethod.class));
-				System.exit(1);
+				throw new ParseException("Illegal ordermethod. Requires on of "
+						+ CliTools.getEnumValuesAsString(OrderDetectorMethod.class));
 			}
 		}
 		if (cli.hasOption("order")) {
@@ -396,9 +707,8 @@ public class CeSymmMain {
 				params.setRefineMethod(val);
 			} catch (IllegalArgumentException e) {
 				// give up
-				logger.error("Illegal refinemethod. Requires on of "
+				throw new ParseException("Illegal refinemethod. Requires on of "
 						+ CliTools.getEnumValuesAsString(RefineMethod.class));
-				System.exit(1);
 			}
 		}
 		if (cli.hasOption("symmtype")) {
@@ -409,9 +719,8 @@ public class CeSymmMain {
 				params.setSymmType(val);
 			} catch (IllegalArgumentException e) {
 				// give up
-				logger.error("Illegal symmtype. Requires on of "
+				throw new ParseException("Illegal symmtype. Requires on of "
 						+ CliTools.getEnumValuesAsString(RefineMethod.class));
-				System.exit(1);
 			}
 		}
 		if (cli.hasOption("maxorder")) {
@@ -419,13 +728,11 @@ public class CeSymmMain {
 			try {
 				int val = Integer.parseInt(strVal);
 				if (val < 0) {
-					logger.error("Invalid maxorder: " + strVal);
-					System.exit(1);
+					throw new ParseException("Invalid maxorder: " + strVal);
 				}
 				params.setMaxSymmOrder(val);
 			} catch (NumberFormatException e) {
-				logger.error("Invalid maxorder: " + strVal);
-				System.exit(1);
+				throw new ParseException("Invalid maxorder: " + strVal);
 			}
 		}
 		if (cli.hasOption("rndseed")) {
@@ -433,13 +740,11 @@ public class CeSymmMain {
 			try {
 				int val = Integer.parseInt(strVal);
 				if (val < 0) {
-					logger.error("Invalid rndseed: " + strVal);
-					System.exit(1);
+					throw new ParseException("Invalid rndseed: " + strVal);
 				}
 				params.setRndSeed(val);
 			} catch (NumberFormatException e) {
-				logger.error("Invalid rndseed: " + strVal);
-				System.exit(1);
+				throw new ParseException("Invalid rndseed: " + strVal);
 			}
 		}
 		boolean optimize = cli.hasOption("opt") || !cli.hasOption("noopt");
@@ -450,8 +755,7 @@ public class CeSymmMain {
 				int val = Integer.parseInt(strVal);
 				params.setSymmLevels(val);
 			} catch (NumberFormatException e) {
-				logger.error("Invalid symmlevels: " + strVal);
-				System.exit(1);
+				throw new ParseException("Invalid symmlevels: " + strVal);
 			}
 		}
 		if (cli.hasOption("unrefinedscorethreshold")) {
@@ -459,13 +763,11 @@ public class CeSymmMain {
 			try {
 				double val = Double.parseDouble(strVal);
 				if (val < 0) {
-					logger.error("Invalid unrefinedscorethreshold: " + strVal);
-					System.exit(1);
+					throw new ParseException("Invalid unrefinedscorethreshold: " + strVal);
 				}
 				params.setUnrefinedScoreThreshold(val);
 			} catch (NumberFormatException e) {
-				logger.error("Invalid unrefinedscorethreshold: " + strVal);
-				System.exit(1);
+				throw new ParseException("Invalid unrefinedscorethreshold: " + strVal);
 			}
 		}
 		if (cli.hasOption("refinedscorethreshold")) {
@@ -473,13 +775,11 @@ public class CeSymmMain {
 			try {
 				double val = Double.parseDouble(strVal);
 				if (val < 0) {
-					logger.error("Invalid refinedscorethreshold: " + strVal);
-					System.exit(1);
+					throw new ParseException("Invalid refinedscorethreshold: " + strVal);
 				}
 				params.setRefinedScoreThreshold(val);
 			} catch (NumberFormatException e) {
-				logger.error("Invalid refinedscorethreshold: " + strVal);
-				System.exit(1);
+				throw new ParseException("Invalid refinedscorethreshold: " + strVal);
 			}
 		}
 		if (cli.hasOption("ssethreshold")) {
@@ -487,13 +787,11 @@ public class CeSymmMain {
 			try {
 				int val = Integer.parseInt(strVal);
 				if (val < 0) {
-					logger.error("Invalid ssethreshold: " + strVal);
-					System.exit(1);
+					throw new ParseException("Invalid ssethreshold: " + strVal);
 				}
 				params.setSSEThreshold(val);
 			} catch (NumberFormatException e) {
-				logger.error("Invalid ssethreshold: " + strVal);
-				System.exit(1);
+				throw new ParseException("Invalid ssethreshold: " + strVal);
 			}
 		}
 		if (cli.hasOption("dcutoff")) {
@@ -501,13 +799,11 @@ public class CeSymmMain {
 			try {
 				double val = Double.parseDouble(strVal);
 				if (val < 0) {
-					logger.error("Invalid dcutoff: " + strVal);
-					System.exit(1);
+					throw new ParseException("Invalid dcutoff: " + strVal);
 				}
 				params.setDistanceCutoff(val);
 			} catch (NumberFormatException e) {
-				logger.error("Invalid dcutoff: " + strVal);
-				System.exit(1);
+				throw new ParseException("Invalid dcutoff: " + strVal);
 			}
 		}
 		if (cli.hasOption("minlen")) {
@@ -515,74 +811,33 @@ public class CeSymmMain {
 			try {
 				int val = Integer.parseInt(strVal);
 				if (val < 0) {
-					logger.error("Invalid minlen: " + strVal);
-					System.exit(1);
+					throw new ParseException("Invalid minlen: " + strVal);
 				}
 				params.setMinCoreLength(val);
 			} catch (NumberFormatException e) {
-				logger.error("Invalid minlen: " + strVal);
-				System.exit(1);
+				throw new ParseException("Invalid minlen: " + strVal);
 			}
 		}
 
 		verifyParams(params);
-
-		// Done parsing arguments
-
-		// Configure atomcache
-		UserConfiguration cacheConfig = new UserConfiguration();
-		if (pdbFilePath != null && !pdbFilePath.isEmpty()) {
-			cacheConfig.setPdbFilePath(pdbFilePath);
-			cacheConfig.setCacheFilePath(pdbFilePath);
-		}
-		AtomCache cache = new AtomCache(cacheConfig);
-		cache.setObsoleteBehavior(ObsoleteBehavior.FETCH_OBSOLETE);
-
-		// Write the headers of the files
-		for (CeSymmWriter writer : writers) {
-			try {
-				writer.writeHeader();
-			} catch (IOException e) {
-				logger.error("Could not write header to file.", e);
-			}
-		}
-		long startTime = System.nanoTime();
-
-		// Start the workers in a fixed threaded pool
-		ExecutorService executor = Executors.newFixedThreadPool(threads);
-		for (String name : names) {
-			StructureIdentifier id = new StructureName(name);
-			Runnable worker = new CeSymmWorker(id, params, cache, writers,
-					displayAlignment);
-			executor.execute(worker);
-		}
-		executor.shutdown();
-		while (!executor.isTerminated())
-			Thread.sleep(100); // sleep .1 seconds
-
-		long elapsed = (System.nanoTime() - startTime) / 1000000;
-		long meanRT = (long) (elapsed / (float) names.size());
-		logger.info("Total runtime: " + elapsed + ", mean runtime: " + meanRT);
-
-		// Close any writers of output
-		for (CeSymmWriter writer : writers)
-			writer.close();
+		return params;
 	}
 
 	/**
 	 * Check dependencies between parameters
 	 * @param params
+	 * @throws ParseException if the parameters are incompatible
 	 */
-	private static void verifyParams(CESymmParameters params) {
+	private static void verifyParams(CESymmParameters params)
+			throws ParseException {
 		int order = params.getUserOrder();
 		OrderDetectorMethod orderdetector = params.getOrderDetectorMethod();
 		if( order > 0 && orderdetector != OrderDetectorMethod.USER_INPUT) {
-			logger.info("--order={} is incompatible with --orderdetector={}",order,orderdetector);
-			System.exit(1);
+			throw new ParseException("--order=" + order
+					+ " is incompatible with --orderdetector=" + orderdetector);
 		}
 		if( order < 1 && orderdetector == OrderDetectorMethod.USER_INPUT) {
-			logger.info("USER_INPUT detector requires --order",orderdetector);
-			System.exit(1);
+			throw new ParseException("USER_INPUT detector requires --order");
 		}
 	}
 
@@ -593,7 +848,7 @@ public class CeSymmMain {
 	 *            An empty map, which will be filled in with the option order
 	 * @return all Options
 	 */
-	private static Options getOptions() {
+	static Options getOptions() {
 
 		OptionGroup grp; // For mutually exclusive options
 		Option opt;
@@ -680,6 +935,17 @@ public class CeSymmMain {
 				.argName("file")
 				.desc("Output information about rotation axes")
 				.build());
+		options.addOption(Option.builder()
+				.longOpt("timings")
+				.hasArg()
+				.optionalArg(true)
+				.argName("file")
+				.desc("Output the wall-clock time, in ms, of each phase of the "
+						+ "job of each structure: load (reading the structure), "
+						+ "atoms (extracting its representative atoms), "
+						+ "analysis (the whole CeSymm analysis, not broken "
+						+ "down into its steps), format and write")
+				.build());
 
 		// jmol
 		grp = new OptionGroup();
@@ -740,10 +1006,100 @@ public class CeSymmMain {
 						+ "Can also be set with the PDB_DIR environmental variable.")
 				.build());
 
+		options.addOption(Option.builder()
+				.longOpt("resultcache")
+				.hasArg(true)
+				.argName("dir")
+				.desc( "Directory of a persistent store of results. Structures "
+						+ "already analyzed with the same coordinates and "
+						+ "parameters are not analyzed again.")
+				.build());
+
+		options.addOption(Option.builder().longOpt("journal")
+				.hasArg(true)
+				.argName("file")
+				.desc("Record each structure in this file once its results are "
+						+ "written, so that an interrupted run can be resumed.")
+				.build());
+		options.addOption(Option.builder().longOpt("resume")
+				.hasArg(false)
+				.desc("Skip the structures recorded in the --journal file and "
+						+ "append to the existing output files.")
+				.build());
+
 		options.addOption(Option.builder().longOpt("threads").hasArg(true)
 				.desc("Number of threads [default cores-1]")
 				.build());
 
+		options.addOption(Option.builder().longOpt("loaderthreads")
+				.hasArg(true)
+				.argName("int")
+				.desc("Number of threads dedicated to loading structures "
+						+ "ahead of the analysis. 0 means structures are loaded "
+						+ "by the analysis threads [default: 0].")
+				.build());
+
+		options.addOption(Option.builder().longOpt("ordered")
+				.hasArg()
+				.optionalArg(true)
+				.argName("int")
+				.desc("Write the results in the order of the input, keeping "
+						+ "at most this number of finished and running "
+						+ "structures waiting for a slower one [default: 16 "
+						+ "per thread].")
+				.build());
+
+		options.addOption(Option.builder().longOpt("server")
+				.hasArg(true)
+				.argName("port")
+				.desc("Run as a service on a port of the local host. Each "
+						+ "connection sends one line with structures and "
+						+ "options, as on the command line, and receives the "
+						+ "results in the requested format.")
+				.build());
+		options.addOption(Option.builder().longOpt("serverfiles")
+				.hasArg(false)
+				.desc("Allow the requests of --server to analyze structures "
+						+ "from local files or URLs.")
+				.build());
+
+		options.addOption(Option.builder().longOpt("shard")
+				.hasArg(true)
+				.argName("k/n")
+				.desc("Only analyze the k-th of n disjoint shards of the input "
+						+ "structures, assigned deterministically by identifier. "
+						+ "The outputs of the shards can be combined with "
+						+ "main.MergeMain.")
+				.build());
+
+		options.addOption(Option.builder().longOpt("largestfirst")
+				.hasArg(false)
+				.desc("Analyze the largest structures first, to reduce the time "
+						+ "at the end of a batch in which only a few threads are "
+						+ "busy. Sizes are estimated from the SEQRES records in "
+						+ "a pre-pass, which reads all the input names into "
+						+ "memory.")
+				.build());
+		options.addOption(Option.builder().longOpt("sizeindex")
+				.hasArg(true)
+				.argName("file")
+				.desc("File of structure names and sizes (or the --stats output "
+						+ "of a previous CeSymm run) used to estimate the sizes "
+						+ "for --largestfirst without reading the structure "
+						+ "files. Implies --largestfirst.")
+				.build());
+
+		options.addOption(Option.builder().longOpt("timeout")
+				.hasArg(true)
+				.argName("float")
+				.desc("Maximum time, in seconds, for the analysis of each "
+						+ "structure. Structures exceeding it are reported as "
+						+ "timeouts and are not recorded in the journal. "
+						+ "Each analysis runs in a separate Java process, "
+						+ "which is killed at the limit. Ignored with "
+						+ "--show3d. 0 means unlimited [default: 0].")
+				.build());
+
 		// Parameters
 		options.addOption(Option.builder()
 				.longOpt("maxgapsize")
@@ -908,20 +1264,11 @@ public class CeSymmMain {
 	 */
 	public static List<String> parseInputStructures(String filename)
 			throws FileNotFoundException {
-		File file = new File(filename);
-		Scanner s = new Scanner(file);
-
 		List<String> structures = new ArrayList<String>();
-		while (s.hasNext()) {
-			String name = s.next();
-			if (name.startsWith("#")) {
-				// comment
-				s.nextLine();
-			} else {
-				structures.add(name);
-			}
-		}
-		s.close();
+		StructureNameReader reader = new StructureNameReader(filename);
+		while (reader.hasNext())
+			structures.add(reader.next());
+		reader.close();
 		return structures;
 	}
 
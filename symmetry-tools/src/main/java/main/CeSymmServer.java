@@ -0,0 +1,284 @@
+package main;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.ParseException;
+import org.biojava.nbio.structure.align.client.StructureName;
+import org.biojava.nbio.structure.align.util.AtomCache;
+import org.biojava.nbio.structure.symmetry.internal.CESymmParameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import workers.BoundedExecutor;
+import workers.CeSymmResultCache;
+import workers.CeSymmWorker;
+import workers.JobWatchdog;
+import writers.CeSymmAxesWriter;
+import writers.CeSymmFastaWriter;
+import writers.CeSymmFatcatWriter;
+import writers.CeSymmSimpleWriter;
+import writers.CeSymmStatsWriter;
+import writers.CeSymmTsvWriter;
+import writers.CeSymmWriter;
+import writers.CeSymmXMLWriter;
+
+/**
+ * Long-running CE-Symm service, which keeps a warm JVM with a shared
+ * {@link AtomCache} and thread pool, so that small requests do not pay the
+ * startup cost of the command line tool.
+ * <p>
+ * The server listens on a TCP port of the loopback interface only. Each
+ * connection sends a single line with the same arguments as the command line
+ * (structure names and options), within {@link #REQUEST_TIMEOUT} ms. The
+ * results are streamed back in the requested output format, ignoring its file
+ * name, and the connection is closed when all the structures of the request
+ * have been analyzed. Only one output format can be requested per connection.
+ * Structures given as local files or URLs are rejected, unless allowed with
+ * {@link #setAllowFiles(boolean)}. Invalid arguments are answered with a line
+ * starting with 'ERROR'. For example:
+ *
+ * <pre>
+ * echo "--stats --maxorder=4 1HIV d1ijqa1" | nc localhost 8080
+ * </pre>
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class CeSymmServer {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(CeSymmServer.class);
+
+	/** Maximum time, in ms, to receive the request line of a connection */
+	public static final int REQUEST_TIMEOUT = 30000;
+	/**
+	 * Maximum number of connections served at the same time. Further
+	 * connections wait in the backlog of the port until one is closed.
+	 */
+	public static final int MAX_CONNECTIONS = 64;
+
+	private final int port;
+	private final AtomCache cache;
+	private final BoundedExecutor executor;
+	private final BoundedExecutor connections;
+
+	private CeSymmResultCache resultCache;
+	private JobWatchdog watchdog;
+	private boolean allowFiles;
+
+	/**
+	 * @param port
+	 *            TCP port of the loopback interface to listen on
+	 * @param cache
+	 *            AtomCache shared by all the requests
+	 * @param executor
+	 *            pool that runs the jobs of all the requests
+	 */
+	public CeSymmServer(int port, AtomCache cache, BoundedExecutor executor) {
+		this.port = port;
+		this.cache = cache;
+		this.executor = executor;
+		this.connections = new BoundedExecutor(MAX_CONNECTIONS,
+				MAX_CONNECTIONS);
+	}
+
+	public void setResultCache(CeSymmResultCache resultCache) {
+		this.resultCache = resultCache;
+	}
+
+	public void setWatchdog(JobWatchdog watchdog) {
+		this.watchdog = watchdog;
+	}
+
+	/**
+	 * Allow the requests to analyze structures given as local files or URLs,
+	 * which are read with the permissions of the server. Not allowed by
+	 * default.
+	 *
+	 * @param allowFiles
+	 */
+	public void setAllowFiles(boolean allowFiles) {
+		this.allowFiles = allowFiles;
+	}
+
+	/**
+	 * Accept and serve connections until the JVM is terminated. No more
+	 * connections are accepted while {@link #MAX_CONNECTIONS} are being
+	 * served.
+	 *
+	 * @throws IOException
+	 *             if the port can not be opened
+	 * @throws InterruptedException
+	 */
+	public void serve() throws IOException, InterruptedException {
+		try (ServerSocket server = new ServerSocket(port, 50,
+				InetAddress.getLoopbackAddress())) {
+			logger.info("CE-Symm server listening on "
+					+ server.getLocalSocketAddress());
+			while (true) {
+				final Socket socket = server.accept();
+				try {
+					connections.execute(new Runnable() {
+						@Override
+						public void run() {
+							handle(socket);
+						}
+					});
+				} catch (InterruptedException e) {
+					socket.close();
+					throw e;
+				}
+			}
+		}
+	}
+
+	private void handle(Socket socket) {
+		try (Socket s = socket) {
+			s.setSoTimeout(REQUEST_TIMEOUT);
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+					s.getInputStream(), StandardCharsets.UTF_8));
+			PrintWriter out = new PrintWriter(new BufferedWriter(
+					new OutputStreamWriter(s.getOutputStream(),
+							StandardCharsets.UTF_8)));
+			String line = in.readLine();
+			if (line == null)
+				return;
+			try {
+				process(line, out);
+			} catch (ParseException e) {
+				out.println("ERROR\t" + e.getMessage());
+			}
+			out.flush();
+		} catch (SocketTimeoutException e) {
+			logger.warn("No request received in " + REQUEST_TIMEOUT + " ms");
+		} catch (IOException e) {
+			logger.error("Error serving a request", e);
+		} catch (InterruptedException e) {
+			logger.error("Interrupted while serving a request", e);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Run the analysis of the structures of one request and write the
+	 * results.
+	 *
+	 * @param line
+	 *            command line arguments of the request
+	 * @param out
+	 *            output of the connection
+	 * @throws ParseException
+	 *             if the arguments are not valid
+	 * @throws InterruptedException
+	 */
+	private void process(String line, PrintWriter out) throws ParseException,
+			InterruptedException {
+
+		line = line.trim();
+		if (line.isEmpty())
+			throw new ParseException("No structures given");
+
+		CommandLine cli = new DefaultParser().parse(CeSymmMain.getOptions(),
+				line.split("\\s+"), false);
+		CESymmParameters params = CeSymmMain.parseParameters(cli);
+		String[] names = cli.getArgs();
+		if (names.length == 0)
+			throw new ParseException("No structures given");
+		List<StructureName> ids = new ArrayList<StructureName>(names.length);
+		for (String name : names) {
+			StructureName id = new StructureName(name);
+			if (!allowFiles && (id.isFile() || id.isURL()))
+				throw new ParseException("Structures from files or URLs are "
+						+ "not allowed: " + name);
+			ids.add(id);
+		}
+
+		List<CeSymmWriter> writers = getWriters(cli, out);
+		for (CeSymmWriter writer : writers) {
+			try {
+				writer.writeHeader();
+			} catch (IOException e) {
+				logger.error("Could not write header.", e);
+			}
+		}
+
+		logger.info("Request for " + names.length + " structures");
+		final CountDownLatch done = new CountDownLatch(names.length);
+		for (StructureName id : ids) {
+			final CeSymmWorker worker = new CeSymmWorker(id, params, cache,
+					writers, false);
+			worker.setResultCache(resultCache);
+			worker.setWatchdog(watchdog);
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						worker.run();
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+		}
+		done.await();
+
+		// Stops the writer thread, the connection is closed by handle()
+		for (CeSymmWriter writer : writers)
+			writer.close();
+	}
+
+	/**
+	 * Create the writer of the output format of a request, which writes to
+	 * the connection. The file name of the option is ignored.
+	 *
+	 * @throws ParseException
+	 *             if more than one format is requested
+	 */
+	private static List<CeSymmWriter> getWriters(CommandLine cli,
+			PrintWriter out) throws ParseException {
+
+		List<CeSymmWriter> writers = new ArrayList<CeSymmWriter>();
+		if (cli.hasOption("simple"))
+			writers.add(new CeSymmSimpleWriter(out));
+		if (cli.hasOption("stats"))
+			writers.add(new CeSymmStatsWriter(out));
+		if (cli.hasOption("tsv"))
+			writers.add(new CeSymmTsvWriter(out));
+		if (cli.hasOption("xml"))
+			writers.add(new CeSymmXMLWriter(out));
+		if (cli.hasOption("fatcat"))
+			writers.add(new CeSymmFatcatWriter(out));
+		if (cli.hasOption("fasta"))
+			writers.add(new CeSymmFastaWriter(out));
+		if (cli.hasOption("axes"))
+			writers.add(new CeSymmAxesWriter(out));
+
+		// Default to SimpleWriter
+		if (writers.isEmpty())
+			writers.add(new CeSymmSimpleWriter(out));
+		// The entries of several formats would be interleaved
+		if (writers.size() > 1) {
+			for (CeSymmWriter writer : writers)
+				writer.close();
+			throw new ParseException("Only one output format per request");
+		}
+
+		return writers;
+	}
+
+}
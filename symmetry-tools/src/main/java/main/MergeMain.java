@@ -0,0 +1,137 @@
+package main;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import writers.OutputMerger;
+
+/**
+ * Merges the output files of the shards of a batch (see the --shard option of
+ * {@link CeSymmMain} and {@link QuatSymmMain}) into a single file. Run with -h
+ * for usage help.
+ * <p>
+ * Supports the --simple, --stats, --axes, --tsv and --fasta formats, see
+ * {@link OutputMerger}.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class MergeMain {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(MergeMain.class);
+
+	public static void main(String[] args) {
+
+		final String usage = "[OPTIONS] files...";
+		final String header = "Merge the output files of several shards of a "
+				+ "batch into a single file, with a single header and the "
+				+ "entries sorted by structure name.";
+		Options options = getOptions();
+		CommandLineParser parser = new DefaultParser();
+		HelpFormatter help = new HelpFormatter();
+		help.setOptionComparator(null); // prevent option sorting
+
+		final CommandLine cli;
+		try {
+			cli = parser.parse(options, args, false);
+		} catch (ParseException e) {
+			logger.error("Error: " + e.getMessage());
+			help.printHelp(usage, header, options, "");
+			System.exit(1);
+			return;
+		}
+
+		args = cli.getArgs();
+
+		if (cli.hasOption("help") || args.length == 0) {
+			help.printHelp(usage, header, options, "");
+			System.exit(0);
+			return;
+		}
+		List<String> files = Arrays.asList(args);
+
+		String format = cli.getOptionValue("format", "auto").toLowerCase();
+		boolean records;
+		try {
+			switch (format) {
+			case "table":
+				records = false;
+				break;
+			case "records":
+				records = true;
+				break;
+			case "auto":
+				records = false;
+				for (String file : files)
+					records |= OutputMerger.isRecordFormat(file);
+				break;
+			default:
+				logger.error("Invalid format: " + format
+						+ ". Requires one of table, records or auto.");
+				System.exit(1);
+				return;
+			}
+		} catch (IOException e) {
+			logger.error("Error: " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+
+		String output = cli.getOptionValue("output", "-");
+		try (PrintWriter out = output.equals("-") ? new PrintWriter(System.out)
+				: new PrintWriter(new BufferedWriter(new FileWriter(output)))) {
+			if (records)
+				OutputMerger.mergeRecords(files, out);
+			else
+				OutputMerger.mergeTables(files, out);
+		} catch (IOException e) {
+			logger.error("Error: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Creates the options
+	 *
+	 * @return all Options
+	 */
+	private static Options getOptions() {
+
+		Options options = new Options();
+		options.addOption("h", "help", false, "Print usage information");
+
+		options.addOption(Option.builder("o")
+				.longOpt("output")
+				.hasArg(true)
+				.argName("file")
+				.desc("Output file for the merged result [default: standard out]")
+				.build());
+
+		options.addOption(Option.builder()
+				.longOpt("format")
+				.hasArg(true)
+				.argName("str")
+				.desc("Format of the files: 'table' for --simple, --stats and "
+						+ "--axes, 'records' for --tsv and --fasta, or 'auto' "
+						+ "to detect it [default: auto]")
+				.build());
+
+		return options;
+	}
+
+}
@@ -1,14 +1,13 @@
 package main;
 
-import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Scanner;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -36,10 +35,14 @@ import org.biojava.nbio.structure.symmetry.core.QuatSymmetryParameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import workers.BoundedExecutor;
+import workers.CompletionJournal;
 import workers.QuatSymmWorker;
+import workers.StructureSizeEstimator;
 import writers.QuatSymmFastaWriter;
 import writers.QuatSymmStatsWriter;
 import writers.QuatSymmWriter;
+import writers.ReorderBuffer;
 
 /**
  * Main executable for running the Quaternary Symmetry detection. Run with -h
@@ -53,6 +56,11 @@ public class QuatSymmMain {
 	private static final Logger logger = LoggerFactory
 			.getLogger(QuatSymmMain.class);
 
+	/** Number of queued jobs per thread when reading the input lazily */
+	private static final int JOBS_PER_THREAD = 2;
+	/** Default size of the --ordered reorder buffer per thread */
+	private static final int ORDER_BUFFER_PER_THREAD = 16;
+
 	public static void main(String[] args) throws InterruptedException {
 
 		// Begin argument parsing
@@ -94,20 +102,21 @@ public class QuatSymmMain {
 			return;
 		}
 
-		// input structures
-		List<String> names = new ArrayList<String>();
+		// input structures, read lazily from the input file
+		Iterator<String> names;
+		StructureNameReader reader = null;
 		if (cli.hasOption("input")) {
-			// read from file
+			// read from file and append cli arguments
 			try {
-				names = parseInputStructures(cli.getOptionValue("input"));
+				reader = new StructureNameReader(cli.getOptionValue("input"),
+						Arrays.asList(args));
 			} catch (FileNotFoundException e) {
 				logger.error("Error: File not found: "
 						+ cli.getOptionValue("input"));
 				System.exit(1);
 				return;
 			}
-			// append cli arguments
-			names.addAll(Arrays.asList(args));
+			names = reader;
 		} else {
 			if (args.length == 0) {
 				// No structures given; print help and return
@@ -116,13 +125,25 @@ public class QuatSymmMain {
 				return;
 			} else {
 				// take names from the command line arguments
-				names = Arrays.asList(args);
+				names = Arrays.asList(args).iterator();
+			}
+		}
+
+		// Only analyze the structures of one shard of the input
+		if (cli.hasOption("shard")) {
+			try {
+				Shard shard = Shard.parse(cli.getOptionValue("shard"));
+				names = shard.filter(names);
+			} catch (IllegalArgumentException e) {
+				logger.error("Error: " + e.getMessage());
+				System.exit(1);
+				return;
 			}
 		}
 
 		// Show jmol?
 		// Default to false with --input or with >=10 structures
-		boolean show3d = !cli.hasOption("input") && names.size() < 10;
+		boolean show3d = !cli.hasOption("input") && args.length < 10;
 		if (cli.hasOption("noshow3d")) {
 			show3d = false;
 		}
@@ -149,6 +170,36 @@ public class QuatSymmMain {
 									// information from their LoggerConfig.
 		}
 
+		// Checkpointing: journal of completed structures and resume
+		String journalFile = null;
+		if (cli.hasOption("journal")) {
+			journalFile = cli.getOptionValue("journal");
+			journalFile = FileDownloadUtils.expandUserHome(journalFile);
+		}
+		boolean resume = cli.hasOption("resume");
+		if (resume && journalFile == null) {
+			logger.error("Error: --resume requires --journal");
+			System.exit(1);
+			return;
+		}
+		Set<String> completed = Collections.emptySet();
+		CompletionJournal journal = null;
+		if (journalFile != null) {
+			try {
+				if (resume) {
+					completed = CompletionJournal.readCompleted(journalFile);
+					logger.info("Resuming: skipping " + completed.size()
+							+ " completed structures");
+				}
+				journal = new CompletionJournal(journalFile, resume);
+			} catch (IOException e) {
+				logger.error("Error: Could not open journal " + journalFile
+						+ ": " + e.getMessage());
+				System.exit(1);
+				return;
+			}
+		}
+
 		// Output formats
 		List<QuatSymmWriter> writers = new ArrayList<QuatSymmWriter>();
 
@@ -157,7 +208,7 @@ public class QuatSymmMain {
 			if (filename == null || filename.isEmpty())
 				filename = "-"; // standard out
 			try {
-				writers.add(new QuatSymmStatsWriter(filename));
+				writers.add(new QuatSymmStatsWriter(filename, resume));
 			} catch (IOException e) {
 				logger.error("Error: Ignoring file " + filename + ".");
 				logger.error(e.getMessage());
@@ -169,7 +220,7 @@ public class QuatSymmMain {
 			if(filename == null || filename.isEmpty())
 				filename = "-"; // standard out
 			try {
-				writers.add(new QuatSymmFastaWriter(filename));
+				writers.add(new QuatSymmFastaWriter(filename, resume));
 			} catch (IOException e) {
 				logger.error("Error: Ignoring file " + filename + ".");
 				logger.error(e.getMessage());
@@ -185,6 +236,14 @@ public class QuatSymmMain {
 			}
 		}
 
+		// Scheduling order
+		String sizeIndex = null;
+		if (cli.hasOption("sizeindex")) {
+			sizeIndex = cli.getOptionValue("sizeindex");
+			sizeIndex = FileDownloadUtils.expandUserHome(sizeIndex);
+		}
+		boolean largestFirst = cli.hasOption("largestfirst") || sizeIndex != null;
+
 		// Multithreading
 		Integer threads = Runtime.getRuntime().availableProcessors();
 		if (cli.hasOption("threads")) {
@@ -194,6 +253,25 @@ public class QuatSymmMain {
 			}
 		}
 
+		// Output in input order, with a bounded reorder buffer (0: unordered)
+		int orderBuffer = 0;
+		if (cli.hasOption("ordered")) {
+			orderBuffer = ORDER_BUFFER_PER_THREAD * threads;
+			String strVal = cli.getOptionValue("ordered");
+			if (strVal != null) {
+				try {
+					orderBuffer = Integer.parseInt(strVal);
+					if (orderBuffer < 1) {
+						logger.error("Invalid ordered: " + strVal);
+						System.exit(1);
+					}
+				} catch (NumberFormatException e) {
+					logger.error("Invalid ordered: " + strVal);
+					System.exit(1);
+				}
+			}
+		}
+
 		// Subunit Clustering parameters
 		SubunitClustererParameters cparams = new SubunitClustererParameters();
 
@@ -303,8 +381,10 @@ public class QuatSymmMain {
 
 		// Done parsing arguments
 
-		// Write the headers of the files
+		// Write the headers of the files, unless resuming into them
 		for (QuatSymmWriter writer : writers) {
+			if (writer.isAppending())
+				continue;
 			try {
 				writer.writeHeader();
 			} catch (IOException e) {
@@ -322,27 +402,72 @@ public class QuatSymmMain {
 		cache.setObsoleteBehavior(ObsoleteBehavior.FETCH_OBSOLETE);
 		cache.setUseMmCif(true);
 
+		// Schedule the largest structures first, to shorten the tail of the
+		// batch. This requires all the names in memory.
+		if (largestFirst) {
+			List<String> pending = new ArrayList<String>();
+			while (names.hasNext()) {
+				String name = names.next();
+				if (!completed.contains(new StructureName(name).getIdentifier()))
+					pending.add(name);
+			}
+			if (reader != null) {
+				reader.close();
+				reader = null;
+			}
+			StructureSizeEstimator estimator = new StructureSizeEstimator(cache);
+			if (sizeIndex != null) {
+				try {
+					estimator.readIndex(sizeIndex);
+				} catch (FileNotFoundException e) {
+					logger.error("Error: File not found: " + sizeIndex);
+					System.exit(1);
+					return;
+				}
+			}
+			names = estimator.sortLargestFirst(pending, threads).iterator();
+		}
+
 		long startTime = System.nanoTime();
 
-		// Start the workers in a fixed threaded pool
-		ExecutorService executor = Executors.newFixedThreadPool(threads);
-		for (String name : names) {
-			StructureIdentifier id = new StructureName(name);
-			Runnable worker = new QuatSymmWorker(id, sparams, cparams, cache,
-					writers, show3d);
+		// Start the workers in a fixed threaded pool, with a bounded number of
+		// jobs in flight so that the input is consumed as the workers progress
+		BoundedExecutor executor = new BoundedExecutor(threads,
+				JOBS_PER_THREAD * threads);
+		ReorderBuffer reorder = null;
+		if (orderBuffer > 0)
+			reorder = new ReorderBuffer(orderBuffer);
+		int jobs = 0;
+		while (names.hasNext()) {
+			StructureIdentifier id = new StructureName(names.next());
+			if (completed.contains(id.getIdentifier()))
+				continue;
+			QuatSymmWorker worker = new QuatSymmWorker(id, sparams, cparams,
+					cache, writers, show3d);
+			worker.setJournal(journal);
+			if (reorder != null)
+				worker.setReorderBuffer(reorder, reorder.nextSequence());
 			executor.execute(worker);
+			jobs++;
 		}
-		executor.shutdown();
-		while (!executor.isTerminated())
-			Thread.sleep(100); // sleep .1 seconds
+		if (reader != null)
+			reader.close();
+		executor.shutdownAndAwait();
 
 		long elapsed = (System.nanoTime() - startTime) / 1000000;
-		long meanRT = (long) (elapsed / (float) names.size());
+		long meanRT = (long) (elapsed / (float) jobs);
 		logger.info("Total runtime: " + elapsed + ", mean runtime: " + meanRT);
 
 		// Close any writers of output
 		for (QuatSymmWriter writer : writers)
 			writer.close();
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				logger.error("Could not close journal " + journalFile, e);
+			}
+		}
 	}
 
 	/**
@@ -430,9 +555,54 @@ public class QuatSymmMain {
 						+ "Can also be set with the PDB_DIR environmental variable.")
 				.build());
 
+		options.addOption(Option.builder().longOpt("journal").hasArg(true)
+				.argName("file")
+				.desc("Record each structure in this file once its results are "
+						+ "written, so that an interrupted run can be resumed.")
+				.build());
+		options.addOption(Option.builder().longOpt("resume").hasArg(false)
+				.desc("Skip the structures recorded in the --journal file and "
+						+ "append to the existing output files.")
+				.build());
+
 		options.addOption(Option.builder().longOpt("threads").hasArg(true)
 				.desc("Number of threads [default cores-1]").build());
 
+		options.addOption(Option.builder().longOpt("ordered")
+				.hasArg()
+				.optionalArg(true)
+				.argName("int")
+				.desc("Write the results in the order of the input, keeping "
+						+ "at most this number of finished and running "
+						+ "structures waiting for a slower one [default: 16 "
+						+ "per thread].")
+				.build());
+
+		options.addOption(Option.builder().longOpt("shard")
+				.hasArg(true)
+				.argName("k/n")
+				.desc("Only analyze the k-th of n disjoint shards of the input "
+						+ "structures, assigned deterministically by identifier. "
+						+ "The outputs of the shards can be combined with "
+						+ "main.MergeMain.")
+				.build());
+
+		options.addOption(Option.builder().longOpt("largestfirst")
+				.hasArg(false)
+				.desc("Analyze the largest structures first, to reduce the time "
+						+ "at the end of a batch in which only a few threads are "
+						+ "busy. Sizes are estimated from the SEQRES records in "
+						+ "a pre-pass, which reads all the input names into "
+						+ "memory.")
+				.build());
+		options.addOption(Option.builder().longOpt("sizeindex").hasArg(true)
+				.argName("file")
+				.desc("File of structure names and sizes (or the --stats output "
+						+ "of a previous CeSymm run) used to estimate the sizes "
+						+ "for --largestfirst without reading the structure "
+						+ "files. Implies --largestfirst.")
+				.build());
+
 		// Parameters
 		options.addOption(Option
 				.builder()
@@ -509,20 +679,11 @@ public class QuatSymmMain {
 	 */
 	public static List<String> parseInputStructures(String filename)
 			throws FileNotFoundException {
-		File file = new File(filename);
-		Scanner s = new Scanner(file);
-
 		List<String> structures = new ArrayList<String>();
-		while (s.hasNext()) {
-			String name = s.next();
-			if (name.startsWith("#")) {
-				// comment
-				s.nextLine();
-			} else {
-				structures.add(name);
-			}
-		}
-		s.close();
+		StructureNameReader reader = new StructureNameReader(filename);
+		while (reader.hasNext())
+			structures.add(reader.next());
+		reader.close();
 		return structures;
 	}
 
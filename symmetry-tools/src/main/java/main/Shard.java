@@ -0,0 +1,111 @@
+package main;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.biojava.nbio.structure.align.client.StructureName;
+
+/**
+ * A deterministic partition of the input structures, so that a batch can be
+ * split across independent processes or machines that all read the same
+ * input list.
+ * <p>
+ * Structures are assigned to shards by the hash of their identifier, which
+ * is specified by the Java language ({@link String#hashCode()}) and thus the
+ * same in every JVM, regardless of the input order or the other names in the
+ * list.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class Shard {
+
+	private final int index;
+	private final int count;
+
+	/**
+	 * @param index
+	 *            shard number, from 1 to count
+	 * @param count
+	 *            total number of shards
+	 */
+	public Shard(int index, int count) {
+		if (count < 1 || index < 1 || index > count)
+			throw new IllegalArgumentException("Invalid shard " + index + "/"
+					+ count);
+		this.index = index;
+		this.count = count;
+	}
+
+	/**
+	 * Parses a shard specification of the form 'k/n'.
+	 *
+	 * @param spec
+	 * @return the shard
+	 * @throws IllegalArgumentException
+	 *             if the specification is not valid
+	 */
+	public static Shard parse(String spec) {
+		String[] parts = spec.split("/");
+		if (parts.length != 2)
+			throw new IllegalArgumentException("Invalid shard " + spec
+					+ ". Use k/n, with 1 <= k <= n.");
+		try {
+			return new Shard(Integer.parseInt(parts[0].trim()),
+					Integer.parseInt(parts[1].trim()));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid shard " + spec
+					+ ". Use k/n, with 1 <= k <= n.");
+		}
+	}
+
+	/**
+	 * @param identifier
+	 *            structure identifier
+	 * @return true if the structure belongs to this shard
+	 */
+	public boolean contains(String identifier) {
+		return Math.floorMod(identifier.hashCode(), count) == index - 1;
+	}
+
+	/**
+	 * Lazily filters the structure names that belong to this shard.
+	 *
+	 * @param names
+	 * @return the names of this shard, in the same order
+	 */
+	public Iterator<String> filter(final Iterator<String> names) {
+		return new Iterator<String>() {
+			private String next = advance();
+
+			private String advance() {
+				while (names.hasNext()) {
+					String name = names.next();
+					if (contains(new StructureName(name).getIdentifier()))
+						return name;
+				}
+				return null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public String next() {
+				if (next == null)
+					throw new NoSuchElementException();
+				String name = next;
+				next = advance();
+				return name;
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		return index + "/" + count;
+	}
+
+}
@@ -0,0 +1,83 @@
+package main;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+
+/**
+ * Lazily reads structure names from a whitespace-delimited file, one token at
+ * a time, so that arbitrarily long input lists can be processed without
+ * holding them in memory. Tokens starting with '#' comment out the rest of
+ * the line.
+ * <p>
+ * Additional names (e.g. from the command line) can be given, which are
+ * returned after the names in the file.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class StructureNameReader implements Iterator<String>, Closeable {
+
+	private final Scanner scanner;
+	private final Iterator<String> extra;
+	private String next;
+
+	public StructureNameReader(String filename) throws FileNotFoundException {
+		this(filename, Collections.<String> emptyList());
+	}
+
+	/**
+	 * @param filename
+	 *            whitespace-delimited file with structure names
+	 * @param extra
+	 *            names to return after the ones in the file
+	 * @throws FileNotFoundException
+	 */
+	public StructureNameReader(String filename, List<String> extra)
+			throws FileNotFoundException {
+		this.scanner = new Scanner(new File(filename));
+		this.extra = extra.iterator();
+		this.next = advance();
+	}
+
+	private String advance() {
+		while (scanner.hasNext()) {
+			String name = scanner.next();
+			if (name.startsWith("#")) {
+				// comment
+				if (scanner.hasNextLine())
+					scanner.nextLine();
+			} else {
+				return name;
+			}
+		}
+		if (extra.hasNext())
+			return extra.next();
+		return null;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return next != null;
+	}
+
+	@Override
+	public String next() {
+		if (next == null)
+			throw new NoSuchElementException();
+		String name = next;
+		next = advance();
+		return name;
+	}
+
+	@Override
+	public void close() {
+		scanner.close();
+	}
+
+}
@@ -0,0 +1,69 @@
+package workers;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed thread pool that limits the number of jobs in flight (running or
+ * queued). Submitting a job blocks while the limit is reached, so that the
+ * producer of jobs (e.g. a lazy reader of the input file) never gets far ahead
+ * of the workers and memory usage stays constant for any number of jobs.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class BoundedExecutor {
+
+	private final ExecutorService executor;
+	private final Semaphore permits;
+
+	/**
+	 * @param threads
+	 *            number of worker threads
+	 * @param bound
+	 *            maximum number of jobs running or waiting to run
+	 */
+	public BoundedExecutor(int threads, int bound) {
+		this.executor = Executors.newFixedThreadPool(threads);
+		this.permits = new Semaphore(Math.max(bound, threads));
+	}
+
+	/**
+	 * Submit a job for execution, blocking until there is room for it.
+	 *
+	 * @param job
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for room
+	 */
+	public void execute(final Runnable job) throws InterruptedException {
+		permits.acquire();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						job.run();
+					} finally {
+						permits.release();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Stop accepting jobs and wait until all the submitted jobs are finished.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void shutdownAndAwait() throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+}
@@ -0,0 +1,316 @@
+package workers;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.Structure;
+import org.biojava.nbio.structure.StructureIdentifier;
+import org.biojava.nbio.structure.align.client.StructureName;
+import org.biojava.nbio.structure.align.util.AtomCache;
+import org.biojava.nbio.structure.io.LocalPDBDirectory.FetchBehavior;
+import org.biojava.nbio.structure.io.LocalPDBDirectory.ObsoleteBehavior;
+import org.biojava.nbio.structure.symmetry.internal.CESymmParameters;
+import org.biojava.nbio.structure.symmetry.internal.CeSymm;
+import org.biojava.nbio.structure.symmetry.internal.CeSymmResult;
+import org.biojava.nbio.structure.symmetry.utils.SymmetryTools;
+
+import writers.CeSymmWriter;
+
+/**
+ * Child process that analyzes a single structure for the {@link JobWatchdog},
+ * so that the analysis can be killed when it exceeds its time limit.
+ * <p>
+ * The request is a text file with the structure identifier, the settings of
+ * the {@link AtomCache}, the class names of the output writers and the
+ * {@link CESymmParameters}, one per line. The outputs formatted by each writer
+ * are written to a result file, in the text format of the
+ * {@link CeSymmResultCache}. An output that could not be formatted is missing
+ * from the result. The exit code is 0 if the result was written.
+ * <p>
+ * The parameters are copied field by field. Only the fields of primitive,
+ * String and enum types are copied, which include all the parameters that can
+ * be set from the command line.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class CeSymmProcess {
+
+	/**
+	 * A request for the analysis of a structure.
+	 */
+	static class Request {
+		String id;
+		String path;
+		String cachePath;
+		boolean useMmCif;
+		FetchBehavior fetchBehavior;
+		ObsoleteBehavior obsoleteBehavior;
+		final List<String> writers = new ArrayList<String>();
+		final CESymmParameters params = new CESymmParameters();
+
+		AtomCache createCache() {
+			AtomCache cache = new AtomCache(path, cachePath);
+			cache.setUseMmCif(useMmCif);
+			if (fetchBehavior != null)
+				cache.setFetchBehavior(fetchBehavior);
+			if (obsoleteBehavior != null)
+				cache.setObsoleteBehavior(obsoleteBehavior);
+			return cache;
+		}
+	}
+
+	/**
+	 * @param args
+	 *            the request file and the result file
+	 */
+	public static void main(String[] args) {
+		// The standard output belongs to the parent process
+		System.setOut(System.err);
+		if (args.length != 2) {
+			System.err.println("Usage: CeSymmProcess request result");
+			System.exit(2);
+		}
+		try {
+			Map<String, String> outputs = analyze(readRequest(new File(
+					args[0])));
+			try (Writer out = new OutputStreamWriter(new FileOutputStream(
+					args[1]), StandardCharsets.UTF_8)) {
+				CeSymmResultCache.writeOutputs(out, outputs);
+			}
+		} catch (Throwable e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+
+	private static Map<String, String> analyze(Request request)
+			throws Exception {
+
+		AtomCache cache = request.createCache();
+		StructureName id = new StructureName(request.id);
+		Structure structure = cache.getStructure(id);
+		Atom[] atoms = SymmetryTools.getRepresentativeAtoms(structure);
+		CeSymmResult result = CeSymm.analyze(atoms, request.params);
+
+		Map<String, String> outputs = new LinkedHashMap<String, String>();
+		for (String name : request.writers) {
+			CeSymmWriter writer = (CeSymmWriter) Class.forName(name)
+					.getConstructor(PrintWriter.class)
+					.newInstance(new PrintWriter(new StringWriter()));
+			try {
+				outputs.put(writer.getClass().getSimpleName(),
+						writer.formatResult(result));
+			} catch (Exception e) {
+				System.err.println("Could not save results for " + id);
+				e.printStackTrace();
+			} finally {
+				writer.close();
+			}
+		}
+		return outputs;
+	}
+
+	/**
+	 * Writes the request for the analysis of a structure.
+	 *
+	 * @param file
+	 * @param id
+	 * @param cache
+	 *            whose files and download settings are used
+	 * @param params
+	 * @param writers
+	 *            class names of the {@link CeSymmWriter} of each output
+	 * @throws IOException
+	 */
+	static void writeRequest(File file, StructureIdentifier id,
+			AtomCache cache, CESymmParameters params, List<String> writers)
+			throws IOException {
+
+		try (PrintWriter out = new PrintWriter(new OutputStreamWriter(
+				new FileOutputStream(file), StandardCharsets.UTF_8))) {
+			writeLine(out, "id", id.getIdentifier());
+			writeLine(out, "path", cache.getPath());
+			writeLine(out, "cachePath", cache.getCachePath());
+			writeLine(out, "mmcif", Boolean.toString(cache.isUseMmCif()));
+			writeLine(out, "fetch", cache.getFetchBehavior());
+			writeLine(out, "obsolete", cache.getObsoleteBehavior());
+			for (String writer : writers)
+				writeLine(out, "writer", writer);
+			for (Field f : getParameterFields()) {
+				Object value;
+				try {
+					value = f.get(params);
+				} catch (IllegalAccessException e) {
+					throw new IllegalStateException(e);
+				}
+				if (value == null)
+					writeLine(out, "null", getName(f));
+				else
+					writeLine(out, "param", getName(f) + "=" + value);
+			}
+			if (out.checkError())
+				throw new IOException("Could not write request " + file);
+		}
+	}
+
+	private static void writeLine(PrintWriter out, String key, Object value) {
+		if (value == null)
+			return;
+		String str = value instanceof Enum ? ((Enum<?>) value).name() : value
+				.toString();
+		if (str.indexOf('\n') >= 0 || str.indexOf('\r') >= 0)
+			throw new IllegalArgumentException("Line break in " + key + ": "
+					+ str);
+		out.print(key + "\t" + str + "\n");
+	}
+
+	/**
+	 * Reads a request written by
+	 * {@link #writeRequest(File, StructureIdentifier, AtomCache, CESymmParameters, List)}
+	 * .
+	 *
+	 * @param file
+	 * @return the request
+	 * @throws IOException
+	 *             if the request is not valid
+	 */
+	static Request readRequest(File file) throws IOException {
+
+		Map<String, Field> fields = new LinkedHashMap<String, Field>();
+		for (Field f : getParameterFields())
+			fields.put(getName(f), f);
+
+		Request request = new Request();
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				int tab = line.indexOf('\t');
+				if (tab <= 0)
+					throw new IOException("Malformed request line: " + line);
+				String key = line.substring(0, tab);
+				String value = line.substring(tab + 1);
+				switch (key) {
+				case "id":
+					request.id = value;
+					break;
+				case "path":
+					request.path = value;
+					break;
+				case "cachePath":
+					request.cachePath = value;
+					break;
+				case "mmcif":
+					request.useMmCif = Boolean.parseBoolean(value);
+					break;
+				case "fetch":
+					request.fetchBehavior = FetchBehavior.valueOf(value);
+					break;
+				case "obsolete":
+					request.obsoleteBehavior = ObsoleteBehavior.valueOf(value);
+					break;
+				case "writer":
+					request.writers.add(value);
+					break;
+				case "null":
+					setParameter(request.params, fields.get(value), value, null);
+					break;
+				case "param":
+					int eq = value.indexOf('=');
+					if (eq <= 0)
+						throw new IOException("Malformed parameter: " + value);
+					String name = value.substring(0, eq);
+					setParameter(request.params, fields.get(name), name,
+							value.substring(eq + 1));
+					break;
+				default:
+					throw new IOException("Unknown request line: " + line);
+				}
+			}
+		}
+		if (request.id == null)
+			throw new IOException("No structure in request " + file);
+		return request;
+	}
+
+	private static void setParameter(CESymmParameters params, Field f,
+			String name, String value) throws IOException {
+		if (f == null)
+			throw new IOException("Unknown parameter: " + name);
+		try {
+			f.set(params, value == null ? null : parse(f.getType(), value));
+		} catch (IllegalArgumentException | IllegalAccessException e) {
+			throw new IOException("Invalid value of " + name + ": " + value,
+					e);
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Object parse(Class<?> type, String value) {
+		if (type == int.class || type == Integer.class)
+			return Integer.valueOf(value);
+		if (type == long.class || type == Long.class)
+			return Long.valueOf(value);
+		if (type == double.class || type == Double.class)
+			return Double.valueOf(value);
+		if (type == float.class || type == Float.class)
+			return Float.valueOf(value);
+		if (type == short.class || type == Short.class)
+			return Short.valueOf(value);
+		if (type == byte.class || type == Byte.class)
+			return Byte.valueOf(value);
+		if (type == boolean.class || type == Boolean.class)
+			return Boolean.valueOf(value);
+		if (type == char.class || type == Character.class) {
+			if (value.length() != 1)
+				throw new IllegalArgumentException(value);
+			return value.charAt(0);
+		}
+		if (type.isEnum())
+			return Enum.valueOf((Class<? extends Enum>) type, value);
+		return value;
+	}
+
+	/**
+	 * The fields of the parameters that are copied: those of primitive,
+	 * String and enum types, and not final.
+	 */
+	private static List<Field> getParameterFields() {
+		List<Field> fields = new ArrayList<Field>();
+		for (Field f : CeSymmResultCache.getFields(CESymmParameters.class)) {
+			Class<?> type = f.getType();
+			if (Modifier.isFinal(f.getModifiers()))
+				continue;
+			if (type.isPrimitive() || type == String.class || type.isEnum()
+					|| Number.class.isAssignableFrom(type)
+					|| type == Boolean.class || type == Character.class) {
+				f.setAccessible(true);
+				fields.add(f);
+			}
+		}
+		return fields;
+	}
+
+	private static String getName(Field f) {
+		return f.getDeclaringClass().getSimpleName() + "." + f.getName();
+	}
+
+}
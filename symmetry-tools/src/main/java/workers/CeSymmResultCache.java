@@ -0,0 +1,347 @@
+package workers;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.Group;
+import org.biojava.nbio.structure.StructureIdentifier;
+import org.biojava.nbio.structure.symmetry.internal.CESymmParameters;
+import org.biojava.nbio.structure.symmetry.internal.CeSymm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent on-disk store of CeSymm results, so that runs over largely the
+ * same set of structures only need to analyze the new or modified ones.
+ * <p>
+ * Entries are keyed by a hash of the structure identifier, the coordinates and
+ * residues of its representative atoms, all the fields of the
+ * {@link CESymmParameters} and the BioJava version. The value of an entry is
+ * the formatted output of each writer, indexed by the writer class name, so
+ * that a cache hit can be written without running the analysis.
+ * <p>
+ * Each entry is stored in its own gzipped text file, which is written to a
+ * temporary file and then atomically moved into place, so the store can be
+ * shared by concurrent workers and processes. The file starts with a header
+ * line, followed by each output as a line with the writer class name and the
+ * number of characters of the output, a tab apart, and the output itself.
+ * The entries are only parsed as text, so a file planted in the store can at
+ * worst produce wrong outputs, never run code.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class CeSymmResultCache {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(CeSymmResultCache.class);
+
+	/** Change when the format of the stored outputs changes */
+	private static final String FORMAT_VERSION = "2";
+
+	/** First line of the entry files */
+	private static final String HEADER = "CeSymmResultCache " + FORMAT_VERSION;
+
+	private final File dir;
+
+	/**
+	 * @param dirname
+	 *            directory for the cache files, created if needed
+	 * @throws IOException
+	 */
+	public CeSymmResultCache(String dirname) throws IOException {
+		this.dir = new File(dirname);
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Could not create result cache directory "
+					+ dirname);
+	}
+
+	/**
+	 * Calculates the cache key for the analysis of a structure.
+	 *
+	 * @param id
+	 *            structure identifier, which appears in the outputs
+	 * @param atoms
+	 *            representative atoms of the structure
+	 * @param params
+	 *            CeSymm parameters
+	 * @return hexadecimal key
+	 */
+	public static String getKey(StructureIdentifier id, Atom[] atoms,
+			CESymmParameters params) {
+
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		StringBuilder str = new StringBuilder();
+		str.append(FORMAT_VERSION).append('\n');
+		Package pkg = CeSymm.class.getPackage();
+		str.append(pkg == null ? null : pkg.getImplementationVersion())
+				.append('\n');
+		str.append(id.getIdentifier()).append('\n');
+		str.append(canonicalParameters(params)).append('\n');
+		str.append(atoms.length).append('\n');
+		md.update(str.toString().getBytes(StandardCharsets.UTF_8));
+
+		// Coordinates by their exact bit patterns, and residue identity
+		byte[] coords = new byte[24];
+		for (Atom a : atoms) {
+			putLong(coords, 0, Double.doubleToLongBits(a.getX()));
+			putLong(coords, 8, Double.doubleToLongBits(a.getY()));
+			putLong(coords, 16, Double.doubleToLongBits(a.getZ()));
+			md.update(coords);
+			Group g = a.getGroup();
+			String residue = a.getName();
+			if (g != null)
+				residue += g.getPDBName() + g.getResidueNumber();
+			md.update(residue.getBytes(StandardCharsets.UTF_8));
+		}
+
+		StringBuilder key = new StringBuilder();
+		for (byte b : md.digest())
+			key.append(String.format("%02x", b));
+		return key.toString();
+	}
+
+	/**
+	 * Returns a canonical String representation of all the fields of the
+	 * parameters (including the inherited ones), sorted by name.
+	 *
+	 * @param params
+	 * @return canonical representation
+	 */
+	public static String canonicalParameters(CESymmParameters params) {
+
+		StringBuilder str = new StringBuilder();
+		for (Field f : getFields(params.getClass())) {
+			Object value;
+			try {
+				f.setAccessible(true);
+				value = f.get(params);
+			} catch (Exception e) {
+				value = "?";
+			}
+			str.append(f.getDeclaringClass().getSimpleName()).append('.')
+					.append(f.getName()).append('=').append(valueToString(value))
+					.append(';');
+		}
+		return str.toString();
+	}
+
+	/**
+	 * Returns all the instance fields of a class, including the inherited
+	 * ones, sorted by declaring class and name.
+	 *
+	 * @param type
+	 * @return sorted fields
+	 */
+	static List<Field> getFields(Class<?> type) {
+		List<Field> fields = new ArrayList<Field>();
+		for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+			for (Field f : c.getDeclaredFields()) {
+				if (!Modifier.isStatic(f.getModifiers()))
+					fields.add(f);
+			}
+		}
+		Collections.sort(fields, new Comparator<Field>() {
+			@Override
+			public int compare(Field f1, Field f2) {
+				int cmp = f1.getDeclaringClass().getName()
+						.compareTo(f2.getDeclaringClass().getName());
+				if (cmp != 0)
+					return cmp;
+				return f1.getName().compareTo(f2.getName());
+			}
+		});
+		return fields;
+	}
+
+	private static String valueToString(Object value) {
+		if (value == null)
+			return "null";
+		if (value instanceof Object[])
+			return Arrays.deepToString((Object[]) value);
+		if (value instanceof double[])
+			return Arrays.toString((double[]) value);
+		if (value instanceof int[])
+			return Arrays.toString((int[]) value);
+		try {
+			// Objects without a proper toString are identified by their class
+			if (value.getClass().getMethod("toString").getDeclaringClass() == Object.class)
+				return value.getClass().getName();
+		} catch (NoSuchMethodException e) {
+			return value.getClass().getName();
+		}
+		return value.toString();
+	}
+
+	private static void putLong(byte[] buf, int pos, long value) {
+		for (int i = 7; i >= 0; i--) {
+			buf[pos + i] = (byte) value;
+			value >>>= 8;
+		}
+	}
+
+	private File getFile(String key) {
+		File subdir = new File(dir, key.substring(0, 2));
+		return new File(subdir, key + ".txt.gz");
+	}
+
+	/**
+	 * Returns the stored outputs for a key.
+	 *
+	 * @param key
+	 * @return map from writer class name to formatted output, or null if the
+	 *         key is not in the cache or the entry could not be read
+	 */
+	public Map<String, String> get(String key) {
+		File file = getFile(key);
+		if (!file.exists())
+			return null;
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(
+				new GZIPInputStream(new FileInputStream(file)),
+				StandardCharsets.UTF_8))) {
+			return readOutputs(in);
+		} catch (IOException e) {
+			logger.warn("Could not read result cache entry " + file, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Reads formatted outputs in the text format of the entries.
+	 *
+	 * @param in
+	 * @return map from writer class name to formatted output
+	 * @throws IOException
+	 *             if the outputs are not in the expected format
+	 */
+	static Map<String, String> readOutputs(BufferedReader in)
+			throws IOException {
+		if (!HEADER.equals(in.readLine()))
+			throw new IOException("Unknown format");
+		Map<String, String> outputs = new LinkedHashMap<String, String>();
+		String line;
+		while ((line = in.readLine()) != null) {
+			int tab = line.indexOf('\t');
+			if (tab <= 0)
+				throw new IOException("Malformed output header: " + line);
+			int length;
+			try {
+				length = Integer.parseInt(line.substring(tab + 1));
+			} catch (NumberFormatException e) {
+				throw new IOException("Malformed output length: " + line);
+			}
+			if (length < 0)
+				throw new IOException("Malformed output length: " + line);
+			outputs.put(line.substring(0, tab), read(in, length));
+		}
+		return outputs;
+	}
+
+	/**
+	 * Reads exactly a number of characters, and the line break after them.
+	 */
+	private static String read(Reader in, int length) throws IOException {
+		char[] buf = new char[Math.min(length, 1 << 16)];
+		StringBuilder str = new StringBuilder(buf.length);
+		while (str.length() < length) {
+			int n = in.read(buf, 0,
+					Math.min(buf.length, length - str.length()));
+			if (n < 0)
+				throw new EOFException("Truncated output");
+			str.append(buf, 0, n);
+		}
+		if (in.read() != '\n')
+			throw new IOException("Missing line break after an output");
+		return str.toString();
+	}
+
+	/**
+	 * Stores the outputs for a key, replacing any previous entry.
+	 *
+	 * @param key
+	 * @param outputs
+	 *            map from writer class name to formatted output
+	 * @throws IOException
+	 */
+	public void put(String key, Map<String, String> outputs)
+			throws IOException {
+		File file = getFile(key);
+		File subdir = file.getParentFile();
+		if (!subdir.isDirectory() && !subdir.mkdirs() && !subdir.isDirectory())
+			throw new IOException("Could not create directory " + subdir);
+
+		File tmp = File.createTempFile(key, ".tmp", subdir);
+		try {
+			try (Writer out = new BufferedWriter(new OutputStreamWriter(
+					new GZIPOutputStream(new FileOutputStream(tmp)),
+					StandardCharsets.UTF_8))) {
+				writeOutputs(out, outputs);
+			}
+			Files.move(tmp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp.toPath());
+		}
+	}
+
+	/**
+	 * Writes formatted outputs in the text format of the entries.
+	 *
+	 * @param out
+	 * @param outputs
+	 *            map from writer class name to formatted output
+	 * @throws IOException
+	 */
+	static void writeOutputs(Writer out, Map<String, String> outputs)
+			throws IOException {
+		out.write(HEADER);
+		out.write('\n');
+		for (Map.Entry<String, String> output : outputs.entrySet()) {
+			String name = output.getKey();
+			if (name.isEmpty() || name.indexOf('\t') >= 0
+					|| name.indexOf('\n') >= 0)
+				throw new IllegalArgumentException("Invalid writer name: "
+						+ name);
+			out.write(name);
+			out.write('\t');
+			out.write(Integer.toString(output.getValue().length()));
+			out.write('\n');
+			out.write(output.getValue());
+			out.write('\n');
+		}
+	}
+
+}
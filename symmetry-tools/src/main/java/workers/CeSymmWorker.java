@@ -1,7 +1,11 @@
 package workers;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
 
 import org.biojava.nbio.structure.Atom;
 import org.biojava.nbio.structure.Structure;
@@ -16,7 +20,12 @@ import org.biojava.nbio.structure.symmetry.utils.SymmetryTools;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import workers.JobTimings.Phase;
+import workers.JobTimings.Status;
+import writers.CeSymmJobTimesWriter;
 import writers.CeSymmWriter;
+import writers.OutputWriter;
+import writers.ReorderBuffer;
 
 /**
  * This Runnable implementation runs CeSymm on the input structure and with the
@@ -39,6 +48,20 @@ public class CeSymmWorker implements Runnable {
 	private List<CeSymmWriter> writers;
 	private boolean show3d;
 
+	private CeSymmResultCache resultCache;
+	private CompletionJournal journal;
+	private JobWatchdog watchdog;
+	private CeSymmJobTimesWriter timingsWriter;
+	private ReorderBuffer reorder;
+	private long sequence;
+
+	private Atom[] atoms;
+	private boolean loadFailed;
+	/** Outputs to write when the job finishes */
+	private Map<String, String> pendingOutputs;
+	private boolean recordPending;
+	private final JobTimings timings = new JobTimings();
+
 	public CeSymmWorker(StructureIdentifier id, CESymmParameters params,
 			AtomCache cache, List<CeSymmWriter> writers, boolean show3d) {
 		this.id = id;
@@ -48,35 +71,183 @@ public class CeSymmWorker implements Runnable {
 		this.params = params;
 	}
 
+	/**
+	 * Load the structure and extract its representative atoms. This is the
+	 * I/O-bound part of the job; it can be called in advance from a separate
+	 * thread (see {@link StructureLoader}), otherwise it is done at the
+	 * beginning of {@link #run()}. If the structure can not be loaded,
+	 * {@link #run()} only reports the failure.
+	 * 
+	 * @return true if the structure was loaded, false otherwise
+	 */
+	public boolean load() {
+		loadFailed = true;
+		try {
+			// Obtain the structure representation
+			long time = System.nanoTime();
+			Structure structure = cache.getStructure(id);
+			time = timings.end(Phase.LOAD, time);
+			atoms = SymmetryTools.getRepresentativeAtoms(structure);
+			timings.end(Phase.ATOMS, time);
+			timings.setLength(atoms.length);
+			loadFailed = false;
+			return true;
+		} catch (IOException | StructureException e) {
+			logger.error("Could not load Structure " + id.getIdentifier(), e);
+		} catch (Exception e) {
+			logger.error("Could not complete job: " + id.getIdentifier(), e);
+		}
+		return false;
+	}
+
+	public StructureIdentifier getId() {
+		return id;
+	}
+
+	/**
+	 * Use a persistent store of results: if the outputs of all the writers are
+	 * already stored the analysis is skipped, otherwise the new outputs are
+	 * stored. The store is not used when the 3D visualization is turned on.
+	 * 
+	 * @param resultCache
+	 */
+	public void setResultCache(CeSymmResultCache resultCache) {
+		this.resultCache = resultCache;
+	}
+
+	/**
+	 * Record the identifier in a journal once the results are written, so
+	 * that an interrupted run can be resumed.
+	 * 
+	 * @param journal
+	 */
+	public void setJournal(CompletionJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Run the analysis under a time limit, in a separate process that is
+	 * killed when the limit is exceeded (see {@link JobWatchdog}). Structures
+	 * that exceed it are reported with a timeout entry by the writers. The
+	 * process also formats the outputs, so their time is part of the
+	 * analysis. The time limit is not applied when the 3D visualization is
+	 * turned on, which needs the result in this process.
+	 * 
+	 * @param watchdog
+	 */
+	public void setWatchdog(JobWatchdog watchdog) {
+		this.watchdog = watchdog;
+	}
+
+	/**
+	 * Write the wall-clock times of the job, after its outputs.
+	 * 
+	 * @param timingsWriter
+	 */
+	public void setTimingsWriter(CeSymmJobTimesWriter timingsWriter) {
+		this.timingsWriter = timingsWriter;
+	}
+
+	/**
+	 * Write the outputs and times of this job in submission order, through a
+	 * buffer shared by all the jobs.
+	 * 
+	 * @param reorder
+	 * @param sequence
+	 *            sequence number of this job in the buffer
+	 */
+	public void setReorderBuffer(ReorderBuffer reorder, long sequence) {
+		this.reorder = reorder;
+		this.sequence = sequence;
+	}
+
+	/**
+	 * @return the wall-clock times of the job so far
+	 */
+	public JobTimings getTimings() {
+		return timings;
+	}
+
 	@Override
 	public void run() {
 
 		try {
-			// Obtain the structure representation
-			Structure structure = null;
-			try {
-				structure = cache.getStructure(id);
-			} catch (IOException | StructureException e) {
-				logger.error("Could not load Structure " + id.getIdentifier(),
-						e);
+			if (atoms == null && (loadFailed || !load()))
 				return;
-			}
 
-			Atom[] atoms = SymmetryTools.getRepresentativeAtoms(structure);
+			// Look for stored outputs of a previous analysis
+			String key = null;
+			Map<String, String> outputs = null;
+			if (resultCache != null && !show3d) {
+				key = CeSymmResultCache.getKey(id, atoms, params);
+				outputs = resultCache.get(key);
+				if (outputs != null && outputs.keySet().containsAll(
+						getWriterNames())) {
+					logger.info("Using stored result for " + id);
+					atoms = null;
+					writeOutputs(outputs, true);
+					timings.setStatus(Status.CACHED);
+					return;
+				}
+			}
 
 			// Run the symmetry analysis
-			CeSymmResult result = CeSymm.analyze(atoms, params);
+			CeSymmResult result = null;
+			Map<String, String> analyzed = null;
+			long time = System.nanoTime();
+			try {
+				if (watchdog != null && !show3d)
+					analyzed = watchdog.analyze(id, cache, params,
+							getWriterClasses());
+				else
+					result = CeSymm.analyze(atoms, params);
+			} catch (TimeoutException e) {
+				timings.end(Phase.ANALYSIS, time);
+				logger.warn("Job " + id.getIdentifier() + " exceeded the time "
+						+ "limit of " + watchdog.getTimeout() + " ms");
+				atoms = null;
+				writeTimeout();
+				timings.setStatus(Status.TIMEOUT);
+				return;
+			}
+			time = timings.end(Phase.ANALYSIS, time);
+			// Release the atoms, the result keeps its own reference
+			atoms = null;
 
-			// Write into the output files
-			for (CeSymmWriter writer : writers) {
-				try {
-					synchronized (writer) {
-						writer.writeResult(result);
+			// Format and write into the output files
+			if (outputs == null)
+				outputs = new HashMap<String, String>();
+			boolean complete = true;
+			if (analyzed != null) {
+				// Formatted by the analysis process
+				outputs.putAll(analyzed);
+				complete = outputs.keySet().containsAll(getWriterNames());
+				if (!complete)
+					logger.error("Could not save results for "
+							+ id.getIdentifier());
+			} else {
+				for (CeSymmWriter writer : writers) {
+					try {
+						outputs.put(getWriterName(writer),
+								writer.formatResult(result));
+					} catch (Exception e) {
+						logger.error("Could not save results for "
+								+ id.getIdentifier(), e);
+						complete = false;
 					}
-				} catch (Exception e) {
-					logger.error(
-							"Could not save results for " + id.getIdentifier(),
-							e);
+				}
+			}
+			timings.end(Phase.FORMAT, time);
+			// A job with a missing output is analyzed again on --resume
+			writeOutputs(outputs, complete);
+			timings.setStatus(Status.OK);
+
+			if (key != null && complete) {
+				try {
+					resultCache.put(key, outputs);
+				} catch (IOException e) {
+					logger.error("Could not store result for "
+							+ id.getIdentifier(), e);
 				}
 			}
 
@@ -88,6 +259,106 @@ public class CeSymmWorker implements Runnable {
 			logger.error("Could not complete job: " + id.getIdentifier(), e);
 		} finally {
 			logger.info("Finished job: " + id);
+			// Always release, not to hold back the output of the next jobs
+			Runnable writes = new Runnable() {
+				@Override
+				public void run() {
+					writePending();
+				}
+			};
+			if (reorder == null)
+				writes.run();
+			else
+				reorder.release(sequence, writes);
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Write the timeout entries of this job. They are not stored in the
+	 * result cache, since they depend on the time limit and the machine, and
+	 * the job is not recorded in the journal, so that --resume retries it.
+	 */
+	private void writeTimeout() {
+		Map<String, String> outputs = new HashMap<String, String>();
+		for (CeSymmWriter writer : writers)
+			outputs.put(getWriterName(writer), writer.formatTimeout(id));
+		writeOutputs(outputs, false);
+	}
+
+	/**
+	 * Keep the formatted outputs of this job, which are handed to their
+	 * writers, directly or through the reorder buffer, when the job finishes.
+	 * The job is recorded in the journal once all the outputs have been
+	 * flushed without errors.
+	 * 
+	 * @param outputs
+	 *            map from writer name to formatted output
+	 * @param record
+	 *            false if the outputs are incomplete, so that the job is not
+	 *            recorded in the journal
+	 */
+	private void writeOutputs(Map<String, String> outputs, boolean record) {
+		pendingOutputs = outputs;
+		recordPending = record;
+	}
+
+	/**
+	 * Write the outputs of this job, if any, followed by its times.
+	 */
+	private void writePending() {
+		if (pendingOutputs != null) {
+			long time = System.nanoTime();
+			write(pendingOutputs, recordPending);
+			timings.end(Phase.WRITE, time);
+			pendingOutputs = null;
+		}
+		if (timingsWriter != null)
+			timingsWriter.writeFormatted(timingsWriter.formatTimes(id,
+					timings));
+	}
+
+	private void write(Map<String, String> outputs, boolean record) {
+		Runnable onWritten = null;
+		if (journal != null && record) {
+			onWritten = OutputWriter.afterAll(writers.size(), new Runnable() {
+				@Override
+				public void run() {
+					recordCompleted();
+				}
+			});
+		}
+		if (writers.isEmpty() && onWritten != null)
+			recordCompleted();
+		for (CeSymmWriter writer : writers) {
+			String text = outputs.get(getWriterName(writer));
+			writer.writeFormatted(text == null ? "" : text, onWritten);
+		}
+	}
+
+	private void recordCompleted() {
+		try {
+			journal.record(id);
+		} catch (IOException e) {
+			logger.error("Could not record " + id.getIdentifier()
+					+ " in the journal", e);
+		}
+	}
+
+	private static String getWriterName(CeSymmWriter writer) {
+		return writer.getClass().getSimpleName();
+	}
+
+	private List<String> getWriterClasses() {
+		List<String> names = new ArrayList<String>(writers.size());
+		for (CeSymmWriter writer : writers)
+			names.add(writer.getClass().getName());
+		return names;
+	}
+
+	private List<String> getWriterNames() {
+		List<String> names = new ArrayList<String>(writers.size());
+		for (CeSymmWriter writer : writers)
+			names.add(getWriterName(writer));
+		return names;
+	}
+}
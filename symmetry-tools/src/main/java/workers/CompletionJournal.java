@@ -0,0 +1,100 @@
+package workers;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.biojava.nbio.structure.StructureIdentifier;
+
+import writers.OutputWriter;
+
+/**
+ * Journal of the structures whose results have been written, used to resume
+ * a batch run after it was interrupted.
+ * <p>
+ * The identifier of each finished job is appended as a single line, with a
+ * single write that is flushed immediately, so an interrupted run leaves at
+ * most one incomplete line at the end of the file, which is ignored when the
+ * journal is read and removed before new entries are appended.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class CompletionJournal {
+
+	private final FileOutputStream out;
+
+	/**
+	 * Opens the journal for writing.
+	 *
+	 * @param filename
+	 * @param append
+	 *            true to keep the entries of a previous run, false to start an
+	 *            empty journal
+	 * @throws IOException
+	 */
+	public CompletionJournal(String filename, boolean append)
+			throws IOException {
+		if (append)
+			OutputWriter.truncateIncomplete(new File(filename), null);
+		this.out = new FileOutputStream(filename, append);
+	}
+
+	/**
+	 * Reads the identifiers of the completed jobs of a journal.
+	 *
+	 * @param filename
+	 * @return set of completed identifiers, empty if the file does not exist
+	 * @throws IOException
+	 */
+	public static Set<String> readCompleted(String filename)
+			throws IOException {
+		Set<String> completed = new HashSet<String>();
+		File file = new File(filename);
+		if (!file.exists())
+			return completed;
+
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), StandardCharsets.UTF_8))) {
+			// Read the full content to detect an incomplete last line
+			StringBuilder content = new StringBuilder();
+			char[] buf = new char[8192];
+			int n;
+			while ((n = in.read(buf)) > 0)
+				content.append(buf, 0, n);
+
+			int start = 0;
+			int end;
+			while ((end = content.indexOf("\n", start)) >= 0) {
+				String id = content.substring(start, end).trim();
+				if (!id.isEmpty())
+					completed.add(id);
+				start = end + 1;
+			}
+		}
+		return completed;
+	}
+
+	/**
+	 * Records a job as completed. Called once its results have been written.
+	 *
+	 * @param id
+	 * @throws IOException
+	 */
+	public synchronized void record(StructureIdentifier id)
+			throws IOException {
+		out.write((id.getIdentifier() + "\n").getBytes(StandardCharsets.UTF_8));
+		out.flush();
+	}
+
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+
+}
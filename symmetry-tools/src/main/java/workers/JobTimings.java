@@ -0,0 +1,94 @@
+package workers;
+
+/**
+ * Coarse wall-clock times of a job: loading, the analysis as a whole,
+ * formatting and writing, to find out how the time of a batch is split
+ * between I/O and computation for each structure.
+ * <p>
+ * The analysis phase covers the whole {@code CeSymm.analyze} call of BioJava
+ * (self-alignment, order detection, refinement, optimization and axes), whose
+ * internal steps can not be timed from outside.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class JobTimings {
+
+	/**
+	 * The phases of a job, in the order in which they are run.
+	 */
+	public static enum Phase {
+		/** Loading and parsing the structure with the AtomCache */
+		LOAD,
+		/** Extracting the representative atoms of the structure */
+		ATOMS,
+		/** Running the symmetry analysis */
+		ANALYSIS,
+		/** Formatting the result for each output writer */
+		FORMAT,
+		/** Writing the formatted results to the output files */
+		WRITE
+	}
+
+	/** The outcome of a job */
+	public static enum Status {
+		OK, CACHED, TIMEOUT, ERROR
+	}
+
+	private final long[] nanos = new long[Phase.values().length];
+	private int length;
+	private Status status = Status.ERROR;
+
+	/**
+	 * Add time to a phase.
+	 *
+	 * @param phase
+	 * @param start
+	 *            value of {@link System#nanoTime()} at the start of the phase
+	 * @return the current value of {@link System#nanoTime()}, to be used as
+	 *         the start of the next phase
+	 */
+	public long end(Phase phase, long start) {
+		long now = System.nanoTime();
+		nanos[phase.ordinal()] += now - start;
+		return now;
+	}
+
+	/**
+	 * @param phase
+	 * @return time spent in the phase, in milliseconds
+	 */
+	public double getMillis(Phase phase) {
+		return nanos[phase.ordinal()] / 1e6;
+	}
+
+	/**
+	 * @return time spent in all the phases, in milliseconds
+	 */
+	public double getTotalMillis() {
+		long total = 0;
+		for (long n : nanos)
+			total += n;
+		return total / 1e6;
+	}
+
+	/**
+	 * @return number of representative atoms of the structure
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	public void setLength(int length) {
+		this.length = length;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		this.status = status;
+	}
+
+}
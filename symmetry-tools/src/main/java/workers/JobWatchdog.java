@@ -0,0 +1,165 @@
+package workers;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.biojava.nbio.structure.StructureIdentifier;
+import org.biojava.nbio.structure.align.util.AtomCache;
+import org.biojava.nbio.structure.symmetry.internal.CESymmParameters;
+
+/**
+ * Runs the analysis of a structure under a wall-clock time limit.
+ * <p>
+ * {@link org.biojava.nbio.structure.symmetry.internal.CeSymm#analyze} does not
+ * check the interrupted status of its thread, so an analysis in the same JVM
+ * can not be stopped. Instead, each analysis runs in a separate Java process
+ * ({@link CeSymmProcess}), with the same class path and JVM options, which
+ * loads the structure, analyzes it and formats the outputs. When the limit is
+ * exceeded the process is killed, so a timed-out analysis does not use any
+ * more CPU time or memory, and the worker is free for the next job.
+ * <p>
+ * The price is the startup of a JVM and a second load of the structure for
+ * every job, which is small compared to the analysis of all but the smallest
+ * structures.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class JobWatchdog {
+
+	private final long timeout;
+	private final List<String> command;
+	/** Child processes running */
+	private final Set<Process> running = Collections
+			.newSetFromMap(new ConcurrentHashMap<Process, Boolean>());
+
+	/**
+	 * @param timeout
+	 *            maximum wall-clock time per analysis, in milliseconds
+	 */
+	public JobWatchdog(long timeout) {
+		this.timeout = timeout;
+		this.command = getCommand();
+		// Do not leave analyses running if the program is stopped
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				shutdown();
+			}
+		});
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * The command that starts a {@link CeSymmProcess}: the java executable of
+	 * this JVM, with its options (except debugging agents) and class path.
+	 */
+	private static List<String> getCommand() {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin"
+				+ File.separator + "java");
+		for (String arg : ManagementFactory.getRuntimeMXBean()
+				.getInputArguments()) {
+			if (arg.startsWith("-agentlib") || arg.startsWith("-javaagent")
+					|| arg.startsWith("-Xrunjdwp"))
+				continue;
+			command.add(arg);
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(CeSymmProcess.class.getName());
+		return command;
+	}
+
+	/**
+	 * Analyzes the structure in a child process and waits for the formatted
+	 * outputs, up to the time limit.
+	 *
+	 * @param id
+	 * @param cache
+	 *            whose files and download settings are used to load the
+	 *            structure
+	 * @param params
+	 * @param writers
+	 *            class names of the {@link writers.CeSymmWriter} of each
+	 *            output
+	 * @return map from writer name to formatted output; an output that could
+	 *         not be formatted is missing
+	 * @throws TimeoutException
+	 *             if the analysis exceeded the time limit, in which case the
+	 *             process has been killed
+	 * @throws IOException
+	 *             if the process could not be started or failed
+	 * @throws InterruptedException
+	 *             if the calling thread is interrupted, in which case the
+	 *             process has been killed
+	 */
+	public Map<String, String> analyze(StructureIdentifier id,
+			AtomCache cache, CESymmParameters params, List<String> writers)
+			throws TimeoutException, IOException, InterruptedException {
+
+		File request = File.createTempFile("cesymm-request", ".txt");
+		File result = File.createTempFile("cesymm-result", ".txt");
+		try {
+			CeSymmProcess.writeRequest(request, id, cache, params, writers);
+
+			List<String> args = new ArrayList<String>(command);
+			args.add(request.getPath());
+			args.add(result.getPath());
+			ProcessBuilder builder = new ProcessBuilder(args);
+			builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+			builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+			Process process = builder.start();
+			running.add(process);
+			try {
+				process.getOutputStream().close();
+				if (!process.waitFor(timeout, TimeUnit.MILLISECONDS)) {
+					process.destroyForcibly().waitFor();
+					throw new TimeoutException("Analysis of "
+							+ id.getIdentifier() + " exceeded " + timeout
+							+ " ms");
+				}
+			} finally {
+				process.destroyForcibly();
+				running.remove(process);
+			}
+			if (process.exitValue() != 0)
+				throw new IOException("Analysis of " + id.getIdentifier()
+						+ " failed with exit code " + process.exitValue());
+
+			try (BufferedReader in = new BufferedReader(new InputStreamReader(
+					new FileInputStream(result), StandardCharsets.UTF_8))) {
+				return CeSymmResultCache.readOutputs(in);
+			}
+		} finally {
+			request.delete();
+			result.delete();
+		}
+	}
+
+	/**
+	 * Kills any running analysis.
+	 */
+	public void shutdown() {
+		for (Process process : running)
+			process.destroyForcibly();
+	}
+
+}
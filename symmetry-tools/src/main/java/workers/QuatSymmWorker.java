@@ -18,7 +18,9 @@ import org.biojava.nbio.structure.symmetry.jmolScript.JmolSymmetryScriptGenerato
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import writers.OutputWriter;
 import writers.QuatSymmWriter;
+import writers.ReorderBuffer;
 
 /**
  * This Runnable implementation runs the Quaternary Symmetry Detector on the
@@ -43,6 +45,11 @@ public class QuatSymmWorker implements Runnable {
 	private List<QuatSymmWriter> writers;
 	private boolean show3d;
 
+	private CompletionJournal journal;
+	private ReorderBuffer reorder;
+	private long sequence;
+	private boolean released;
+
 	public QuatSymmWorker(StructureIdentifier id,
 			QuatSymmetryParameters sparams, SubunitClustererParameters cparams,
 			AtomCache cache, List<QuatSymmWriter> writers, boolean show3d) {
@@ -54,6 +61,29 @@ public class QuatSymmWorker implements Runnable {
 		this.show3d = show3d;
 	}
 
+	/**
+	 * Record the identifier in a journal once the results are written, so
+	 * that an interrupted run can be resumed.
+	 * 
+	 * @param journal
+	 */
+	public void setJournal(CompletionJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Write the outputs of this job in submission order, through a buffer
+	 * shared by all the jobs.
+	 * 
+	 * @param reorder
+	 * @param sequence
+	 *            sequence number of this job in the buffer
+	 */
+	public void setReorderBuffer(ReorderBuffer reorder, long sequence) {
+		this.reorder = reorder;
+		this.sequence = sequence;
+	}
+
 	@Override
 	public void run() {
 
@@ -87,18 +117,34 @@ public class QuatSymmWorker implements Runnable {
 					result = local;
 			}
 
-			// Write into the output files
-			for (QuatSymmWriter writer : writers) {
+			// Format the results for the output files
+			final String[] outputs = new String[writers.size()];
+			boolean complete = true;
+			for (int i = 0; i < writers.size(); i++) {
+				outputs[i] = "";
 				try {
-					synchronized (writer) {
-						writer.writeResult(id.toString(), result);
-					}
+					outputs[i] = writers.get(i).formatResult(id.toString(),
+							result);
 				} catch (Exception e) {
 					logger.error(
 							"Could not save results for " + id.getIdentifier(),
 							e);
+					complete = false;
 				}
 			}
+			// A job with a missing output is analyzed again on --resume
+			final boolean record = complete;
+			if (reorder == null) {
+				write(outputs, record);
+			} else {
+				released = true;
+				reorder.release(sequence, new Runnable() {
+					@Override
+					public void run() {
+						write(outputs, record);
+					}
+				});
+			}
 
 			if (show3d && result != null) {
 				AxisAligner aligner = AxisAligner.getInstance(result);
@@ -122,6 +168,44 @@ public class QuatSymmWorker implements Runnable {
 			logger.error("Could not complete job: " + id.getIdentifier(), e);
 		} finally {
 			logger.info("Finished job: " + id);
+			// Do not hold back the output of the next jobs
+			if (reorder != null && !released)
+				reorder.release(sequence, null);
+		}
+	}
+
+	/**
+	 * Write into the output files, and record the job in the journal once
+	 * all of them have been flushed without errors.
+	 * 
+	 * @param outputs
+	 *            formatted output of each writer
+	 * @param record
+	 *            false if the outputs are incomplete, so that the job is not
+	 *            recorded in the journal
+	 */
+	private void write(String[] outputs, boolean record) {
+		Runnable onWritten = null;
+		if (journal != null && record) {
+			onWritten = OutputWriter.afterAll(writers.size(), new Runnable() {
+				@Override
+				public void run() {
+					recordCompleted();
+				}
+			});
+			if (writers.isEmpty())
+				recordCompleted();
+		}
+		for (int i = 0; i < writers.size(); i++)
+			writers.get(i).writeFormatted(outputs[i], onWritten);
+	}
+
+	private void recordCompleted() {
+		try {
+			journal.record(id);
+		} catch (IOException e) {
+			logger.error("Could not record " + id.getIdentifier()
+					+ " in the journal", e);
 		}
 	}
 }
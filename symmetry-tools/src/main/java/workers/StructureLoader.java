@@ -0,0 +1,50 @@
+package workers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * First stage of a two-stage pipeline: this Runnable loads the structure of a
+ * {@link CeSymmWorker} (I/O and parsing) and then hands the worker over to the
+ * compute executor, blocking while the compute stage is full.
+ * <p>
+ * Running the loaders in a small dedicated pool keeps the compute threads
+ * busy with CE-Symm instead of waiting for disk reads and file parsing.
+ * 
+ * @author Aleix Lafita
+ *
+ */
+public class StructureLoader implements Runnable {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(StructureLoader.class);
+
+	private CeSymmWorker worker;
+	private BoundedExecutor compute;
+
+	/**
+	 * @param worker
+	 *            job whose structure is loaded
+	 * @param compute
+	 *            executor of the compute stage, which bounds the number of
+	 *            loaded structures waiting for analysis
+	 */
+	public StructureLoader(CeSymmWorker worker, BoundedExecutor compute) {
+		this.worker = worker;
+		this.compute = compute;
+	}
+
+	@Override
+	public void run() {
+		// Structures that could not be loaded are still handed over, so that
+		// the worker reports the failure and releases its place in the output
+		worker.load();
+		try {
+			compute.execute(worker);
+		} catch (InterruptedException e) {
+			logger.error("Interrupted before analyzing "
+					+ worker.getId().getIdentifier(), e);
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package workers;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.biojava.nbio.structure.Chain;
+import org.biojava.nbio.structure.Structure;
+import org.biojava.nbio.structure.align.client.StructureName;
+import org.biojava.nbio.structure.align.util.AtomCache;
+import org.biojava.nbio.structure.io.FileParsingParameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Estimates the size of the structures of a batch, in number of
+ * representative atoms (residues), in order to schedule the largest (and
+ * slowest) structures first and avoid a long tail at the end of the batch in
+ * which a few big jobs keep only some of the threads busy.
+ * <p>
+ * Sizes are taken from an optional index file, which can be a
+ * whitespace-delimited file of identifiers and sizes, or the output of a
+ * previous CeSymm run with --stats (the 'Length' column). For structures not
+ * in the index, only the header of the file is parsed, in a parallel
+ * pre-pass, and the size is the number of SEQRES residues of the selected
+ * chains. The coordinates are not parsed, but the files are left in the local
+ * cache for the actual run. Structures without SEQRES records have an unknown
+ * size.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class StructureSizeEstimator {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(StructureSizeEstimator.class);
+
+	/** Size of the structures that could not be estimated */
+	public static final long UNKNOWN = -1;
+
+	/** Cache with the same files as the analysis, that only parses headers */
+	private final AtomCache headerCache;
+	private final Map<String, Long> index;
+
+	/**
+	 * @param cache
+	 *            the cache of the analysis, whose files and download settings
+	 *            are used to read the headers
+	 */
+	public StructureSizeEstimator(AtomCache cache) {
+		this.headerCache = new AtomCache(cache.getPath(), cache.getCachePath());
+		headerCache.setUseMmCif(cache.isUseMmCif());
+		headerCache.setFetchBehavior(cache.getFetchBehavior());
+		headerCache.setObsoleteBehavior(cache.getObsoleteBehavior());
+		FileParsingParameters params = new FileParsingParameters();
+		params.setHeaderOnly(true);
+		params.setAlignSeqRes(false);
+		params.setParseSecStruc(false);
+		params.setCreateAtomBonds(false);
+		headerCache.setFileParsingParams(params);
+		this.index = new HashMap<String, Long>();
+	}
+
+	/**
+	 * Reads the sizes from an index file. The first column is the structure
+	 * identifier; the size is taken from the column named 'Length' if the file
+	 * has a header, otherwise from the second column. Rows with a size of 0,
+	 * e.g. structures that failed to load, are ignored.
+	 *
+	 * @param filename
+	 * @throws FileNotFoundException
+	 */
+	public void readIndex(String filename) throws FileNotFoundException {
+		int column = 1;
+		boolean first = true;
+		try (Scanner s = new Scanner(new File(filename))) {
+			while (s.hasNextLine()) {
+				String line = s.nextLine().trim();
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+				String[] cols = line.split("\\s+");
+				if (first) {
+					first = false;
+					int header = findSizeColumn(cols);
+					if (header >= 0) {
+						column = header;
+						continue;
+					}
+					if (cols.length > 1 && !isNumber(cols[1])) {
+						logger.warn("No 'Length' column in " + filename
+								+ ", ignoring it");
+						return;
+					}
+				}
+				if (cols.length <= column)
+					continue;
+				try {
+					long size = Long.parseLong(cols[column]);
+					if (size > 0)
+						index.put(cols[0], size);
+				} catch (NumberFormatException e) {
+					logger.warn("Ignoring invalid size in " + filename + ": "
+							+ line);
+				}
+			}
+		}
+		logger.info("Read " + index.size() + " structure sizes from "
+				+ filename);
+	}
+
+	private static int findSizeColumn(String[] header) {
+		for (int i = 1; i < header.length; i++) {
+			if (header[i].equalsIgnoreCase("Length"))
+				return i;
+		}
+		return -1;
+	}
+
+	private static boolean isNumber(String col) {
+		try {
+			Long.parseLong(col);
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Estimates the size of a structure, from the index if possible, and
+	 * otherwise from the SEQRES records in the header of its file.
+	 *
+	 * @param name
+	 *            structure name, as given in the input
+	 * @return number of representative atoms, or {@link #UNKNOWN}
+	 */
+	public long estimate(String name) {
+		Long size = index.get(name);
+		StructureName id = new StructureName(name);
+		if (size == null)
+			size = index.get(id.getIdentifier());
+		if (size != null)
+			return size;
+
+		try {
+			Structure structure = headerCache.getStructure(id);
+			long length = 0;
+			for (Chain chain : structure.getChains())
+				length += chain.getSeqResGroups().size();
+			return length > 0 ? length : UNKNOWN;
+		} catch (Exception e) {
+			logger.warn("Could not estimate the size of " + name + ": "
+					+ e.getMessage());
+			return UNKNOWN;
+		}
+	}
+
+	/**
+	 * Sorts the structures by decreasing estimated size. The sort is stable,
+	 * so structures of the same size keep the input order, and structures of
+	 * unknown size (which will most likely fail to load) go last.
+	 *
+	 * @param names
+	 *            structure names
+	 * @param threads
+	 *            number of threads for the estimation pre-pass
+	 * @return a new list with the names sorted
+	 * @throws InterruptedException
+	 */
+	public List<String> sortLargestFirst(List<String> names, int threads)
+			throws InterruptedException {
+
+		final Map<String, Long> sizes = new HashMap<String, Long>();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Long>> futures = new ArrayList<Future<Long>>();
+			for (final String name : names) {
+				futures.add(executor.submit(new Callable<Long>() {
+					@Override
+					public Long call() {
+						return estimate(name);
+					}
+				}));
+			}
+			for (int i = 0; i < names.size(); i++) {
+				try {
+					sizes.put(names.get(i), futures.get(i).get());
+				} catch (ExecutionException e) {
+					sizes.put(names.get(i), UNKNOWN);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		List<String> sorted = new ArrayList<String>(names);
+		Collections.sort(sorted, new Comparator<String>() {
+			@Override
+			public int compare(String n1, String n2) {
+				return Long.compare(sizes.get(n2), sizes.get(n1));
+			}
+		});
+		return sorted;
+	}
+
+}
@@ -1,6 +1,7 @@
 package writers;
 
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -24,6 +25,14 @@ public class CeSymmAxesWriter extends CeSymmWriter {
 		super(filename);
 	}
 
+	public CeSymmAxesWriter(String filename, boolean append) throws IOException {
+		super(filename, append);
+	}
+
+	public CeSymmAxesWriter(PrintWriter writer) {
+		super(writer);
+	}
+
 	@Override
 	public synchronized void writeHeader() {
 
@@ -33,17 +42,17 @@ public class CeSymmAxesWriter extends CeSymmWriter {
 		writer.flush();
 	}
 
-	private synchronized void writeEmptyRow(String id) {
+	private String formatEmptyRow(String id) {
 		// Do nothing, like for non-refined cases
+		return "";
 	}
 
 	@Override
-	public synchronized void writeResult(CeSymmResult result) throws IOException {
+	public String formatResult(CeSymmResult result) {
 		String id = null;
-		if (result == null) {
-			writeEmptyRow(id);
-			return;
-		}
+		if (result == null)
+			return formatEmptyRow(id);
+		StringBuilder rows = new StringBuilder();
 		try {
 			id = result.getStructureId().getIdentifier();
 
@@ -72,21 +81,20 @@ public class CeSymmAxesWriter extends CeSymmWriter {
 				Atom start = bounds.getFirst();
 				Atom end = bounds.getSecond();
 
-				writer.format("%s\t%d\t%s\t%s\t"
+				rows.append(String.format("%s\t%d\t%s\t%s\t"
 						+ "%.2f\t%.2f\t%.3f,%.3f,%.3f\t%.3f,%.3f,%.3f\t%s%n",
 						id, axis.getLevel() + 1, axis.getSymmType(),
 						axis.getOrder(), Math.toDegrees(rot.getAngle()),
 						rot.getTranslation(), start.getX(), start.getY(),
 						start.getZ(), end.getX(), end.getY(), end.getZ(),
-						cyclicForm);
+						cyclicForm));
 			}
 		} catch (Exception e) {
 			// If any exception occurs when writing the results store empty
 			// better
 			logger.warn("Could not write result... storing empty row.", e);
-			writeEmptyRow(id);
+			rows.append(formatEmptyRow(id));
 		}
-
-		writer.flush();
+		return rows.toString();
 	}
 }
\ No newline at end of file
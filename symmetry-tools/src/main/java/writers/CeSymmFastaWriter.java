@@ -1,6 +1,7 @@
 package writers;
 
 import java.io.IOException;
+import java.io.PrintWriter;
 
 import org.biojava.nbio.structure.align.multiple.MultipleAlignment;
 import org.biojava.nbio.structure.align.multiple.util.MultipleAlignmentWriter;
@@ -18,20 +19,34 @@ public class CeSymmFastaWriter extends CeSymmWriter {
 		super(filename);
 	}
 
+	public CeSymmFastaWriter(String filename, boolean append) throws IOException {
+		super(filename, append);
+	}
+
+	public CeSymmFastaWriter(PrintWriter writer) {
+		super(writer);
+	}
+
 	@Override
-	public synchronized void writeResult(CeSymmResult result) {
+	public String formatResult(CeSymmResult result) {
+		StringBuilder entry = new StringBuilder();
 		if (result != null ) {
 			MultipleAlignment alignment = result.getMultipleAlignment();
 			if(alignment != null) {
-				writer.write(MultipleAlignmentWriter.toFASTA(alignment));
+				entry.append(MultipleAlignmentWriter.toFASTA(alignment));
 			}
 		}
-		writer.println("//");
-		writer.flush();
+		entry.append(String.format("//%n"));
+		return entry.toString();
 	}
 
 	@Override
 	public synchronized void writeHeader() throws IOException {
 		// No header for Fasta files
 	}
+
+	@Override
+	protected String getRecordEnd() {
+		return OutputMerger.RECORD_SEPARATOR;
+	}
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package writers;
 
 import java.io.IOException;
+import java.io.PrintWriter;
 
 import org.biojava.nbio.structure.align.multiple.MultipleAlignment;
 import org.biojava.nbio.structure.align.multiple.util.MultipleAlignmentWriter;
@@ -19,23 +20,38 @@ public class CeSymmFatcatWriter extends CeSymmWriter {
 		super(filename);
 	}
 
+	public CeSymmFatcatWriter(String filename, boolean append) throws IOException {
+		super(filename, append);
+	}
+
+	public CeSymmFatcatWriter(PrintWriter writer) {
+		super(writer);
+	}
+
 	@Override
-	public synchronized void writeResult(CeSymmResult result) {
+	public String formatResult(CeSymmResult result) {
+		StringBuilder entry = new StringBuilder();
 		if (result != null) {
 			MultipleAlignment alignment = result.getMultipleAlignment();
 			if (alignment != null) {
-				writer.write(MultipleAlignmentWriter.toFatCat(alignment));
+				entry.append(MultipleAlignmentWriter.toFatCat(alignment));
 			} else {
-				writer.format("Structures:[%s]%n", result.getStructureId());
-				writer.format("Insignificant Alignment%n");
+				entry.append(String.format("Structures:[%s]%n",
+						result.getStructureId()));
+				entry.append(String.format("Insignificant Alignment%n"));
 			}
 		}
-		writer.println("//");
-		writer.flush();
+		entry.append(String.format("//%n"));
+		return entry.toString();
 	}
 
 	@Override
 	public synchronized void writeHeader() throws IOException {
 		// No header for FatCat file
 	}
+
+	@Override
+	protected String getRecordEnd() {
+		return OutputMerger.RECORD_SEPARATOR;
+	}
 }
\ No newline at end of file
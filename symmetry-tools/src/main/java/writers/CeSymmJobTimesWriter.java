@@ -0,0 +1,53 @@
+package writers;
+
+import java.io.IOException;
+
+import org.biojava.nbio.structure.StructureIdentifier;
+
+import workers.JobTimings;
+import workers.JobTimings.Phase;
+
+/**
+ * Writes the wall-clock times of the job of each structure, in milliseconds,
+ * as a TSV row per structure: loading the structure, extracting its atoms,
+ * the whole CeSymm analysis, formatting and writing the results. The analysis
+ * is a single column, it is not broken down into its internal steps.
+ * 
+ * @author Aleix Lafita
+ *
+ */
+public class CeSymmJobTimesWriter extends OutputWriter {
+
+	public CeSymmJobTimesWriter(String filename) throws IOException {
+		super(filename);
+	}
+
+	public CeSymmJobTimesWriter(String filename, boolean append)
+			throws IOException {
+		super(filename, append);
+	}
+
+	@Override
+	public synchronized void writeHeader() {
+		writer.println("Name\t" + "Length\t" + "Status\t" + "Load\t"
+				+ "Atoms\t" + "Analysis\t" + "Format\t" + "Write\t" + "Total");
+		writer.flush();
+	}
+
+	/**
+	 * Formats the times of a job.
+	 * 
+	 * @param id
+	 * @param timings
+	 * @return the formatted row, including the line terminator
+	 */
+	public String formatTimes(StructureIdentifier id, JobTimings timings) {
+		return String.format("%s\t%d\t%s\t%.1f\t%.1f\t%.1f\t%.1f\t%.1f\t%.1f%n",
+				id.getIdentifier(), timings.getLength(), timings.getStatus(),
+				timings.getMillis(Phase.LOAD), timings.getMillis(Phase.ATOMS),
+				timings.getMillis(Phase.ANALYSIS),
+				timings.getMillis(Phase.FORMAT), timings.getMillis(Phase.WRITE),
+				timings.getTotalMillis());
+	}
+
+}
@@ -1,7 +1,9 @@
 package writers;
 
 import java.io.IOException;
+import java.io.PrintWriter;
 
+import org.biojava.nbio.structure.StructureIdentifier;
 import org.biojava.nbio.structure.symmetry.internal.CeSymmResult;
 
 /**
@@ -18,41 +20,43 @@ public class CeSymmSimpleWriter extends CeSymmWriter {
 		super(filename);
 	}
 
+	public CeSymmSimpleWriter(String filename, boolean append) throws IOException {
+		super(filename, append);
+	}
+
+	public CeSymmSimpleWriter(PrintWriter writer) {
+		super(writer);
+	}
+
 	@Override
 	public synchronized void writeHeader() {
 		writer.println("Structure\tNumRepeats\tSymmGroup\tReason");
 		writer.flush();
 	}
 
-	private synchronized void writeEmptyRow(String id) {
-		writer.format("%s\t%d\t%s\t%s%n", id, 1, "C1", "Error");
+	private String formatEmptyRow(String id, String reason) {
+		return String.format("%s\t%d\t%s\t%s%n", id, 1, "C1", reason);
 	}
 
 	@Override
-	public synchronized void writeResult(CeSymmResult result)
-			throws IOException {
+	public String formatTimeout(StructureIdentifier id) {
+		return formatEmptyRow(id.getIdentifier(), "Timeout");
+	}
+
+	@Override
+	public String formatResult(CeSymmResult result) {
 		String id = null;
-		if (result == null) {
-			writeEmptyRow(id);
-			writer.flush();
-			return;
-		}
+		if (result == null)
+			return formatEmptyRow(id, "Error");
 		try {
 			id = result.getStructureId().getIdentifier();
-			writer.append(id);
-			writer.append("\t");
-			writer.append(Integer.toString(result.getNumRepeats()));
-			writer.append("\t");
-			writer.append(result.getSymmGroup());
-			writer.append("\t");
-			writer.append(result.getReason());
-			writer.println();
-			writer.flush();
+			return String.format("%s\t%d\t%s\t%s%n", id,
+					result.getNumRepeats(), result.getSymmGroup(),
+					result.getReason());
 		} catch (Exception e) {
 			logger.warn("Could not write result for entry: " + id
 					+ ". Writting empty row.");
-			writeEmptyRow(id);
+			return formatEmptyRow(id, "Error");
 		}
-		writer.flush();
 	}
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package writers;
 
 import java.io.IOException;
+import java.io.PrintWriter;
 import javax.vecmath.Vector3d;
 
 import org.biojava.nbio.structure.StructureIdentifier;
@@ -23,6 +24,14 @@ public class CeSymmStatsWriter extends CeSymmWriter {
 		super(filename);
 	}
 
+	public CeSymmStatsWriter(String filename, boolean append) throws IOException {
+		super(filename, append);
+	}
+
+	public CeSymmStatsWriter(PrintWriter writer) {
+		super(writer);
+	}
+
 	@Override
 	public synchronized void writeHeader() {
 		writer.println("Name\t" + "NumRepeats\t" + "SymmGroup\t"
@@ -35,14 +44,10 @@ public class CeSymmStatsWriter extends CeSymmWriter {
 	}
 
 	@Override
-	public synchronized void writeResult(CeSymmResult result)
-			throws IOException {
+	public String formatResult(CeSymmResult result) {
 		String id = null;
-		if (result == null) {
-			writeEmptyRow(id);
-			writer.flush();
-			return;
-		}
+		if (result == null)
+			return formatEmptyRow(id);
 		try {
 			id = result.getStructureId().getIdentifier();
 			int repeatLen = 0;
@@ -105,7 +110,7 @@ public class CeSymmStatsWriter extends CeSymmWriter {
 				}
 			}
 
-			writer.format("%s\t%d\t%s\t%b\t%d\t%s\t%s\t%s\t%.2f\t"
+			return String.format("%s\t%d\t%s\t%b\t%d\t%s\t%s\t%s\t%.2f\t"
 					+ "%.2f\t%.2f\t%.2f\t%d\t%d\t%d\t%.2f\t%s%n", id, order,
 					result.getSymmGroup(), result.isRefined(),
 					result.getSymmLevels(), type, rotation_angle,
@@ -116,15 +121,22 @@ public class CeSymmStatsWriter extends CeSymmWriter {
 			// If any exception occurs when writing the results store empty row
 			logger.warn("Could not write result for entry: " + id
 					+ ". Writting empty row.");
-			writeEmptyRow(id);
+			return formatEmptyRow(id);
 		}
+	}
 
-		writer.flush();
+	@Override
+	public String formatTimeout(StructureIdentifier id) {
+		return formatEmptyRow(id.getIdentifier(), "TIMEOUT");
+	}
+
+	private String formatEmptyRow(String id) {
+		return formatEmptyRow(id, "NONE");
 	}
 
-	private synchronized void writeEmptyRow(String id) {
-		writer.format("%s\t%d\t%s\t%b\t%d\t%s\t%.2f\t%.2f\t%.2f\t%.2f\t%.2f\t"
-				+ "%.2f\t%d\t%d\t%d\t%.2f%n", id, 1, "C1", false, 0, "NONE",
-				0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0, 0, 0, 0.0);
+	private String formatEmptyRow(String id, String type) {
+		return String.format("%s\t%d\t%s\t%b\t%d\t%s\t%.2f\t%.2f\t%.2f\t"
+				+ "%.2f\t%.2f\t%.2f\t%d\t%d\t%d\t%.2f%n", id, 1, "C1", false,
+				0, type, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0, 0, 0, 0.0);
 	}
 }
\ No newline at end of file
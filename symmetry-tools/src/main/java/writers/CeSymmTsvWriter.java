@@ -1,6 +1,7 @@
 package writers;
 
 import java.io.IOException;
+import java.io.PrintWriter;
 
 import org.biojava.nbio.structure.align.multiple.MultipleAlignment;
 import org.biojava.nbio.structure.align.multiple.util.MultipleAlignmentWriter;
@@ -22,26 +23,40 @@ public class CeSymmTsvWriter extends CeSymmWriter {
 		super(filename);
 	}
 
+	public CeSymmTsvWriter(String filename, boolean append) throws IOException {
+		super(filename, append);
+	}
+
+	public CeSymmTsvWriter(PrintWriter writer) {
+		super(writer);
+	}
+
 	@Override
 	public synchronized void writeHeader() throws IOException {
 		// no header
 	}
 
 	@Override
-	public synchronized void writeResult(CeSymmResult result)
-			throws IOException {
+	public String formatResult(CeSymmResult result) {
+		StringBuilder entry = new StringBuilder();
 		if (result != null) {
 			MultipleAlignment alignment = result.getMultipleAlignment();
 			if (alignment != null)
-				writer.write(MultipleAlignmentWriter
+				entry.append(MultipleAlignmentWriter
 						.toAlignedResidues(alignment));
 			else {
 				// No alignment; just write header
-				writer.format("#Struct1:\t%s%n", result.getStructureId());
-				writer.format("#Insignificant Alignment%n");
+				entry.append(String.format("#Struct1:\t%s%n",
+						result.getStructureId()));
+				entry.append(String.format("#Insignificant Alignment%n"));
 			}
 		}
-		writer.println("//");
-		writer.flush();
+		entry.append(String.format("//%n"));
+		return entry.toString();
+	}
+
+	@Override
+	protected String getRecordEnd() {
+		return OutputMerger.RECORD_SEPARATOR;
 	}
 }
\ No newline at end of file
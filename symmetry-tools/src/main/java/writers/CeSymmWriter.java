@@ -1,6 +1,9 @@
 package writers;
 
 import java.io.IOException;
+import java.io.PrintWriter;
+
+import org.biojava.nbio.structure.StructureIdentifier;
 import org.biojava.nbio.structure.symmetry.internal.CeSymmResult;
 
 /**
@@ -15,14 +18,46 @@ public abstract class CeSymmWriter extends OutputWriter {
 		super(filename);
 	}
 
+	public CeSymmWriter(String filename, boolean append) throws IOException {
+		super(filename, append);
+	}
+
+	public CeSymmWriter(PrintWriter writer) {
+		super(writer);
+	}
+
+	/**
+	 * Formats the CeSymm results of an entry, as they would be written to the
+	 * file. Implementations of this method should not write to the file, so
+	 * that results can be formatted concurrently and stored for later use.
+	 * 
+	 * @param result
+	 * @return the formatted result, including the line terminators
+	 * @throws IOException
+	 */
+	abstract public String formatResult(CeSymmResult result)
+			throws IOException;
+
+	/**
+	 * Formats the entry of a structure whose analysis was aborted because it
+	 * exceeded the time limit. By default nothing is written; formats with a
+	 * row per structure should override it with a distinct timeout row.
+	 * 
+	 * @param id
+	 * @return the formatted entry, including the line terminators
+	 */
+	public String formatTimeout(StructureIdentifier id) {
+		return "";
+	}
+
 	/**
 	 * Writes a line to the file with the CeSymm results of an entry.
-	 * Implementations of this method need to be synchronized to avoid writting
-	 * at the same time.
 	 * 
 	 * @param result
 	 * @throws IOException
 	 */
-	abstract public void writeResult(CeSymmResult result) throws IOException;
+	public void writeResult(CeSymmResult result) throws IOException {
+		writeFormatted(formatResult(result));
+	}
 
 }
\ No newline at end of file
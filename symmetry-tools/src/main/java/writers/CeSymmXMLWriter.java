@@ -1,6 +1,7 @@
 package writers;
 
 import java.io.IOException;
+import java.io.PrintWriter;
 
 import org.biojava.nbio.structure.align.multiple.util.MultipleAlignmentWriter;
 import org.biojava.nbio.structure.symmetry.internal.CeSymmResult;
@@ -18,14 +19,21 @@ public class CeSymmXMLWriter extends CeSymmWriter {
 		super(filename);
 	}
 
+	public CeSymmXMLWriter(String filename, boolean append) throws IOException {
+		super(filename, append);
+	}
+
+	public CeSymmXMLWriter(PrintWriter writer) {
+		super(writer);
+	}
+
 	@Override
-	public synchronized void writeResult(CeSymmResult result)
-			throws IOException {
+	public String formatResult(CeSymmResult result) throws IOException {
 		if (result != null && result.getMultipleAlignment() != null) {
-			writer.append(MultipleAlignmentWriter.toXML(result
-					.getMultipleAlignment().getEnsemble()));
-			writer.flush();
+			return MultipleAlignmentWriter.toXML(result.getMultipleAlignment()
+					.getEnsemble());
 		}
+		return "";
 	}
 
 	@Override
@@ -33,4 +41,9 @@ public class CeSymmXMLWriter extends CeSymmWriter {
 		// No header for XML file
 	}
 
+	@Override
+	protected String getRecordEnd() {
+		// Closing tag of each entry
+		return "</MultipleAlignmentEnsemble>";
+	}
 }
\ No newline at end of file
@@ -0,0 +1,314 @@
+package writers;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges the output files of several runs (e.g. the shards of a batch) into a
+ * single file with a stable order, independent of the number of shards and of
+ * the order in which the structures were analyzed.
+ * <p>
+ * Two kinds of formats are supported:
+ * <ul>
+ * <li>Tables (--simple, --stats, --axes): one header line followed by rows
+ * whose first column is the structure name. The header is written once and
+ * the rows are sorted by name, keeping the order of the rows of the same
+ * structure.
+ * <li>Records (--tsv, --fasta): entries terminated by a line with the
+ * characters '//'. The entries are sorted by their content, which starts with
+ * the structure name.
+ * </ul>
+ * The files are merged with an external sort, so that the memory used does
+ * not depend on their size (see {@link #MAX_RUN_CHARS}).
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class OutputMerger {
+
+	/** Line that terminates an entry in the record formats */
+	public static final String RECORD_SEPARATOR = "//";
+
+	/**
+	 * Returns true if the file is in a record format, i.e. contains a line
+	 * with the record separator.
+	 *
+	 * @param filename
+	 * @throws IOException
+	 */
+	public static boolean isRecordFormat(String filename) throws IOException {
+		try (BufferedReader in = new BufferedReader(new FileReader(filename))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.equals(RECORD_SEPARATOR))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Maximum number of characters of the entries sorted in memory at a time.
+	 * Larger inputs are sorted in runs, which are stored in temporary files
+	 * and merged.
+	 */
+	public static final long MAX_RUN_CHARS = 1L << 24;
+
+	/**
+	 * Merges tables with a header line and rows sorted by their first column.
+	 * Files that are empty (e.g. shards without structures) are ignored.
+	 *
+	 * @param filenames
+	 * @param out
+	 * @throws IOException
+	 *             if a file can not be read or the headers differ
+	 */
+	public static void mergeTables(List<String> filenames, PrintWriter out)
+			throws IOException {
+		mergeTables(filenames, out, MAX_RUN_CHARS);
+	}
+
+	static void mergeTables(List<String> filenames, PrintWriter out,
+			long maxRunChars) throws IOException {
+
+		String header = null;
+		RunSorter sorter = new RunSorter(TABLES, maxRunChars);
+		try {
+			for (String filename : filenames) {
+				try (BufferedReader in = new BufferedReader(new FileReader(
+						filename))) {
+					String first = in.readLine();
+					if (first == null)
+						continue;
+					if (header == null)
+						header = first;
+					else if (!header.equals(first))
+						throw new IOException("The header of " + filename
+								+ " does not match the header of the first file");
+					sorter.addAll(in);
+				}
+			}
+			if (header != null)
+				out.println(header);
+			sorter.merge(out);
+		} finally {
+			sorter.delete();
+		}
+		out.flush();
+	}
+
+	private static String firstColumn(String row) {
+		int tab = row.indexOf('\t');
+		return tab < 0 ? row : row.substring(0, tab);
+	}
+
+	/**
+	 * Merges files of entries terminated by the record separator, sorted by
+	 * their content. Trailing lines without a separator (an incomplete entry
+	 * of an interrupted run) are ignored.
+	 *
+	 * @param filenames
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void mergeRecords(List<String> filenames, PrintWriter out)
+			throws IOException {
+		mergeRecords(filenames, out, MAX_RUN_CHARS);
+	}
+
+	static void mergeRecords(List<String> filenames, PrintWriter out,
+			long maxRunChars) throws IOException {
+
+		RunSorter sorter = new RunSorter(RECORDS, maxRunChars);
+		try {
+			for (String filename : filenames) {
+				try (BufferedReader in = new BufferedReader(new FileReader(
+						filename))) {
+					sorter.addAll(in);
+				}
+			}
+			sorter.merge(out);
+		} finally {
+			sorter.delete();
+		}
+		out.flush();
+	}
+
+	/**
+	 * How the entries of a format are read, written and ordered.
+	 */
+	private static abstract class Format {
+
+		final Comparator<String> order;
+
+		Format(Comparator<String> order) {
+			this.order = order;
+		}
+
+		/**
+		 * @return the next entry, or null at the end of the input
+		 */
+		abstract String read(BufferedReader in) throws IOException;
+
+		abstract void write(PrintWriter out, String entry);
+	}
+
+	/** Rows of a table, ordered by their first column */
+	private static final Format TABLES = new Format(new Comparator<String>() {
+		@Override
+		public int compare(String r1, String r2) {
+			return firstColumn(r1).compareTo(firstColumn(r2));
+		}
+	}) {
+		@Override
+		String read(BufferedReader in) throws IOException {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (!line.isEmpty())
+					return line;
+			}
+			return null;
+		}
+
+		@Override
+		void write(PrintWriter out, String row) {
+			out.println(row);
+		}
+	};
+
+	/** Entries terminated by the record separator, ordered by content */
+	private static final Format RECORDS = new Format(
+			new Comparator<String>() {
+				@Override
+				public int compare(String r1, String r2) {
+					return r1.compareTo(r2);
+				}
+			}) {
+		@Override
+		String read(BufferedReader in) throws IOException {
+			StringBuilder record = new StringBuilder();
+			String line;
+			while ((line = in.readLine()) != null) {
+				record.append(line).append(System.lineSeparator());
+				if (line.equals(RECORD_SEPARATOR))
+					return record.toString();
+			}
+			return null;
+		}
+
+		@Override
+		void write(PrintWriter out, String record) {
+			out.print(record);
+		}
+	};
+
+	/**
+	 * External merge sort of the entries of several files, with a stable
+	 * order. The entries are sorted in memory in runs of a bounded size,
+	 * which are written to temporary files once the size is exceeded, and
+	 * the sorted runs are then merged in a single pass. Equal entries keep
+	 * their input order: each run is sorted with a stable sort, and the
+	 * merge takes equal entries from the earlier run first.
+	 */
+	private static class RunSorter {
+
+		private final Format format;
+		private final long maxRunChars;
+		private final List<String> entries = new ArrayList<String>();
+		private long chars = 0;
+		private final List<File> runs = new ArrayList<File>();
+
+		RunSorter(Format format, long maxRunChars) {
+			this.format = format;
+			this.maxRunChars = maxRunChars;
+		}
+
+		void addAll(BufferedReader in) throws IOException {
+			String entry;
+			while ((entry = format.read(in)) != null) {
+				entries.add(entry);
+				chars += entry.length();
+				if (chars >= maxRunChars)
+					writeRun();
+			}
+		}
+
+		private void writeRun() throws IOException {
+			Collections.sort(entries, format.order);
+			File run = File.createTempFile("cesymm-merge", ".run");
+			runs.add(run);
+			try (PrintWriter out = new PrintWriter(new BufferedWriter(
+					new FileWriter(run)))) {
+				for (String entry : entries)
+					format.write(out, entry);
+				if (out.checkError())
+					throw new IOException("Could not write " + run);
+			}
+			entries.clear();
+			chars = 0;
+		}
+
+		/**
+		 * Writes all the entries in order.
+		 */
+		void merge(PrintWriter out) throws IOException {
+			// Everything fits in memory
+			if (runs.isEmpty()) {
+				Collections.sort(entries, format.order);
+				for (String entry : entries)
+					format.write(out, entry);
+				entries.clear();
+				return;
+			}
+			if (!entries.isEmpty())
+				writeRun();
+
+			final List<BufferedReader> readers = new ArrayList<BufferedReader>();
+			final String[] heads = new String[runs.size()];
+			try {
+				// Runs by their first entry, the earlier run first if equal
+				PriorityQueue<Integer> queue = new PriorityQueue<Integer>(
+						runs.size(), new Comparator<Integer>() {
+							@Override
+							public int compare(Integer r1, Integer r2) {
+								int c = format.order.compare(heads[r1],
+										heads[r2]);
+								return c != 0 ? c : r1.compareTo(r2);
+							}
+						});
+				for (int r = 0; r < runs.size(); r++) {
+					readers.add(new BufferedReader(new FileReader(runs.get(r))));
+					heads[r] = format.read(readers.get(r));
+					if (heads[r] != null)
+						queue.add(r);
+				}
+				while (!queue.isEmpty()) {
+					int r = queue.poll();
+					format.write(out, heads[r]);
+					heads[r] = format.read(readers.get(r));
+					if (heads[r] != null)
+						queue.add(r);
+				}
+			} finally {
+				for (BufferedReader reader : readers)
+					reader.close();
+			}
+		}
+
+		void delete() {
+			for (File run : runs)
+				run.delete();
+		}
+	}
+
+}
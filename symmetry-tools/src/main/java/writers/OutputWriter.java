@@ -1,9 +1,19 @@
 package writers;
 
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,7 +23,14 @@ import org.slf4j.LoggerFactory;
  * writeHeader method and define the a method to write results to the file.
  * <p>
  * All the output writers need to be thread safe, because parallelization is
- * expected in the calculation.
+ * expected in the calculation. Formatted entries are handed to a bounded
+ * queue, which is drained by a single thread per output, so that workers
+ * never contend on the file. The drain thread flushes the file when
+ * {@link #FLUSH_SIZE} characters have been written, or
+ * {@link #FLUSH_INTERVAL} milliseconds after the oldest unflushed entry, and
+ * always on {@link #flush()}, {@link #close()} and JVM shutdown.
+ * <p>
+ * The header is written directly, so it has to be written before any entry.
  * 
  * @author Aleix Lafita
  * 
@@ -22,9 +39,45 @@ public abstract class OutputWriter {
 	
 	protected static final Logger logger = LoggerFactory
 			.getLogger(OutputWriter.class);
-	
+
+	/** Number of buffered characters that triggers a flush */
+	public static final int FLUSH_SIZE = 1 << 16;
+	/** Maximum time, in ms, that an entry waits to be flushed */
+	public static final long FLUSH_INTERVAL = 1000;
+	/** Maximum number of entries waiting to be written */
+	private static final int QUEUE_CAPACITY = 1024;
+
 	protected PrintWriter writer;
 
+	private boolean appending;
+	/** The writer was opened by this class, and is closed by it */
+	private boolean ownsWriter;
+
+	private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<Entry>(
+			QUEUE_CAPACITY);
+	private Thread drainer;
+	private Thread shutdownHook;
+	private volatile boolean closed;
+
+	/**
+	 * An element of the output queue: text to write, an action to run once
+	 * the text is flushed and/or a latch to signal a flush.
+	 */
+	private static class Entry {
+		final String text;
+		final Runnable onWritten;
+		final CountDownLatch flushed;
+
+		Entry(String text, Runnable onWritten, CountDownLatch flushed) {
+			this.text = text;
+			this.onWritten = onWritten;
+			this.flushed = flushed;
+		}
+	}
+
+	/** Marks the end of the queue */
+	private static final Entry END = new Entry(null, null, null);
+
 	/**
 	 * Constructor with a 'filename'. Opens the file and initializes a
 	 * PrintWriter.
@@ -33,24 +86,340 @@ public abstract class OutputWriter {
 	 * @throws IOException
 	 */
 	public OutputWriter(String filename) throws IOException {
-		this.writer = openOutputFile(filename);
+		this(filename, false);
+	}
+
+	/**
+	 * Constructor with a 'filename' that optionally appends to the existing
+	 * content of the file, used to resume an interrupted run. The incomplete
+	 * entry that an interrupted run may have left at the end of the file is
+	 * removed before appending.
+	 * 
+	 * @param filename
+	 * @param append
+	 *            true to append to the file if it already has content
+	 * @throws IOException
+	 */
+	public OutputWriter(String filename, boolean append) throws IOException {
+		if (append && !filename.equals("-"))
+			truncateIncomplete(new File(filename), getRecordEnd());
+		this.appending = append && !filename.equals("-")
+				&& new File(filename).length() > 0;
+		this.writer = openOutputFile(filename, appending);
+		this.ownsWriter = true;
+		startDrainer(filename);
+
+		// Do not lose buffered entries if the JVM is terminated
+		shutdownHook = new Thread() {
+			@Override
+			public void run() {
+				close();
+			}
+		};
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	/**
+	 * Constructor with an already open PrintWriter, e.g. for a network
+	 * connection. The PrintWriter is owned by the caller: {@link #close()}
+	 * flushes it, but does not close it.
+	 * 
+	 * @param writer
+	 */
+	public OutputWriter(PrintWriter writer) {
+		this.writer = writer;
+		startDrainer("stream");
+	}
+
+	private void startDrainer(String name) {
+		drainer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, getClass().getSimpleName() + "-" + name);
+		// The entries are flushed by close() or the shutdown hook
+		drainer.setDaemon(true);
+		drainer.start();
+	}
+
+	/**
+	 * Returns true if the writer appends to previous content, in which case
+	 * the header should not be written again.
+	 * 
+	 * @return true if appending to existing content
+	 */
+	public boolean isAppending() {
+		return appending;
+	}
+
+	/**
+	 * Returns the line that terminates each entry of the format, or null if
+	 * each line is an entry. It is called from the constructor, so it has to
+	 * return a constant.
+	 * 
+	 * @return the last line of each entry, or null
+	 */
+	protected String getRecordEnd() {
+		return null;
+	}
+
+	/**
+	 * Removes the incomplete entry at the end of a file, left by an
+	 * interrupted run: everything after the last complete line, or after the
+	 * last line that terminates an entry. The file is scanned from its end.
+	 * 
+	 * @param file
+	 * @param recordEnd
+	 *            the line that terminates each entry, ignoring surrounding
+	 *            whitespace, or null if each line is an entry
+	 * @throws IOException
+	 */
+	public static void truncateIncomplete(File file, String recordEnd)
+			throws IOException {
+		if (!file.exists())
+			return;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			byte[] buf = new byte[8192];
+			// Position of the line break of the last line seen, -1 if none
+			long lineEnd = -1;
+			long end = raf.length();
+			while (end > 0) {
+				int n = (int) Math.min(buf.length, end);
+				long start = end - n;
+				raf.seek(start);
+				raf.readFully(buf, 0, n);
+				for (int i = n - 1; i >= 0; i--) {
+					if (buf[i] != '\n')
+						continue;
+					long pos = start + i;
+					if (lineEnd >= 0
+							&& isRecordEnd(raf, pos + 1, lineEnd, recordEnd)) {
+						raf.setLength(lineEnd + 1);
+						return;
+					}
+					lineEnd = pos;
+				}
+				end = start;
+			}
+			// The first line of the file
+			if (lineEnd >= 0 && isRecordEnd(raf, 0, lineEnd, recordEnd))
+				raf.setLength(lineEnd + 1);
+			else
+				raf.setLength(0);
+		}
+	}
+
+	private static boolean isRecordEnd(RandomAccessFile raf, long start,
+			long end, String recordEnd) throws IOException {
+		if (recordEnd == null)
+			return true;
+		long length = end - start;
+		// Leave room for whitespace around the terminating line
+		if (length > recordEnd.length() + 64)
+			return false;
+		byte[] line = new byte[(int) length];
+		raf.seek(start);
+		raf.readFully(line);
+		return new String(line, StandardCharsets.UTF_8).trim().equals(
+				recordEnd);
 	}
 
 	/**
 	 * Writes the first line with headers for each column of results.
-	 * Implementations of this method have to be synchronized.
+	 * Implementations of this method have to be synchronized, and it has
+	 * to be called before any entry is written.
 	 * 
 	 * @throws IOException
 	 */
 	abstract public void writeHeader() throws IOException;
 
 	/**
-	 * Flush and close the writer.
+	 * Writes an already formatted entry to the file, asynchronously.
+	 * 
+	 * @param text
+	 *            formatted entry, including the line terminators
+	 */
+	public void writeFormatted(String text) {
+		writeFormatted(text, null);
+	}
+
+	/**
+	 * Writes an already formatted entry to the file, asynchronously. Blocks
+	 * only if the output queue is full.
+	 * 
+	 * @param text
+	 *            formatted entry, including the line terminators
+	 * @param onWritten
+	 *            action to run, in the writer thread, once the entry has been
+	 *            flushed to the file, or null. It is not run if the output
+	 *            had an error.
+	 */
+	public void writeFormatted(String text, Runnable onWritten) {
+		if (text.isEmpty() && onWritten == null)
+			return;
+		enqueue(new Entry(text, onWritten, null));
+	}
+
+	/**
+	 * Waits until all the entries given so far have been written and flushed.
+	 */
+	public void flush() {
+		CountDownLatch flushed = new CountDownLatch(1);
+		enqueue(new Entry("", null, flushed));
+		boolean interrupted = false;
+		while (true) {
+			try {
+				flushed.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private void enqueue(Entry entry) {
+		if (closed && entry != END)
+			throw new IllegalStateException("Output writer is closed");
+		// Not interruptible: the writer thread always makes progress
+		boolean interrupted = false;
+		while (true) {
+			try {
+				queue.put(entry);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Writer thread: writes the entries of the queue, flushing them according
+	 * to the size and time policy, until the end of the queue.
 	 */
-	public synchronized void close() {
+	private void drain() {
+		List<Runnable> unflushed = new ArrayList<Runnable>();
+		long buffered = 0;
+		boolean pending = false;
+		long deadline = 0;
+		try {
+			while (true) {
+				Entry entry;
+				if (!pending) {
+					entry = queue.take();
+				} else {
+					long wait = deadline - System.nanoTime();
+					entry = queue.poll(Math.max(wait, 0), TimeUnit.NANOSECONDS);
+				}
+				if (entry == null) {
+					// Time limit of the oldest unflushed entry
+					flush(unflushed);
+					buffered = 0;
+					pending = false;
+					continue;
+				}
+				if (entry == END)
+					break;
+
+				if (!pending) {
+					pending = true;
+					deadline = System.nanoTime()
+							+ TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL);
+				}
+				writer.write(entry.text);
+				buffered += entry.text.length();
+				if (entry.onWritten != null)
+					unflushed.add(entry.onWritten);
+
+				if (entry.flushed != null || buffered >= FLUSH_SIZE) {
+					flush(unflushed);
+					buffered = 0;
+					pending = false;
+					if (entry.flushed != null)
+						entry.flushed.countDown();
+				}
+			}
+		} catch (InterruptedException e) {
+			logger.error("Output writer interrupted", e);
+		} finally {
+			flush(unflushed);
+		}
+	}
+
+	private void flush(List<Runnable> unflushed) {
+		writer.flush();
+		if (writer.checkError()) {
+			// The entries may not be in the file, do not confirm them
+			if (!unflushed.isEmpty())
+				logger.error("Could not write " + unflushed.size()
+						+ " entries to the output");
+			unflushed.clear();
+			return;
+		}
+		for (Runnable r : unflushed) {
+			try {
+				r.run();
+			} catch (RuntimeException e) {
+				logger.error("Error after writing an entry", e);
+			}
+		}
+		unflushed.clear();
+	}
+
+	/**
+	 * Returns an action that runs the given action once it has been called the
+	 * given number of times, e.g. once an entry has been written by all the
+	 * writers of a job.
+	 * 
+	 * @param count
+	 * @param action
+	 * @return the counting action, or null if action is null
+	 */
+	public static Runnable afterAll(int count, final Runnable action) {
+		if (action == null)
+			return null;
+		final AtomicInteger remaining = new AtomicInteger(count);
+		return new Runnable() {
+			@Override
+			public void run() {
+				if (remaining.decrementAndGet() == 0)
+					action.run();
+			}
+		};
+	}
+
+	/**
+	 * Write all the remaining entries, then flush and close the writer. A
+	 * writer given to the constructor is only flushed.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+		}
+		enqueue(END);
+		try {
+			drainer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (shutdownHook != null
+				&& Thread.currentThread() != shutdownHook) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			} catch (IllegalStateException e) {
+				// Already shutting down
+			}
+		}
 		if (writer != null) {
 			writer.flush();
-			writer.close();
+			if (ownsWriter)
+				writer.close();
 		}
 	}
 
@@ -59,14 +428,17 @@ public abstract class OutputWriter {
 	 * 
 	 * @param filename
 	 *            Name of output file, or '-' for standard out
+	 * @param append
+	 *            append to the file instead of overwriting it
 	 * @throws IOException
 	 */
-	private static PrintWriter openOutputFile(String filename)
+	private static PrintWriter openOutputFile(String filename, boolean append)
 			throws IOException {
 		if (filename.equals("-")) {
 			return new PrintWriter(System.out, true);
 		}
-		return new PrintWriter(new BufferedWriter(new FileWriter(filename)));
+		return new PrintWriter(new BufferedWriter(new FileWriter(filename,
+				append)));
 	}
 
 }
\ No newline at end of file
@@ -24,9 +24,14 @@ public class QuatSymmFastaWriter extends QuatSymmWriter {
 		super(filename);
 	}
 
+	public QuatSymmFastaWriter(String filename, boolean append) throws IOException {
+		super(filename, append);
+	}
+
 	@Override
-	public synchronized void writeResult(String identifier,
+	public String formatResult(String identifier,
 			QuatSymmetryResults result) throws StructureException {
+		StringBuilder entry = new StringBuilder();
 		if (result != null ) {
 			for (SubunitCluster cluster:result.getSubunitClusters()){
 				// There is bug because Structure Identifiers are null - quick fix here
@@ -37,19 +42,21 @@ public class QuatSymmFastaWriter extends QuatSymmWriter {
 				MultipleAlignment alignment = cluster.getMultipleAlignment();
 				alignment.getEnsemble().setStructureIdentifiers(structident);
 				if(alignment != null) {
-					writer.write(MultipleAlignmentWriter.toFASTA(alignment));
+					entry.append(MultipleAlignmentWriter.toFASTA(alignment));
 				}
-				writer.println("//");
-				writer.flush();
+				entry.append(String.format("//%n"));
 			}
 		}
+		return entry.toString();
 	}
 
 	@Override
 	public synchronized void writeHeader() throws IOException {
 		// No header for Fasta files
 	}
-	
-	
 
+	@Override
+	protected String getRecordEnd() {
+		return OutputMerger.RECORD_SEPARATOR;
+	}
 }
\ No newline at end of file
@@ -17,29 +17,30 @@ public class QuatSymmStatsWriter extends QuatSymmWriter {
 		super(filename);
 	}
 
+	public QuatSymmStatsWriter(String filename, boolean append) throws IOException {
+		super(filename, append);
+	}
+
 	@Override
-	public synchronized void writeResult(String identifier,
-			QuatSymmetryResults result) throws IOException {
+	public String formatResult(String identifier,
+			QuatSymmetryResults result) {
 
-		if (result == null) {
-			writeEmptyResult(identifier);
-			return;
-		}
+		if (result == null)
+			return formatEmptyResult(identifier);
 
-		writer.println(String.format(
-				"%s\t%d\t%s\t%s\t%b\t%s\t%b\t%s\t%.2f\t%.2f",
+		return String.format(
+				"%s\t%d\t%s\t%s\t%b\t%s\t%b\t%s\t%.2f\t%.2f%n",
 				identifier,
 				result.getSubunitCount(),
 				result.getSubunits().stream().map(s -> s.getName())
 						.collect(Collectors.toList()).toString(),
 				result.getStoichiometry(), result.isPseudoStoichiometric(),
 				result.getSymmetry(), result.isLocal(), result.getMethod(),
-				result.getScores().getRmsd(), result.getScores().getTm()));
-		writer.flush();
+				result.getScores().getRmsd(), result.getScores().getTm());
 	}
 
-	private void writeEmptyResult(String identifier) {
-		writer.println(identifier + "\t0\t\t\t\t\t\t0\t0");
+	private String formatEmptyResult(String identifier) {
+		return String.format("%s\t0\t\t\t\t\t\t0\t0%n", identifier);
 	}
 
 	@Override
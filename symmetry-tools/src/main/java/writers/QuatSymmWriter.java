@@ -16,16 +16,33 @@ public abstract class QuatSymmWriter extends OutputWriter {
 		super(filename);
 	}
 
+	public QuatSymmWriter(String filename, boolean append) throws IOException {
+		super(filename, append);
+	}
+
 	/**
-	 * Writes a line to the file with the QuatSymm results of an entry.
-	 * Implementations of this method need to be synchronized to avoid writting
-	 * at the same time.
+	 * Formats the QuatSymm results of an entry, as they would be written to
+	 * the file. Implementations of this method should not write to the file,
+	 * so that results can be formatted concurrently.
 	 * 
 	 * @param identifier
 	 * @param result
-	 * @throws IOException
+	 * @return the formatted result, including the line terminators
+	 * @throws Exception
 	 */
-	abstract public void writeResult(String identifier,
+	abstract public String formatResult(String identifier,
 			QuatSymmetryResults result) throws Exception;
 
+	/**
+	 * Writes a line to the file with the QuatSymm results of an entry.
+	 * 
+	 * @param identifier
+	 * @param result
+	 * @throws Exception
+	 */
+	public void writeResult(String identifier, QuatSymmetryResults result)
+			throws Exception {
+		writeFormatted(formatResult(identifier, result));
+	}
+
 }
\ No newline at end of file
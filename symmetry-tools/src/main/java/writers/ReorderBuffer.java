@@ -0,0 +1,143 @@
+package writers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Releases the outputs of jobs that finish in any order in the order in which
+ * the jobs were submitted, so that the output files follow the input order.
+ * <p>
+ * Each job takes a sequence number when it is submitted, and hands its
+ * writes to the buffer when it finishes. The writes of a job are run as soon
+ * as all the previous jobs have released theirs; until then they are kept in
+ * the buffer. The writes are run outside the lock of the buffer, by one
+ * thread at a time, so that a write that blocks (e.g. on a full
+ * {@link OutputWriter} queue) does not hold back the jobs that release their
+ * writes meanwhile. Jobs never wait for each other: the only blocking call is
+ * {@link #nextSequence()}, made by the submitting thread, which waits while
+ * the number of jobs not yet written reaches the capacity of the buffer.
+ *
+ * @author Aleix Lafita
+ *
+ */
+public class ReorderBuffer {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(ReorderBuffer.class);
+
+	private final int capacity;
+	private final Map<Long, Runnable> pending;
+
+	/** Next sequence number to give */
+	private long issued = 0;
+	/** Next sequence number to take out of the buffer */
+	private long next = 0;
+	/** Number of jobs written */
+	private long written = 0;
+	/** Whether a thread is running the writes */
+	private boolean draining = false;
+
+	/**
+	 * @param capacity
+	 *            maximum number of jobs submitted and not yet written
+	 */
+	public ReorderBuffer(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		this.capacity = capacity;
+		this.pending = new HashMap<Long, Runnable>();
+	}
+
+	/**
+	 * Returns the sequence number of a new job, waiting while the buffer is
+	 * full. Every sequence number has to be released exactly once with
+	 * {@link #release(long, Runnable)}, otherwise the output stops at it.
+	 *
+	 * @return the sequence number of the job
+	 * @throws InterruptedException
+	 */
+	public synchronized long nextSequence() throws InterruptedException {
+		while (issued - written >= capacity)
+			wait();
+		return issued++;
+	}
+
+	/**
+	 * Hands the writes of a job to the buffer. They are run now, in the
+	 * calling thread, if all the previous jobs have been written and no other
+	 * thread is running writes; otherwise by the thread that is running them,
+	 * or that releases the last missing job. This method does not wait for
+	 * other jobs.
+	 *
+	 * @param sequence
+	 *            sequence number of the job
+	 * @param writes
+	 *            writes of the job, or null if the job has no output
+	 */
+	public void release(long sequence, Runnable writes) {
+		synchronized (this) {
+			if (sequence < next || sequence >= issued
+					|| pending.containsKey(sequence))
+				throw new IllegalArgumentException("Invalid sequence number: "
+						+ sequence);
+			pending.put(sequence, writes);
+			if (draining)
+				return;
+			draining = true;
+		}
+
+		try {
+			while (true) {
+				List<Runnable> ready = new ArrayList<Runnable>();
+				long first;
+				synchronized (this) {
+					first = next;
+					while (pending.containsKey(next)) {
+						ready.add(pending.remove(next));
+						next++;
+					}
+					if (ready.isEmpty()) {
+						draining = false;
+						return;
+					}
+				}
+				try {
+					for (int i = 0; i < ready.size(); i++) {
+						if (ready.get(i) == null)
+							continue;
+						try {
+							ready.get(i).run();
+						} catch (RuntimeException e) {
+							logger.error("Could not write the output of job "
+									+ (first + i), e);
+						}
+					}
+				} finally {
+					synchronized (this) {
+						written += ready.size();
+						notifyAll();
+					}
+				}
+			}
+		} catch (Error e) {
+			// Let the next release run the writes
+			synchronized (this) {
+				draining = false;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the number of jobs submitted and not yet written
+	 */
+	public synchronized int size() {
+		return (int) (issued - written);
+	}
+
+}
@@ -0,0 +1,72 @@
+package workers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.biojava.nbio.structure.align.client.StructureName;
+import org.biojava.nbio.structure.align.util.AtomCache;
+import org.biojava.nbio.structure.io.LocalPDBDirectory.FetchBehavior;
+import org.biojava.nbio.structure.io.LocalPDBDirectory.ObsoleteBehavior;
+import org.biojava.nbio.structure.symmetry.internal.CESymmParameters;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CeSymmProcessTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRequest() throws Exception {
+		AtomCache cache = new AtomCache("/data/pdb", "/data/cache");
+		cache.setUseMmCif(true);
+		cache.setFetchBehavior(FetchBehavior.LOCAL_ONLY);
+		cache.setObsoleteBehavior(ObsoleteBehavior.FETCH_OBSOLETE);
+
+		// Parameters that differ from the defaults
+		CESymmParameters params = new CESymmParameters();
+		for (Field f : CeSymmResultCache.getFields(CESymmParameters.class)) {
+			f.setAccessible(true);
+			if (f.getType() == int.class)
+				f.setInt(params, f.getInt(params) + 1);
+			else if (f.getType() == boolean.class)
+				f.setBoolean(params, !f.getBoolean(params));
+		}
+		List<String> writers = Arrays.asList("writers.CeSymmSimpleWriter",
+				"writers.CeSymmFastaWriter");
+
+		File file = folder.newFile();
+		CeSymmProcess.writeRequest(file, new StructureName("1ABC.A"), cache,
+				params, writers);
+		CeSymmProcess.Request request = CeSymmProcess.readRequest(file);
+
+		assertEquals("1ABC.A", request.id);
+		assertEquals(writers, request.writers);
+		assertEquals(CeSymmResultCache.canonicalParameters(params),
+				CeSymmResultCache.canonicalParameters(request.params));
+
+		AtomCache copy = request.createCache();
+		assertEquals(cache.getPath(), copy.getPath());
+		assertEquals(cache.getCachePath(), copy.getCachePath());
+		assertEquals(cache.isUseMmCif(), copy.isUseMmCif());
+		assertEquals(cache.getFetchBehavior(), copy.getFetchBehavior());
+		assertEquals(cache.getObsoleteBehavior(), copy.getObsoleteBehavior());
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnknownParameter() throws IOException {
+		File file = folder.newFile();
+		Files.write(file.toPath(), "id\t1ABC\nparam\tCESymmParameters.nothing=1\n"
+				.getBytes(StandardCharsets.UTF_8));
+		CeSymmProcess.readRequest(file);
+	}
+
+}
@@ -0,0 +1,143 @@
+package workers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.AtomImpl;
+import org.biojava.nbio.structure.StructureIdentifier;
+import org.biojava.nbio.structure.align.client.StructureName;
+import org.biojava.nbio.structure.symmetry.internal.CESymmParameters;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CeSymmResultCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static Atom[] atoms(int n) {
+		Atom[] atoms = new Atom[n];
+		for (int i = 0; i < n; i++) {
+			Atom a = new AtomImpl();
+			a.setName("CA");
+			a.setX(3.8 * i);
+			a.setY(Math.sin(i));
+			a.setZ(Math.cos(i));
+			atoms[i] = a;
+		}
+		return atoms;
+	}
+
+	@Test
+	public void testPutGet() throws IOException {
+		CeSymmResultCache cache = new CeSymmResultCache(folder.newFolder()
+				.getPath());
+		Map<String, String> outputs = new LinkedHashMap<String, String>();
+		outputs.put("CeSymmSimpleWriter", "1ABC\t2\t0.51\n");
+		// Multiple lines, tabs, a carriage return and a trailing empty line
+		outputs.put("CeSymmFastaWriter",
+				">1ABC_1\tA\nMKVL\n>1ABC_2\r\nMKVL\n\n");
+		outputs.put("CeSymmXMLWriter", "");
+
+		cache.put("ab12", outputs);
+		assertEquals(outputs, cache.get("ab12"));
+		assertNull(cache.get("ab34"));
+
+		// A new entry replaces the previous one
+		outputs.remove("CeSymmXMLWriter");
+		outputs.put("CeSymmSimpleWriter", "1ABC\t3\t0.62\n");
+		cache.put("ab12", outputs);
+		assertEquals(outputs, cache.get("ab12"));
+	}
+
+	@Test
+	public void testKeyStructure() {
+		StructureIdentifier id = new StructureName("1ABC");
+		CESymmParameters params = new CESymmParameters();
+		String key = CeSymmResultCache.getKey(id, atoms(10), params);
+
+		assertEquals(key, CeSymmResultCache.getKey(id, atoms(10), params));
+
+		Atom[] moved = atoms(10);
+		moved[5].setY(moved[5].getY() + 1e-9);
+		assertNotEquals(key, CeSymmResultCache.getKey(id, moved, params));
+
+		Atom[] renamed = atoms(10);
+		renamed[3].setName("CB");
+		assertNotEquals(key, CeSymmResultCache.getKey(id, renamed, params));
+
+		assertNotEquals(key, CeSymmResultCache.getKey(id, atoms(9), params));
+		assertNotEquals(key, CeSymmResultCache.getKey(new StructureName(
+				"2ABC"), atoms(10), params));
+	}
+
+	@Test
+	public void testKeyParameters() throws IllegalAccessException {
+		StructureIdentifier id = new StructureName("1ABC");
+		Atom[] atoms = atoms(10);
+		String key = CeSymmResultCache.getKey(id, atoms,
+				new CESymmParameters());
+
+		// Every field of the parameters, including the inherited ones
+		int changed = 0;
+		for (Class<?> c = CESymmParameters.class; c != Object.class; c = c
+				.getSuperclass()) {
+			for (Field f : c.getDeclaredFields()) {
+				if (Modifier.isStatic(f.getModifiers()))
+					continue;
+				f.setAccessible(true);
+				CESymmParameters params = new CESymmParameters();
+				if (!change(f, params))
+					continue;
+				assertNotEquals(f.getName(), key,
+						CeSymmResultCache.getKey(id, atoms, params));
+				changed++;
+			}
+		}
+		assertTrue(changed > 0);
+	}
+
+	/**
+	 * Changes the value of a field of simple type.
+	 *
+	 * @return false if the type of the field is not handled
+	 */
+	private static boolean change(Field f, Object obj)
+			throws IllegalAccessException {
+		Class<?> type = f.getType();
+		Object value = f.get(obj);
+		if (type == int.class || type == Integer.class)
+			f.set(obj, value == null ? 1 : (Integer) value + 1);
+		else if (type == long.class || type == Long.class)
+			f.set(obj, value == null ? 1L : (Long) value + 1);
+		else if (type == double.class || type == Double.class)
+			f.set(obj, value == null ? 1.0 : (Double) value + 0.5);
+		else if (type == float.class || type == Float.class)
+			f.set(obj, value == null ? 1f : (Float) value + 0.5f);
+		else if (type == boolean.class || type == Boolean.class)
+			f.set(obj, value == null ? Boolean.TRUE : !(Boolean) value);
+		else if (type == String.class)
+			f.set(obj, value + "x");
+		else if (type.isEnum()) {
+			Object[] constants = type.getEnumConstants();
+			if (constants.length < 2)
+				return false;
+			int next = value == null ? 0
+					: (((Enum<?>) value).ordinal() + 1) % constants.length;
+			f.set(obj, constants[next]);
+		} else
+			return false;
+		return true;
+	}
+
+}
@@ -0,0 +1,70 @@
+package workers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.biojava.nbio.structure.align.client.StructureName;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompletionJournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File write(String content) throws IOException {
+		File file = folder.newFile();
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private static String read(File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()),
+				StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testReadCompleted() throws IOException {
+		// The last line was interrupted
+		File file = write("1ABC\n2DEF.A\n3GH");
+		assertEquals(new HashSet<String>(Arrays.asList("1ABC", "2DEF.A")),
+				CompletionJournal.readCompleted(file.getPath()));
+
+		assertTrue(CompletionJournal.readCompleted(
+				new File(folder.getRoot(), "missing").getPath()).isEmpty());
+	}
+
+	@Test
+	public void testResume() throws IOException {
+		File file = write("1ABC\n2DEF.A\n3GH");
+		CompletionJournal journal = new CompletionJournal(file.getPath(), true);
+		assertEquals("1ABC\n2DEF.A\n", read(file));
+
+		journal.record(new StructureName("4IJK"));
+		journal.close();
+		assertEquals("1ABC\n2DEF.A\n4IJK\n", read(file));
+		assertEquals(new HashSet<String>(Arrays.asList("1ABC", "2DEF.A",
+				"4IJK")), CompletionJournal.readCompleted(file.getPath()));
+	}
+
+	@Test
+	public void testResumePartialOnly() throws IOException {
+		File file = write("1AB");
+		new CompletionJournal(file.getPath(), true).close();
+		assertEquals("", read(file));
+
+		// A new journal discards the previous entries
+		file = write("1ABC\n");
+		new CompletionJournal(file.getPath(), false).close();
+		assertEquals("", read(file));
+	}
+
+}
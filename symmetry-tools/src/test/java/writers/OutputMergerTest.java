@@ -0,0 +1,94 @@
+package writers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OutputMergerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private String write(String name, String content) throws IOException {
+		File file = folder.newFile(name);
+		try (FileWriter out = new FileWriter(file)) {
+			out.write(content);
+		}
+		return file.getPath();
+	}
+
+	@Test
+	public void testMergeTables() throws IOException {
+		String f1 = write("shard1.tsv", "Name\tOrder\n3B\t2\n1A\t1\n1A\t3\n");
+		String f2 = write("shard2.tsv", "Name\tOrder\n2C\t4\n");
+		String f3 = write("shard3.tsv", "");
+
+		StringWriter str = new StringWriter();
+		OutputMerger.mergeTables(Arrays.asList(f1, f2, f3), new PrintWriter(
+				str));
+
+		String nl = System.lineSeparator();
+		assertEquals("Name\tOrder" + nl + "1A\t1" + nl + "1A\t3" + nl
+				+ "2C\t4" + nl + "3B\t2" + nl, str.toString());
+	}
+
+	@Test
+	public void testMergeTablesInRuns() throws IOException {
+		String f1 = write("shard1.tsv", "Name\tOrder\n3B\t2\n1A\t1\n2C\t5\n");
+		String f2 = write("shard2.tsv", "Name\tOrder\n1A\t3\n2C\t4\n1A\t2\n");
+
+		// Every few rows are sorted in a separate run and merged
+		for (long maxRunChars : new long[] { 1, 10, 1000 }) {
+			StringWriter str = new StringWriter();
+			OutputMerger.mergeTables(Arrays.asList(f1, f2), new PrintWriter(
+					str), maxRunChars);
+
+			// Rows of the same structure keep the order of the input files
+			String nl = System.lineSeparator();
+			assertEquals("Name\tOrder" + nl + "1A\t1" + nl + "1A\t3" + nl
+					+ "1A\t2" + nl + "2C\t5" + nl + "2C\t4" + nl + "3B\t2"
+					+ nl, str.toString());
+		}
+	}
+
+	@Test
+	public void testMergeRecords() throws IOException {
+		String f1 = write("shard1.fasta", ">2B\nAC\n//\n>1A\nGT\n//\n>9Z\n");
+		String f2 = write("shard2.fasta", ">1C\nTT\n//\n");
+
+		StringWriter str = new StringWriter();
+		OutputMerger.mergeRecords(Arrays.asList(f1, f2),
+				new PrintWriter(str));
+
+		// The incomplete last entry of the first shard is discarded
+		String nl = System.lineSeparator();
+		assertEquals(">1A" + nl + "GT" + nl + "//" + nl + ">1C" + nl + "TT"
+				+ nl + "//" + nl + ">2B" + nl + "AC" + nl + "//" + nl,
+				str.toString());
+	}
+
+	@Test
+	public void testMergeRecordsInRuns() throws IOException {
+		String f1 = write("shard1.fasta", ">2B\nAC\n//\n>1A\nGT\n//\n>9Z\n");
+		String f2 = write("shard2.fasta", ">1C\nTT\n//\n>0D\nCC\n//\n");
+
+		StringWriter str = new StringWriter();
+		OutputMerger.mergeRecords(Arrays.asList(f1, f2),
+				new PrintWriter(str), 1);
+
+		String nl = System.lineSeparator();
+		assertEquals(">0D" + nl + "CC" + nl + "//" + nl + ">1A" + nl + "GT"
+				+ nl + "//" + nl + ">1C" + nl + "TT" + nl + "//" + nl + ">2B"
+				+ nl + "AC" + nl + "//" + nl, str.toString());
+	}
+
+}
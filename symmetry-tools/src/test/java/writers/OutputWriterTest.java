@@ -0,0 +1,60 @@
+package writers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OutputWriterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private String truncate(String content, String recordEnd)
+			throws IOException {
+		File file = folder.newFile();
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		OutputWriter.truncateIncomplete(file, recordEnd);
+		return new String(Files.readAllBytes(file.toPath()),
+				StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testTruncateLines() throws IOException {
+		assertEquals("Name\tOrder\n1ABC\t2\n",
+				truncate("Name\tOrder\n1ABC\t2\n2DEF\t", null));
+		assertEquals("Name\tOrder\n1ABC\t2\n",
+				truncate("Name\tOrder\n1ABC\t2\n", null));
+		assertEquals("", truncate("Name\tOr", null));
+		assertEquals("", truncate("", null));
+	}
+
+	@Test
+	public void testTruncateRecords() throws IOException {
+		String sep = OutputMerger.RECORD_SEPARATOR;
+		assertEquals(">1ABC_1\nMKV\n//\n", truncate(">1ABC_1\nMKV\n//\n"
+				+ ">2DEF_1\nMKV\n>2DE", sep));
+		// Complete lines of an incomplete record are removed too
+		assertEquals(">1ABC_1\nMKV\n//\n", truncate(">1ABC_1\nMKV\n//\n"
+				+ ">2DEF_1\nMKV\n", sep));
+		assertEquals(">1ABC_1\nMKV\n//\r\n", truncate(">1ABC_1\nMKV\n//\r\n"
+				+ ">2DEF_1\n", sep));
+		assertEquals("", truncate(">1ABC_1\nMKV\n", sep));
+		assertEquals("//\n", truncate("//\n>2DEF_1\n", sep));
+
+		// Long records, over several read buffers
+		StringBuilder record = new StringBuilder();
+		for (int i = 0; i < 2000; i++)
+			record.append("1ABC\t").append(i).append('\n');
+		record.append("//\n");
+		assertEquals(record.toString(), truncate(record + record.substring(
+				0, 10000), sep));
+	}
+
+}
@@ -0,0 +1,126 @@
+package writers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class ReorderBufferTest {
+
+	private static Runnable add(final List<Long> out, final long sequence) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				out.add(sequence);
+			}
+		};
+	}
+
+	@Test
+	public void testReleaseInOrder() throws InterruptedException {
+		ReorderBuffer buffer = new ReorderBuffer(4);
+		List<Long> out = new ArrayList<Long>();
+		for (int i = 0; i < 4; i++)
+			assertEquals(i, buffer.nextSequence());
+
+		buffer.release(2, add(out, 2));
+		buffer.release(1, add(out, 1));
+		assertEquals(0, out.size());
+		assertEquals(4, buffer.size());
+
+		// Jobs without output do not hold back the next ones
+		buffer.release(0, null);
+		assertEquals(Arrays.asList(1L, 2L), out);
+		assertEquals(1, buffer.size());
+
+		buffer.release(3, add(out, 3));
+		assertEquals(Arrays.asList(1L, 2L, 3L), out);
+		assertEquals(0, buffer.size());
+	}
+
+	@Test(timeout = 10000)
+	public void testBlocksWhenFull() throws InterruptedException {
+		final ReorderBuffer buffer = new ReorderBuffer(2);
+		final List<Long> out = new ArrayList<Long>();
+		buffer.nextSequence();
+		buffer.nextSequence();
+
+		Thread worker = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					return;
+				}
+				buffer.release(1, add(out, 1));
+				buffer.release(0, add(out, 0));
+			}
+		};
+		worker.start();
+
+		// Waits until the first job is written
+		assertEquals(2, buffer.nextSequence());
+		worker.join();
+		assertEquals(Arrays.asList(0L, 1L), out);
+	}
+
+	@Test(timeout = 10000)
+	public void testBlockedWrite() throws InterruptedException {
+		final ReorderBuffer buffer = new ReorderBuffer(4);
+		final List<Long> out = Collections
+				.synchronizedList(new ArrayList<Long>());
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch unblock = new CountDownLatch(1);
+		for (int i = 0; i < 3; i++)
+			buffer.nextSequence();
+
+		// The write of the first job blocks, e.g. on a full output queue
+		Thread drainer = new Thread() {
+			@Override
+			public void run() {
+				buffer.release(0, new Runnable() {
+					@Override
+					public void run() {
+						started.countDown();
+						try {
+							unblock.await();
+						} catch (InterruptedException e) {
+							return;
+						}
+						out.add(0L);
+					}
+				});
+			}
+		};
+		drainer.start();
+		started.await();
+
+		// Other jobs are released without waiting for it
+		buffer.release(2, add(out, 2));
+		buffer.release(1, add(out, 1));
+		assertEquals(0, out.size());
+		assertEquals(3, buffer.size());
+
+		// And written in order by the thread that runs the writes
+		unblock.countDown();
+		drainer.join();
+		assertEquals(Arrays.asList(0L, 1L, 2L), out);
+		assertEquals(0, buffer.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testReleaseTwice() throws InterruptedException {
+		ReorderBuffer buffer = new ReorderBuffer(2);
+		buffer.nextSequence();
+		buffer.nextSequence();
+		buffer.release(1, null);
+		buffer.release(1, null);
+	}
+
+}